@@ -0,0 +1,78 @@
+package xyz.codeark.whistler.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.support.GitServiceFixture;
+import xyz.codeark.whistler.support.SyntheticWorkspace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovery of a whole workspace, which walks the directories and loads the branches of every
+ * repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=benchmark-logback.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DiscoveryBenchmark {
+	@Param({"100", "1000"})
+	int repositories;
+
+	@Param({"1", "3"})
+	int depth;
+
+	@Param({"10"})
+	int branches;
+
+	@Param({"false", "true"})
+	boolean packedRefs;
+
+	private Path directory;
+	private SyntheticWorkspace workspace;
+	private GitServiceFixture fixture;
+	private String root;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("whistler-benchmark");
+		workspace = SyntheticWorkspace.builder()
+				.repositories(repositories)
+				.depth(depth)
+				.branches(branches)
+				.packedRefs(packedRefs)
+				.create(directory);
+		fixture = new GitServiceFixture(directory);
+		root = workspace.getRoot().toString();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		fixture.close();
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	public List<Directory> discoverRepositories() {
+		return fixture.gitService.discoverRepositories(root, depth);
+	}
+}
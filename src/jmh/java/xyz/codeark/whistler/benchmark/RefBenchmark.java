@@ -0,0 +1,121 @@
+package xyz.codeark.whistler.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.support.GitServiceFixture;
+import xyz.codeark.whistler.support.SyntheticWorkspace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ref operations on single repositories, cycling through the repositories of the workspace so
+ * they hit the repository cache but not the same refs every time. With a refs max age of 0 the
+ * refs are read from disk on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=benchmark-logback.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RefBenchmark {
+	private static final int REPOSITORIES = 16;
+
+	@Param({"10", "1000"})
+	int branches;
+
+	@Param({"false", "true"})
+	boolean packedRefs;
+
+	@Param({"0", "5000"})
+	long refsMaxAge;
+
+	private Path directory;
+	private SyntheticWorkspace workspace;
+	private GitServiceFixture fixture;
+	private List<Directory> repositories;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("whistler-benchmark");
+		workspace = SyntheticWorkspace.builder()
+				.repositories(REPOSITORIES)
+				.branches(branches)
+				.packedRefs(packedRefs)
+				.remotes(true)
+				.create(directory);
+		fixture = new GitServiceFixture(directory, refsMaxAge);
+		repositories = workspace.getRepositories();
+		// Fetch once, so the tracking checks measure the ref reads and not the fetch
+		for (Directory repository : repositories) {
+			fixture.fetchScheduler.fetch(repository).join();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		fixture.close();
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+
+		int next() {
+			return next++;
+		}
+	}
+
+	@Benchmark
+	public List<String> localBranches(Cursor cursor) {
+		return fixture.gitService.getLocalBranches(repository(cursor.next()));
+	}
+
+	@Benchmark
+	public List<String> remoteBranches(Cursor cursor) {
+		return fixture.gitService.getRemoteBranches(repository(cursor.next()));
+	}
+
+	@Benchmark
+	public Boolean branchExistsLocally(Cursor cursor) {
+		int index = cursor.next();
+		return fixture.gitService.branchExistsLocally(repository(index), workspace.getBranchName(index));
+	}
+
+	@Benchmark
+	public Boolean branchExistsRemotely(Cursor cursor) {
+		int index = cursor.next();
+		return fixture.gitService.branchExistsRemotely(repository(index), workspace.getBranchName(index));
+	}
+
+	/**
+	 * Tracking status of a branch behind its upstream, with the fetch done in the setup.
+	 */
+	@Benchmark
+	public Boolean branchUpToDate(Cursor cursor) {
+		int index = cursor.next();
+		return fixture.gitService.isBranchUpToDate(repository(index), workspace.getBranchName(index), Long.MAX_VALUE);
+	}
+
+	private Directory repository(int index) {
+		return repositories.get(Math.floorMod(index, REPOSITORIES));
+	}
+}
@@ -1,15 +1,359 @@
 package xyz.codeark.whistler.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import xyz.codeark.whistler.dto.BranchStatus;
+import xyz.codeark.whistler.dto.BuildCacheStatistics;
+import xyz.codeark.whistler.dto.BulkOperationRequest;
+import xyz.codeark.whistler.dto.BulkOperationResult;
+import xyz.codeark.whistler.dto.CommitIndexStatistics;
+import xyz.codeark.whistler.dto.CommitIndexUpdate;
+import xyz.codeark.whistler.dto.CommitMatch;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.Job;
+import xyz.codeark.whistler.dto.JobRequest;
+import xyz.codeark.whistler.dto.JobType;
+import xyz.codeark.whistler.dto.MaintenanceResult;
+import xyz.codeark.whistler.dto.Worktree;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.service.BuildCache;
+import xyz.codeark.whistler.service.BulkOperationService;
+import xyz.codeark.whistler.service.CommitIndex;
 import xyz.codeark.whistler.service.GitService;
+import xyz.codeark.whistler.service.JobService;
+import xyz.codeark.whistler.service.OutputBuffer;
+import xyz.codeark.whistler.service.RepositoryIndex;
+import xyz.codeark.whistler.service.StatusService;
+import xyz.codeark.whistler.util.RestConstants;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+@Slf4j
 @RestController
 public class GitResource {
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final String DEFAULT_MAX_DEPTH = "5";
+    private static final String DEFAULT_COMMIT_LIMIT = "100";
+    private static final int OUTPUT_CHUNK_LINES = 256;
+    private static final long OUTPUT_POLL_MILLIS = 1000;
+
     private GitService gitService;
+    private BulkOperationService bulkOperationService;
+    private RepositoryIndex repositoryIndex;
+    private CommitIndex commitIndex;
+    private StatusService statusService;
+    private JobService jobService;
+    private BuildCache buildCache;
+    private ObjectMapper objectMapper;
 
-    public GitResource(GitService gitService) {
+    public GitResource(GitService gitService, BulkOperationService bulkOperationService, RepositoryIndex repositoryIndex,
+                       CommitIndex commitIndex, StatusService statusService, JobService jobService, BuildCache buildCache,
+                       ObjectMapper objectMapper) {
         this.gitService = gitService;
+        this.bulkOperationService = bulkOperationService;
+        this.repositoryIndex = repositoryIndex;
+        this.commitIndex = commitIndex;
+        this.statusService = statusService;
+        this.jobService = jobService;
+        this.buildCache = buildCache;
+        this.objectMapper = objectMapper;
+    }
+
+    @GetMapping(value = RestConstants.DISCOVERY, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<Directory> discover(@RequestParam String rootDirectory,
+                                    @RequestParam(defaultValue = DEFAULT_MAX_DEPTH) int maxDepth) {
+        return repositoryIndex.getDirectories(rootDirectory, maxDepth);
+    }
+
+    /**
+     * Streams the directories as they are discovered, one JSON document per line or one
+     * server-sent event per directory. Writes block while the client is not reading, which slows
+     * the discovery down, and the discovery stops as soon as the client goes away.
+     */
+    @GetMapping(value = RestConstants.DISCOVERY, produces = {APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamDiscovery(@RequestParam String rootDirectory,
+                                                                 @RequestParam(defaultValue = DEFAULT_MAX_DEPTH) int maxDepth,
+                                                                 @RequestParam(defaultValue = "false") boolean deferBranches,
+                                                                 @RequestHeader(HttpHeaders.ACCEPT) String accept) {
+        gitService.resolveRootDirectory(rootDirectory);
+        boolean serverSentEvents = accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE);
+
+        StreamingResponseBody body = outputStream -> {
+            AtomicBoolean cancelled = new AtomicBoolean();
+            gitService.discoverRepositories(rootDirectory, maxDepth, !deferBranches, directory -> {
+                if (!cancelled.get()) {
+                    write(outputStream, directory, serverSentEvents, cancelled);
+                }
+            }, cancelled::get);
+        };
+        return ResponseEntity.ok()
+                .contentType(serverSentEvents ? MediaType.TEXT_EVENT_STREAM : MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(body);
+    }
+
+    @GetMapping(value = RestConstants.BRANCHES, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Directory getBranches(@RequestParam String path) {
+        return gitService.getBranches(path);
+    }
+
+    /**
+     * Tells whether the branch is behind its upstream, based on a fetch at most maxAge
+     * milliseconds old. Without maxAge the configured default age is used.
+     */
+    @GetMapping(value = RestConstants.UP_TO_DATE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Boolean isBranchUpToDate(@RequestParam String path,
+                                    @RequestParam String branchName,
+                                    @RequestParam(required = false) Long maxAge) {
+        Directory directory = gitService.resolveRepository(path);
+        return maxAge != null
+                ? gitService.isBranchUpToDate(directory, branchName, maxAge)
+                : gitService.isBranchUpToDate(directory, branchName);
+    }
+
+    @GetMapping(value = RestConstants.STATUS, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BranchStatus> getWorkspaceStatus(@RequestParam String rootDirectory,
+                                                 @RequestParam(defaultValue = DEFAULT_MAX_DEPTH) int maxDepth) {
+        return statusService.getWorkspaceStatus(rootDirectory, maxDepth);
+    }
+
+    @GetMapping(value = RestConstants.WORKTREES, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<Worktree> getWorktrees(@RequestParam String path) {
+        return gitService.getWorktrees(gitService.resolveRepository(path));
+    }
+
+    /**
+     * Creates the pooled worktree of a branch, or moves it to the tip of the branch.
+     */
+    @PostMapping(value = RestConstants.WORKTREES, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Worktree prepareWorktree(@RequestBody JobRequest request) {
+        if (request.getPath() == null || request.getBranchName() == null) {
+            throw new WhistlerRestException(RestConstants.INVALID_JOB_REQUEST, HttpStatus.BAD_REQUEST);
+        }
+        return gitService.prepareWorktree(gitService.resolveRepository(request.getPath()), request.getBranchName());
+    }
+
+    @DeleteMapping(value = RestConstants.WORKTREES)
+    public ResponseEntity<Void> removeWorktree(@RequestParam String path, @RequestParam String branchName) {
+        gitService.removeWorktree(gitService.resolveRepository(path), branchName);
+        return ResponseEntity.noContent().build();
+    }
+
+    @PostMapping(value = RestConstants.BULK_CHECKOUT, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BulkOperationResult> bulkCheckout(@RequestBody BulkOperationRequest request) {
+        return bulkOperationService.checkoutBranch(toDirectories(request), request.getBranchName(), request.getMode());
+    }
+
+    @PostMapping(value = RestConstants.BULK_PULL_REBASE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BulkOperationResult> bulkPullRebase(@RequestBody BulkOperationRequest request) {
+        return bulkOperationService.pullRebase(toDirectories(request), request.getBranchName(), request.getMode());
+    }
+
+    @PostMapping(value = RestConstants.JOB_CHECKOUT, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Job> submitCheckout(@RequestBody JobRequest request) {
+        return submit(JobType.CHECKOUT, request);
+    }
+
+    @PostMapping(value = RestConstants.JOB_PULL_REBASE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Job> submitPullRebase(@RequestBody JobRequest request) {
+        return submit(JobType.PULL_REBASE, request);
+    }
+
+    @PostMapping(value = RestConstants.JOB_FETCH, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Job> submitFetch(@RequestBody JobRequest request) {
+        return submit(JobType.FETCH, request);
+    }
+
+    @PostMapping(value = RestConstants.JOB_BUILD, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Job> submitBuild(@RequestBody JobRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(jobService.submitBuild(request.getPath(), request.getMaxDepth(), request.getBranchName()));
+    }
+
+    @GetMapping(value = RestConstants.JOB, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Job getJob(@PathVariable String id) {
+        return jobService.getJob(id);
+    }
+
+    @GetMapping(value = RestConstants.JOB_RESULT, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<BulkOperationResult> getJobResult(@PathVariable String id) {
+        return jobService.getResult(id);
+    }
+
+    /**
+     * Tails the output of a job from a line offset, as plain text or as one server-sent event per
+     * line with the line offset as event id, so a reconnecting client resumes at Last-Event-ID.
+     * With follow the response stays open until the job finished and its output is drained.
+     * Lines lost from the output are replaced by a single marker line.
+     */
+    @GetMapping(value = RestConstants.JOB_OUTPUT, produces = {MediaType.TEXT_PLAIN_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamJobOutput(@PathVariable String id,
+                                                                 @RequestParam(defaultValue = "0") long offset,
+                                                                 @RequestParam(defaultValue = "true") boolean follow,
+                                                                 @RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = MediaType.TEXT_PLAIN_VALUE) String accept,
+                                                                 @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        OutputBuffer output = jobService.getOutput(id);
+        boolean serverSentEvents = accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE);
+        long start = lastEventId != null ? lastEventId + 1 : Math.max(0, offset);
+
+        StreamingResponseBody body = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            long next = start;
+            try {
+                while (true) {
+                    OutputBuffer.Chunk chunk = output.read(next, OUTPUT_CHUNK_LINES);
+                    if (chunk.getDroppedLines() > 0) {
+                        writeLine(writer, chunk.getOffset() - 1, "... " + chunk.getDroppedLines() + " lines dropped", serverSentEvents);
+                    }
+                    long lineOffset = chunk.getOffset();
+                    for (String line : chunk.getLines()) {
+                        writeLine(writer, lineOffset++, line, serverSentEvents);
+                    }
+                    next = chunk.getNextOffset();
+                    writer.flush();
+                    if (!chunk.getLines().isEmpty()) {
+                        continue;
+                    }
+                    if (next < output.getNextOffset()) {
+                        // The lines past the offset exist but could not be read, waiting would not help
+                        log.warn("The output of job={} cannot be read past line={}", id, next);
+                        return;
+                    }
+                    // Closed is checked before reading again, so the lines appended before closing are drained
+                    boolean closed = output.isClosed();
+                    if (!follow || (closed && next >= output.getNextOffset())) {
+                        return;
+                    }
+                    output.await(next, OUTPUT_POLL_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                log.info("The output client of job={} went away", id);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(serverSentEvents ? MediaType.TEXT_EVENT_STREAM : new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8))
+                .body(body);
+    }
+
+    /**
+     * Searches the commit index, every given criterion must match.
+     */
+    @GetMapping(value = RestConstants.COMMITS, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CommitMatch> searchCommits(@RequestParam(required = false) String text,
+                                           @RequestParam(required = false) String author,
+                                           @RequestParam(required = false) String path,
+                                           @RequestParam(defaultValue = DEFAULT_COMMIT_LIMIT) int limit) {
+        return commitIndex.search(text, author, path, limit);
+    }
+
+    /**
+     * Adds the repositories below the root directory to the commit index, and indexes the
+     * commits added to their branches since their last update.
+     */
+    @PostMapping(value = RestConstants.COMMIT_INDEX, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CommitIndexUpdate updateCommitIndex(@RequestParam String rootDirectory,
+                                               @RequestParam(defaultValue = DEFAULT_MAX_DEPTH) int maxDepth) {
+        return commitIndex.update(repositoryIndex.getDirectories(rootDirectory, maxDepth));
     }
 
+    @GetMapping(value = RestConstants.COMMIT_INDEX, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CommitIndexStatistics getCommitIndexStatistics() {
+        return commitIndex.getStatistics();
+    }
+
+    @GetMapping(value = RestConstants.MAINTENANCE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<MaintenanceResult> getMaintenanceResults() {
+        return gitService.getMaintenanceResults();
+    }
+
+    /**
+     * Packs the objects and refs of a repository now, instead of waiting for it to degrade.
+     */
+    @PostMapping(value = RestConstants.MAINTENANCE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public MaintenanceResult maintain(@RequestParam String path) {
+        return gitService.maintain(gitService.resolveRepository(path));
+    }
+
+    @GetMapping(value = RestConstants.BUILD_CACHE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public BuildCacheStatistics getBuildCacheStatistics() {
+        return buildCache.getStatistics();
+    }
 
+    private ResponseEntity<Job> submit(JobType type, JobRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(jobService.submit(type, request.getPath(), request.getBranchName()));
+    }
+
+    private static List<Directory> toDirectories(BulkOperationRequest request) {
+        if (request.getPaths() == null || request.getBranchName() == null) {
+            throw new WhistlerRestException(RestConstants.INVALID_BULK_OPERATION_REQUEST, HttpStatus.BAD_REQUEST);
+        }
+        return request.getPaths().stream()
+                .distinct()
+                .map(path -> {
+                    Directory directory = new Directory();
+                    directory.setPath(path);
+                    directory.setName(new File(path).getName());
+                    return directory;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static void writeLine(Writer writer, long offset, String line, boolean serverSentEvents) throws IOException {
+        if (serverSentEvents) {
+            writer.write("id: ");
+            writer.write(Long.toString(offset));
+            writer.write("\ndata: ");
+            writer.write(line);
+            writer.write("\n\n");
+        } else {
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+
+    private void write(OutputStream outputStream, Directory directory, boolean serverSentEvents, AtomicBoolean cancelled) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(directory);
+        } catch (JsonProcessingException e) {
+            // The client is still there, only this directory is left out
+            log.error("Could not serialize the discovered directory={}", directory.getPath(), e);
+            return;
+        }
+        byte[] line = (serverSentEvents ? "data: " + json + "\n\n" : json + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            synchronized (outputStream) {
+                outputStream.write(line);
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            log.info("The discovery client went away, cancelling the discovery");
+            cancelled.set(true);
+        }
+    }
 }
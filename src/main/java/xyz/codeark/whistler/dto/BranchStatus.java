@@ -0,0 +1,36 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BranchStatus {
+    private String path;
+    private String name;
+    private String branchName;
+    private Boolean isCurrentBranch;
+    /**
+     * Remote tracking branch of the branch, e.g. refs/remotes/origin/master
+     */
+    private String upstream;
+    private Integer aheadCount;
+    private Integer behindCount;
+    private String message;
+
+    @Override
+    public String toString() {
+        return "BranchStatus{" +
+                "path='" + path + '\'' +
+                ", name='" + name + '\'' +
+                ", branchName='" + branchName + '\'' +
+                ", isCurrentBranch=" + isCurrentBranch +
+                ", upstream='" + upstream + '\'' +
+                ", aheadCount=" + aheadCount +
+                ", behindCount=" + behindCount +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package xyz.codeark.whistler.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class BuildCacheStatistics {
+    private long hits;
+    private long misses;
+    private long stores;
+    private long evictions;
+    private int entries;
+    private long sizeBytes;
+    private long maxSizeBytes;
+
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+        return "BuildCacheStatistics{" +
+                "hits=" + hits +
+                ", misses=" + misses +
+                ", stores=" + stores +
+                ", evictions=" + evictions +
+                ", entries=" + entries +
+                ", sizeBytes=" + sizeBytes +
+                ", maxSizeBytes=" + maxSizeBytes +
+                '}';
+    }
+}
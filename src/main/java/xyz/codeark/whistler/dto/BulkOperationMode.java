@@ -0,0 +1,12 @@
+package xyz.codeark.whistler.dto;
+
+public enum BulkOperationMode {
+    /**
+     * Stops starting new repositories after the first failure, the remaining ones are skipped
+     */
+    FAIL_FAST,
+    /**
+     * Runs the operation on every repository whatever happens to the others
+     */
+    BEST_EFFORT
+}
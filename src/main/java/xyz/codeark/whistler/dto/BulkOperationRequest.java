@@ -0,0 +1,14 @@
+package xyz.codeark.whistler.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Setter
+@Getter
+public class BulkOperationRequest {
+    private List<String> paths;
+    private String branchName;
+    private BulkOperationMode mode = BulkOperationMode.BEST_EFFORT;
+}
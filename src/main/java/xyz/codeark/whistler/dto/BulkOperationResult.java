@@ -0,0 +1,33 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkOperationResult {
+    private String path;
+    private String name;
+    private Status status;
+    private String message;
+    private Long durationMillis;
+
+    public enum Status {
+        SUCCESS,
+        FAILED,
+        SKIPPED
+    }
+
+    @Override
+    public String toString() {
+        return "BulkOperationResult{" +
+                "path='" + path + '\'' +
+                ", name='" + name + '\'' +
+                ", status=" + status +
+                ", message='" + message + '\'' +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
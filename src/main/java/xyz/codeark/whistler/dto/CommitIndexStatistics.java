@@ -0,0 +1,21 @@
+package xyz.codeark.whistler.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class CommitIndexStatistics {
+    private int repositories;
+    private long commits;
+    private long terms;
+
+    @Override
+    public String toString() {
+        return "CommitIndexStatistics{" +
+                "repositories=" + repositories +
+                ", commits=" + commits +
+                ", terms=" + terms +
+                '}';
+    }
+}
@@ -0,0 +1,32 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CommitIndexUpdate {
+    private int repositories;
+    /**
+     * Repositories in which at least one branch moved since the last update
+     */
+    private int updatedRepositories;
+    private long newCommits;
+    private List<String> failedRepositories;
+    private long durationMillis;
+
+    @Override
+    public String toString() {
+        return "CommitIndexUpdate{" +
+                "repositories=" + repositories +
+                ", updatedRepositories=" + updatedRepositories +
+                ", newCommits=" + newCommits +
+                ", failedRepositories=" + failedRepositories +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
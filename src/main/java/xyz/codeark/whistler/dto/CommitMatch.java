@@ -0,0 +1,35 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CommitMatch {
+    private String path;
+    private String name;
+    private String commitId;
+    private String authorName;
+    private String authorEmail;
+    /**
+     * Committer time, in milliseconds since the epoch. Rebased or cherry-picked commits keep
+     * their author time but get a new committer time
+     */
+    private long commitTime;
+    private String message;
+
+    @Override
+    public String toString() {
+        return "CommitMatch{" +
+                "path='" + path + '\'' +
+                ", name='" + name + '\'' +
+                ", commitId='" + commitId + '\'' +
+                ", authorName='" + authorName + '\'' +
+                ", authorEmail='" + authorEmail + '\'' +
+                ", commitTime=" + commitTime +
+                ", message='" + message + '\'' +
+                '}';
+    }
+}
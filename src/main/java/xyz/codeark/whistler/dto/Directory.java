@@ -15,8 +15,10 @@ public class Directory implements Comparable<Directory> {
     private String branchName;
     private Boolean isGitRepository;
     private Boolean isGradleProject;
+    private Boolean isMavenProject;
     private List<String> localBranches;
     private List<String> remoteBranches;
+    private List<Worktree> worktrees;
 
     @Override
     public String toString() {
@@ -26,8 +28,10 @@ public class Directory implements Comparable<Directory> {
                 ", branchName='" + branchName + '\'' +
                 ", isGitRepository=" + isGitRepository +
                 ", isGradleProject=" + isGradleProject +
+                ", isMavenProject=" + isMavenProject +
                 ", localBranches=" + localBranches +
                 ", remoteBranches=" + remoteBranches +
+                ", worktrees=" + worktrees +
                 '}';
     }
 
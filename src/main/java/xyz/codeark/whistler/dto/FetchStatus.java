@@ -0,0 +1,30 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FetchStatus {
+    private String path;
+    private boolean success;
+    private String message;
+    /**
+     * Time the fetch completed at, in milliseconds since the epoch
+     */
+    private long fetchedAt;
+    private long durationMillis;
+
+    @Override
+    public String toString() {
+        return "FetchStatus{" +
+                "path='" + path + '\'' +
+                ", success=" + success +
+                ", message='" + message + '\'' +
+                ", fetchedAt=" + fetchedAt +
+                ", durationMillis=" + durationMillis +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Job {
+    private String id;
+    private JobType type;
+    private Status status;
+    private String path;
+    private String name;
+    private String branchName;
+    /**
+     * Task currently reported by git, e.g. "Receiving objects"
+     */
+    private String task;
+    private Integer completedWork;
+    /**
+     * Total work of the current task, absent when git does not know it upfront
+     */
+    private Integer totalWork;
+    private String message;
+    private Long submittedAt;
+    private Long startedAt;
+    private Long finishedAt;
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    @Override
+    public String toString() {
+        return "Job{" +
+                "id='" + id + '\'' +
+                ", type=" + type +
+                ", status=" + status +
+                ", path='" + path + '\'' +
+                ", name='" + name + '\'' +
+                ", branchName='" + branchName + '\'' +
+                ", task='" + task + '\'' +
+                ", completedWork=" + completedWork +
+                ", totalWork=" + totalWork +
+                ", message='" + message + '\'' +
+                ", submittedAt=" + submittedAt +
+                ", startedAt=" + startedAt +
+                ", finishedAt=" + finishedAt +
+                '}';
+    }
+}
@@ -0,0 +1,19 @@
+package xyz.codeark.whistler.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+public class JobRequest {
+    private String path;
+    /**
+     * Branch to check out or rebase, not used by fetch jobs. Build jobs build the branch in a
+     * pooled worktree when it is set
+     */
+    private String branchName;
+    /**
+     * Maximum depth of the projects below the path, only used by build jobs
+     */
+    private int maxDepth = 5;
+}
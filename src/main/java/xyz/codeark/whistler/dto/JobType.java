@@ -0,0 +1,8 @@
+package xyz.codeark.whistler.dto;
+
+public enum JobType {
+    CHECKOUT,
+    PULL_REBASE,
+    FETCH,
+    BUILD
+}
@@ -0,0 +1,42 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MaintenanceResult {
+    private String path;
+    private String name;
+    private Status status;
+    private String message;
+    /**
+     * Time the maintenance started at, in milliseconds since the epoch
+     */
+    private long startedAt;
+    private long durationMillis;
+    private RepositoryHealth before;
+    private RepositoryHealth after;
+
+    public enum Status {
+        SUCCEEDED,
+        FAILED,
+        SKIPPED
+    }
+
+    @Override
+    public String toString() {
+        return "MaintenanceResult{" +
+                "path='" + path + '\'' +
+                ", name='" + name + '\'' +
+                ", status=" + status +
+                ", message='" + message + '\'' +
+                ", startedAt=" + startedAt +
+                ", durationMillis=" + durationMillis +
+                ", before=" + before +
+                ", after=" + after +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RepositoryHealth {
+    private long looseObjects;
+    private long packs;
+    private long looseRefs;
+    private long packedRefs;
+    /**
+     * Time taken to list all the refs, in microseconds
+     */
+    private long refsMicros;
+    /**
+     * Time taken to walk the history of HEAD, in microseconds
+     */
+    private long walkMicros;
+    /**
+     * Commits walked from HEAD, at most the configured walk limit
+     */
+    private int walkedCommits;
+
+    @Override
+    public String toString() {
+        return "RepositoryHealth{" +
+                "looseObjects=" + looseObjects +
+                ", packs=" + packs +
+                ", looseRefs=" + looseRefs +
+                ", packedRefs=" + packedRefs +
+                ", refsMicros=" + refsMicros +
+                ", walkMicros=" + walkMicros +
+                ", walkedCommits=" + walkedCommits +
+                '}';
+    }
+}
@@ -0,0 +1,35 @@
+package xyz.codeark.whistler.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Worktree {
+    private String path;
+    private String branchName;
+    /**
+     * Commit the worktree is checked out at, detached from the branch
+     */
+    private String commitId;
+    private long sizeBytes;
+    /**
+     * Time the worktree was last leased or released at, in milliseconds since the epoch
+     */
+    private long lastUsedAt;
+    private boolean inUse;
+
+    @Override
+    public String toString() {
+        return "Worktree{" +
+                "path='" + path + '\'' +
+                ", branchName='" + branchName + '\'' +
+                ", commitId='" + commitId + '\'' +
+                ", sizeBytes=" + sizeBytes +
+                ", lastUsedAt=" + lastUsedAt +
+                ", inUse=" + inUse +
+                '}';
+    }
+}
@@ -0,0 +1,25 @@
+package xyz.codeark.whistler.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import xyz.codeark.whistler.dto.ErrorResponse;
+
+@RestControllerAdvice
+public class WhistlerExceptionHandler {
+
+    /**
+     * Maps a {@link WhistlerRestException} to its HTTP status, defaulting to 500 when the
+     * exception does not carry one.
+     *
+     * @param exception The exception thrown by a resource
+     * @return The error response
+     */
+    @ExceptionHandler(WhistlerRestException.class)
+    public ResponseEntity<ErrorResponse> handleWhistlerRestException(WhistlerRestException exception) {
+        HttpStatus status = exception.getStatus() != null ? exception.getStatus() : HttpStatus.INTERNAL_SERVER_ERROR;
+        return ResponseEntity.status(status)
+                .body(new ErrorResponse(exception.getMessage(), exception.getPath(), exception.getName()));
+    }
+}
@@ -0,0 +1,459 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.BuildCacheStatistics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local cache of successful project builds, addressed by the content the build depends on.
+ * <p>
+ * The key of a project combines the git tree id of the project directory at {@code HEAD}, a hash
+ * of its uncommitted changes and the keys of its upstream projects, so a project is rebuilt when
+ * its own sources or the sources of anything it depends on change. A cache hit restores the
+ * artifacts of the stored build into the project instead of running the build.
+ * <p>
+ * Entries live in {@code whistler.build.cache.directory}; the least recently used ones are deleted
+ * once the cache grows past {@code whistler.build.cache.max-size} bytes. Projects outside of a git
+ * repository, or in a repository without commits, are never cached. JGit cannot open linked
+ * worktrees, so the key of a project in one is computed with the git command line.
+ */
+@Slf4j
+@Component
+public class BuildCache {
+    private static final String OUTCOME_FILE = "outcome.properties";
+    private static final String ARTIFACTS_DIRECTORY = "artifacts";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final Set<String> OUTPUT_DIRECTORIES = Set.of("target", "build", ".gradle");
+    private static final int ARTIFACT_SEARCH_DEPTH = 6;
+
+    private final RepositoryCache repositoryCache;
+    private final GitCommandLine gitCommandLine;
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile boolean loaded;
+
+    public BuildCache(RepositoryCache repositoryCache,
+                      @Value("${whistler.build.cache.enabled:true}") boolean enabled,
+                      @Value("${whistler.build.cache.directory:${user.home}/.whistler/build-cache}") String directory,
+                      @Value("${whistler.build.cache.max-size:2147483648}") long maxSizeBytes,
+                      @Value("${whistler.worktrees.git-command:git}") String gitCommand) {
+        this.repositoryCache = repositoryCache;
+        this.gitCommandLine = new GitCommandLine(gitCommand);
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Computes the cache key of a project.
+     *
+     * @param project      Project to build
+     * @param upstreamKeys Keys of the upstream projects of the project
+     * @return The key, empty if the project cannot be cached
+     */
+    public Optional<String> key(BuildProject project, Collection<String> upstreamKeys) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Path projectPath = project.getPath().toAbsolutePath().normalize();
+        Path repositoryRoot = repositoryRoot(projectPath);
+        if (repositoryRoot == null) {
+            return Optional.empty();
+        }
+        String relativePath = repositoryRoot.relativize(projectPath).toString().replace('\\', '/');
+        try {
+            ObjectId tree;
+            Set<String> changed;
+            if (Files.isRegularFile(repositoryRoot.resolve(DirectoryWalker.GIT_DIRECTORY))) {
+                // A linked worktree, whose .git file JGit cannot open
+                tree = worktreeTree(repositoryRoot, relativePath);
+                changed = tree == null ? Set.of() : worktreeChanges(repositoryRoot, relativePath);
+            } else {
+                try (RepositoryCache.Handle handle = repositoryCache.open(repositoryRoot.toString())) {
+                    Repository repository = handle.repository();
+                    ObjectId headTree = repository.resolve(Constants.HEAD + "^{tree}");
+                    tree = relativePath.isEmpty() || headTree == null ? headTree : subtree(repository, headTree, relativePath);
+                    changed = tree == null ? Set.of() : uncommittedChanges(handle, relativePath);
+                }
+            }
+            if (tree == null) {
+                return Optional.empty();
+            }
+
+            MessageDigest digest = newDigest();
+            update(digest, project.getTool().name());
+            update(digest, tree.name());
+            hashFiles(repositoryRoot, changed, digest);
+            for (String upstreamKey : new TreeSet<>(upstreamKeys)) {
+                update(digest, upstreamKey);
+            }
+            return Optional.of(toHex(digest.digest()));
+        } catch (IOException | GitAPIException e) {
+            log.warn("Could not compute the build cache key of project={}", project.getName(), e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Restores the artifacts of a cached build into the project.
+     *
+     * @param key     Cache key of the project
+     * @param project Project to restore
+     * @return True on a cache hit, false if the project must be built
+     */
+    public boolean restore(String key, BuildProject project) {
+        ensureLoaded();
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        Path entryDirectory = directory.resolve(key);
+        Path artifacts = entryDirectory.resolve(ARTIFACTS_DIRECTORY);
+        try {
+            if (Files.isDirectory(artifacts)) {
+                try (Stream<Path> files = Files.walk(artifacts)) {
+                    for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                        Path target = project.getPath().resolve(artifacts.relativize(file).toString());
+                        Files.createDirectories(target.getParent());
+                        Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+            entry.lastAccess = System.currentTimeMillis();
+            Files.setLastModifiedTime(entryDirectory.resolve(OUTCOME_FILE), FileTime.fromMillis(entry.lastAccess));
+        } catch (IOException e) {
+            log.warn("Could not restore the cached build of project={}, building it", project.getName(), e);
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stores a successful build of a project with its artifacts.
+     *
+     * @param key            Cache key of the project
+     * @param project        Built project
+     * @param message        Outcome of the build
+     * @param durationMillis Duration of the build
+     */
+    public void store(String key, BuildProject project, String message, long durationMillis) {
+        ensureLoaded();
+        if (entries.containsKey(key)) {
+            return;
+        }
+        Path temporary = directory.resolve(key + "." + UUID.randomUUID() + TEMPORARY_SUFFIX);
+        try {
+            Path artifacts = Files.createDirectories(temporary.resolve(ARTIFACTS_DIRECTORY));
+            for (Path artifact : findArtifacts(project)) {
+                Path target = artifacts.resolve(project.getPath().relativize(artifact).toString());
+                Files.createDirectories(target.getParent());
+                Files.copy(artifact, target);
+            }
+            Properties outcome = new Properties();
+            outcome.setProperty("project", project.getName());
+            outcome.setProperty("tool", project.getTool().name());
+            outcome.setProperty("message", message);
+            outcome.setProperty("durationMillis", Long.toString(durationMillis));
+            try (OutputStream output = Files.newOutputStream(temporary.resolve(OUTCOME_FILE))) {
+                outcome.store(output, null);
+            }
+            long size = sizeOf(temporary);
+            Files.move(temporary, directory.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+            entries.put(key, new CacheEntry(key, size, System.currentTimeMillis()));
+            sizeBytes.addAndGet(size);
+            stores.incrementAndGet();
+        } catch (IOException e) {
+            // Typically another build stored the same key first
+            log.warn("Could not store the build of project={} in the build cache", project.getName(), e);
+            deleteRecursively(temporary);
+            return;
+        }
+        evict();
+    }
+
+    public BuildCacheStatistics getStatistics() {
+        return new BuildCacheStatistics(hits.get(), misses.get(), stores.get(), evictions.get(), entries.size(), sizeBytes.get(), maxSizeBytes);
+    }
+
+    private synchronized void evict() {
+        if (sizeBytes.get() <= maxSizeBytes) {
+            return;
+        }
+        List<CacheEntry> leastRecentlyUsed = new ArrayList<>(entries.values());
+        leastRecentlyUsed.sort(Comparator.comparingLong(entry -> entry.lastAccess));
+        for (CacheEntry entry : leastRecentlyUsed) {
+            if (sizeBytes.get() <= maxSizeBytes) {
+                break;
+            }
+            if (entries.remove(entry.key, entry)) {
+                deleteRecursively(directory.resolve(entry.key));
+                sizeBytes.addAndGet(-entry.size);
+                evictions.incrementAndGet();
+                log.debug("Evicted the build cache entry {} of {} bytes", entry.key, entry.size);
+            }
+        }
+    }
+
+    /**
+     * Reads the entries left by previous runs, once.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            try {
+                Files.createDirectories(directory);
+                try (Stream<Path> children = Files.list(directory)) {
+                    for (Path child : children.collect(Collectors.toList())) {
+                        String name = child.getFileName().toString();
+                        if (name.endsWith(TEMPORARY_SUFFIX) || !Files.isRegularFile(child.resolve(OUTCOME_FILE))) {
+                            deleteRecursively(child);
+                            continue;
+                        }
+                        long size = sizeOf(child);
+                        entries.put(name, new CacheEntry(name, size, Files.getLastModifiedTime(child.resolve(OUTCOME_FILE)).toMillis()));
+                        sizeBytes.addAndGet(size);
+                    }
+                }
+                log.info("Loaded {} build cache entries, {} bytes", entries.size(), sizeBytes.get());
+            } catch (IOException e) {
+                log.warn("Could not read the build cache in {}", directory, e);
+            }
+            loaded = true;
+        }
+    }
+
+    private static Set<String> uncommittedChanges(RepositoryCache.Handle handle, String relativePath) throws GitAPIException {
+        StatusCommand statusCommand = handle.git().status();
+        if (!relativePath.isEmpty()) {
+            statusCommand.addPath(relativePath);
+        }
+        Status status = statusCommand.call();
+        Set<String> changed = new TreeSet<>(status.getUncommittedChanges());
+        status.getUntracked().stream()
+                .filter(BuildCache::isSource)
+                .forEach(changed::add);
+        return changed;
+    }
+
+    /**
+     * Resolves the tree of the project at {@code HEAD} in a linked worktree.
+     *
+     * @return The tree id, null if the project is not committed
+     */
+    private ObjectId worktreeTree(Path worktree, String relativePath) throws IOException {
+        if (relativePath.isEmpty()) {
+            return ObjectId.fromString(gitCommandLine.run(worktree, "rev-parse", Constants.HEAD + "^{tree}").trim());
+        }
+        // Prints "<mode> tree <id>\t<path>", or nothing if the path is not in HEAD
+        String entry = gitCommandLine.run(worktree, "ls-tree", "-d", Constants.HEAD, relativePath).trim();
+        String[] fields = entry.split("\\s+");
+        return fields.length >= 3 && Constants.TYPE_TREE.equals(fields[1]) ? ObjectId.fromString(fields[2]) : null;
+    }
+
+    /**
+     * Lists the uncommitted changes of the project in a linked worktree, as git status does.
+     */
+    private Set<String> worktreeChanges(Path worktree, String relativePath) throws IOException {
+        String output = gitCommandLine.run(worktree, "status", "--porcelain", "-z", "--untracked-files=all",
+                "--", relativePath.isEmpty() ? "." : relativePath);
+        Set<String> changed = new TreeSet<>();
+        String[] entries = output.split("\0");
+        for (int i = 0; i < entries.length; i++) {
+            String entry = entries[i];
+            if (entry.length() < 4) {
+                continue;
+            }
+            String status = entry.substring(0, 2);
+            String path = entry.substring(3);
+            if (!status.equals("??") || isSource(path)) {
+                changed.add(path);
+            }
+            if (status.indexOf('R') >= 0 || status.indexOf('C') >= 0) {
+                // The next entry is the source of the rename or copy
+                changed.add(entries[++i]);
+            }
+        }
+        return changed;
+    }
+
+    private static void hashFiles(Path repositoryRoot, Set<String> paths, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (String path : paths) {
+            update(digest, path);
+            Path file = repositoryRoot.resolve(path);
+            if (!Files.isRegularFile(file)) {
+                update(digest, "deleted");
+                continue;
+            }
+            try (InputStream input = Files.newInputStream(file)) {
+                for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Untracked files in build output directories do not change the sources of a project.
+     */
+    private static boolean isSource(String path) {
+        return Stream.of(path.split("/")).noneMatch(OUTPUT_DIRECTORIES::contains);
+    }
+
+    /**
+     * Finds the packaged outputs of a project: the files directly in Maven {@code target}
+     * directories and in Gradle {@code build/libs} directories.
+     */
+    private static List<Path> findArtifacts(BuildProject project) throws IOException {
+        try (Stream<Path> files = Files.walk(project.getPath(), ARTIFACT_SEARCH_DEPTH)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> {
+                        Path parent = file.getParent();
+                        if (project.getTool() == BuildTool.MAVEN) {
+                            return parent.getFileName().toString().equals("target");
+                        }
+                        return parent.getFileName().toString().equals("libs")
+                                && parent.getParent() != null && parent.getParent().getFileName().toString().equals("build");
+                    })
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static ObjectId subtree(Repository repository, ObjectId tree, String path) throws IOException {
+        try (TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree)) {
+            return treeWalk != null ? treeWalk.getObjectId(0) : null;
+        }
+    }
+
+    private static Path repositoryRoot(Path path) {
+        for (Path candidate = path; candidate != null; candidate = candidate.getParent()) {
+            if (Files.exists(candidate.resolve(DirectoryWalker.GIT_DIRECTORY))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void deleteRecursively(Path path) {
+        try {
+            if (!Files.exists(path)) {
+                return;
+            }
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                    Files.delete(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Could not delete {}", path, e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static final class CacheEntry {
+        private final String key;
+        private final long size;
+        private volatile long lastAccess;
+
+        private CacheEntry(String key, long size, long lastAccess) {
+            this.key = key;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
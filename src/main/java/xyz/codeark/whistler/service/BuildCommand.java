@@ -0,0 +1,22 @@
+package xyz.codeark.whistler.service;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Builds one project. The default implementation runs Maven or Gradle, tests replace it with a
+ * stub.
+ */
+public interface BuildCommand {
+
+    /**
+     * Builds the project and waits for the build to finish.
+     *
+     * @param project Project to build
+     * @param output  Receives the output of the build, line by line
+     * @return The exit code of the build, 0 when it succeeded
+     * @throws IOException          If the build could not be started
+     * @throws InterruptedException If the thread was interrupted while waiting for the build
+     */
+    int run(BuildProject project, Consumer<String> output) throws IOException, InterruptedException;
+}
@@ -0,0 +1,292 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import xyz.codeark.whistler.dto.BulkOperationResult;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the Maven and Gradle projects of a workspace in dependency order.
+ * <p>
+ * The projects are linked by the coordinates they produce and depend on. Every project is
+ * scheduled as soon as its own upstream projects are built, so independent chains build
+ * concurrently, bounded by {@code whistler.build.workers}. A project whose upstream failed is
+ * skipped, and the projects of a dependency cycle are reported as failed without being built.
+ * <p>
+ * Projects whose sources and upstream projects did not change since a successful build are
+ * restored from the {@link BuildCache} instead of being built.
+ */
+@Slf4j
+@Service
+public class BuildOrchestrator {
+    static final String BUILD_TASK = "Building projects";
+
+    private final BuildProjectParser buildProjectParser;
+    private final BuildCommand buildCommand;
+    private final BuildCache buildCache;
+    private final ExecutorService executor;
+
+    public BuildOrchestrator(BuildProjectParser buildProjectParser,
+                             BuildCommand buildCommand,
+                             BuildCache buildCache,
+                             @Value("${whistler.build.workers:4}") int workers) {
+        this.buildProjectParser = buildProjectParser;
+        this.buildCommand = buildCommand;
+        this.buildCache = buildCache;
+        this.executor = Executors.newFixedThreadPool(workers, new NamedThreadFactory("whistler-build"));
+    }
+
+    public List<BulkOperationResult> build(Collection<Directory> directories) {
+        return build(directories, NullProgressMonitor.INSTANCE, line -> {
+        });
+    }
+
+    /**
+     * Builds the projects among the directories. Directories nested in another project are
+     * modules of that project and are not built on their own.
+     *
+     * @param directories Discovered directories
+     * @param monitor     Notified once per finished project
+     * @param output      Receives the build output of every project, prefixed with the project name
+     * @return The result of each project, upstream projects first
+     */
+    public List<BulkOperationResult> build(Collection<Directory> directories, ProgressMonitor monitor, Consumer<String> output) {
+        List<BulkOperationResult> results = new ArrayList<>();
+        List<BuildProject> projects = new ArrayList<>();
+        for (Directory directory : buildRoots(directories)) {
+            try {
+                buildProjectParser.parse(directory).ifPresent(projects::add);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not read the build files of project={}", directory.getName(), e);
+                results.add(result(directory.getPath(), directory.getName(), BulkOperationResult.Status.FAILED,
+                        RestConstants.BUILD_PROJECT_UNREADABLE, 0));
+            }
+        }
+
+        Map<BuildProject, Set<BuildProject>> upstreams = upstreams(projects);
+        List<BuildProject> order = topologicalOrder(projects, upstreams);
+        log.info("Building {} projects", projects.size());
+        monitor.beginTask(BUILD_TASK, projects.size());
+
+        Map<BuildProject, CompletableFuture<BulkOperationResult>> builds = new LinkedHashMap<>();
+        Map<BuildProject, String> cacheKeys = new ConcurrentHashMap<>();
+        for (BuildProject project : order) {
+            List<CompletableFuture<BulkOperationResult>> upstreamBuilds = upstreams.get(project).stream()
+                    .map(builds::get)
+                    .collect(Collectors.toList());
+            builds.put(project, CompletableFuture.allOf(upstreamBuilds.toArray(new CompletableFuture[0]))
+                    .thenApplyAsync(ignored -> {
+                        BulkOperationResult result;
+                        if (upstreamBuilds.stream().allMatch(upstream -> upstream.join().getStatus() == BulkOperationResult.Status.SUCCESS)) {
+                            try {
+                                result = buildOrRestore(project, upstreams.get(project), cacheKeys, projectOutput(project, output));
+                            } catch (RuntimeException e) {
+                                // Reported like a failed build, so the downstream projects are skipped
+                                log.error("Unexpected error while building project={}", project.getName(), e);
+                                result = result(project, BulkOperationResult.Status.FAILED,
+                                        e.getMessage() != null ? e.getMessage() : RestConstants.BUILD_COMMAND_FAILURE, 0);
+                            }
+                        } else {
+                            result = result(project, BulkOperationResult.Status.SKIPPED, RestConstants.BUILD_UPSTREAM_FAILED, 0);
+                        }
+                        output.accept("[" + project.getName() + "] " + result.getStatus() + ": " + result.getMessage());
+                        monitor.update(1);
+                        return result;
+                    }, executor));
+        }
+
+        for (CompletableFuture<BulkOperationResult> build : builds.values()) {
+            results.add(build.join());
+        }
+        for (BuildProject project : projects) {
+            if (!builds.containsKey(project)) {
+                results.add(result(project, BulkOperationResult.Status.FAILED, RestConstants.BUILD_DEPENDENCY_CYCLE, 0));
+            }
+        }
+        monitor.endTask();
+        return results;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Restores the project from the build cache, or builds it and caches the build. A project is
+     * only cached when all of its upstream projects are, since their keys are part of its key.
+     */
+    private BulkOperationResult buildOrRestore(BuildProject project, Set<BuildProject> upstreams, Map<BuildProject, String> cacheKeys,
+                                               Consumer<String> output) {
+        Optional<String> key = Optional.empty();
+        if (upstreams.stream().allMatch(cacheKeys::containsKey)) {
+            key = buildCache.key(project, upstreams.stream().map(cacheKeys::get).collect(Collectors.toList()));
+        }
+        key.ifPresent(value -> cacheKeys.put(project, value));
+
+        long start = System.nanoTime();
+        if (key.isPresent() && buildCache.restore(key.get(), project)) {
+            long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.info("Restored project={} from the build cache in {} ms", project.getName(), durationMillis);
+            return result(project, BulkOperationResult.Status.SUCCESS, RestConstants.BUILD_CACHE_HIT, durationMillis);
+        }
+        BulkOperationResult result = build(project, output);
+        if (key.isPresent() && result.getStatus() == BulkOperationResult.Status.SUCCESS) {
+            buildCache.store(key.get(), project, result.getMessage(), result.getDurationMillis());
+        }
+        return result;
+    }
+
+    private BulkOperationResult build(BuildProject project, Consumer<String> output) {
+        long start = System.nanoTime();
+        BulkOperationResult.Status status = BulkOperationResult.Status.FAILED;
+        String message;
+        try {
+            int exitCode = buildCommand.run(project, output);
+            if (exitCode == 0) {
+                status = BulkOperationResult.Status.SUCCESS;
+                message = project.getTool() == BuildTool.MAVEN ? RestConstants.MAVEN_BUILD_SUCCESS : RestConstants.GRADLE_BUILD_SUCCESS;
+            } else {
+                message = project.getTool() == BuildTool.MAVEN ? RestConstants.MAVEN_BUILD_FAIL : RestConstants.GRADLE_BUILD_FAIL;
+            }
+        } catch (IOException e) {
+            log.error("Could not start the build of project={}", project.getName(), e);
+            message = RestConstants.BUILD_COMMAND_FAILURE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            message = RestConstants.BUILD_COMMAND_FAILURE;
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Built project={} in {} ms: {}", project.getName(), durationMillis, status);
+        return result(project, status, message, durationMillis);
+    }
+
+    private static Consumer<String> projectOutput(BuildProject project, Consumer<String> output) {
+        String prefix = "[" + project.getName() + "] ";
+        return line -> output.accept(prefix + line);
+    }
+
+    /**
+     * Drops the directories nested in another project directory.
+     */
+    private static List<Directory> buildRoots(Collection<Directory> directories) {
+        Set<Path> projectPaths = directories.stream()
+                .filter(BuildOrchestrator::isProject)
+                .map(directory -> Paths.get(directory.getPath()).toAbsolutePath().normalize())
+                .collect(Collectors.toSet());
+        return directories.stream()
+                .filter(BuildOrchestrator::isProject)
+                .filter(directory -> {
+                    Path parent = Paths.get(directory.getPath()).toAbsolutePath().normalize().getParent();
+                    for (; parent != null; parent = parent.getParent()) {
+                        if (projectPaths.contains(parent)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static Map<BuildProject, Set<BuildProject>> upstreams(List<BuildProject> projects) {
+        Map<String, List<BuildProject>> providers = new HashMap<>();
+        for (BuildProject project : projects) {
+            project.getProvides().forEach(coordinates -> providers.computeIfAbsent(coordinates, key -> new ArrayList<>()).add(project));
+        }
+        Map<BuildProject, Set<BuildProject>> upstreams = new HashMap<>();
+        for (BuildProject project : projects) {
+            Set<BuildProject> projectUpstreams = new LinkedHashSet<>();
+            for (String coordinates : project.getRequires()) {
+                providers.getOrDefault(coordinates, List.of()).stream()
+                        .filter(provider -> provider != project)
+                        .forEach(projectUpstreams::add);
+            }
+            upstreams.put(project, projectUpstreams);
+        }
+        return upstreams;
+    }
+
+    /**
+     * Orders the projects so that every project comes after its upstream projects. Projects
+     * that are part of, or depend on, a dependency cycle are left out.
+     */
+    private static List<BuildProject> topologicalOrder(List<BuildProject> projects, Map<BuildProject, Set<BuildProject>> upstreams) {
+        Map<BuildProject, Integer> pendingUpstreams = new HashMap<>();
+        Map<BuildProject, List<BuildProject>> downstreams = new HashMap<>();
+        Queue<BuildProject> ready = new ArrayDeque<>();
+        for (BuildProject project : projects) {
+            pendingUpstreams.put(project, upstreams.get(project).size());
+            upstreams.get(project).forEach(upstream -> downstreams.computeIfAbsent(upstream, key -> new ArrayList<>()).add(project));
+            if (upstreams.get(project).isEmpty()) {
+                ready.add(project);
+            }
+        }
+
+        List<BuildProject> order = new ArrayList<>(projects.size());
+        Set<BuildProject> ordered = new HashSet<>();
+        while (!ready.isEmpty()) {
+            BuildProject project = ready.remove();
+            order.add(project);
+            ordered.add(project);
+            for (BuildProject downstream : downstreams.getOrDefault(project, List.of())) {
+                if (pendingUpstreams.merge(downstream, -1, Integer::sum) == 0) {
+                    ready.add(downstream);
+                }
+            }
+        }
+        if (ordered.size() < projects.size()) {
+            log.warn("Dependency cycle between the projects {}", projects.stream()
+                    .filter(project -> !ordered.contains(project))
+                    .map(BuildProject::getName)
+                    .collect(Collectors.toList()));
+        }
+        return order;
+    }
+
+    private static boolean isProject(Directory directory) {
+        return Boolean.TRUE.equals(directory.getIsMavenProject()) || Boolean.TRUE.equals(directory.getIsGradleProject());
+    }
+
+    private static BulkOperationResult result(BuildProject project, BulkOperationResult.Status status, String message, long durationMillis) {
+        return result(project.getPath().toString(), project.getName(), status, message, durationMillis);
+    }
+
+    private static BulkOperationResult result(String path, String name, BulkOperationResult.Status status, String message, long durationMillis) {
+        BulkOperationResult result = new BulkOperationResult();
+        result.setPath(path);
+        result.setName(name);
+        result.setStatus(status);
+        result.setMessage(message);
+        result.setDurationMillis(durationMillis);
+        return result;
+    }
+}
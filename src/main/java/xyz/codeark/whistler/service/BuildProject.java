@@ -0,0 +1,23 @@
+package xyz.codeark.whistler.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * A project built as a whole by one build tool invocation, with the coordinates it produces
+ * ({@code groupId:artifactId}, including those of its modules) and the coordinates it depends on.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BuildProject {
+    private final Path path;
+    private final String name;
+    private final BuildTool tool;
+    private final Set<String> provides;
+    private final Set<String> requires;
+}
@@ -0,0 +1,208 @@
+package xyz.codeark.whistler.service;
+
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import xyz.codeark.whistler.dto.Directory;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the coordinates a Maven or Gradle project produces and the coordinates it depends on.
+ * <p>
+ * Maven modules and Gradle subprojects are folded into the project that includes them, since
+ * they are built by the same invocation. Gradle build scripts are not evaluated; the group,
+ * the included subprojects and the string and map notation dependencies are read with regular
+ * expressions, which covers the conventional build scripts.
+ */
+@Component
+public class BuildProjectParser {
+    static final String GRADLE_SETTINGS_FILE = "settings.gradle";
+    private static final int MAX_MODULE_DEPTH = 8;
+
+    private static final Pattern GRADLE_GROUP = Pattern.compile("(?:^|[{;])\\s*group\\s*=?\\s*['\"]([^'\"]+)['\"]", Pattern.MULTILINE);
+    private static final Pattern GRADLE_DEPENDENCY = Pattern.compile(
+            "\\b(?:api|implementation|compile|compileOnly|runtimeOnly|runtime|testImplementation|testCompile|annotationProcessor)"
+                    + "\\s*\\(?\\s*['\"]([^'\":\\s]+):([^'\":\\s]+)[^'\"]*['\"]");
+    private static final Pattern GRADLE_MAP_DEPENDENCY = Pattern.compile(
+            "group\\s*:\\s*['\"]([^'\"]+)['\"]\\s*,\\s*name\\s*:\\s*['\"]([^'\"]+)['\"]");
+    private static final Pattern GRADLE_ROOT_PROJECT_NAME = Pattern.compile("rootProject\\.name\\s*=\\s*['\"]([^'\"]+)['\"]");
+    private static final Pattern GRADLE_INCLUDE = Pattern.compile("^\\s*include\\b(.*)$", Pattern.MULTILINE);
+    private static final Pattern QUOTED = Pattern.compile("['\"]:?([^'\"]+)['\"]");
+
+    private final DocumentBuilderFactory documentBuilderFactory;
+
+    public BuildProjectParser() {
+        documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        try {
+            documentBuilderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("The XML parser does not support secure processing", e);
+        }
+    }
+
+    /**
+     * Reads a discovered project.
+     *
+     * @param directory Directory flagged as Maven or Gradle project
+     * @return The project, empty if the directory is neither
+     * @throws IOException If the build files cannot be read
+     */
+    public Optional<BuildProject> parse(Directory directory) throws IOException {
+        Path path = Paths.get(directory.getPath());
+        if (Boolean.TRUE.equals(directory.getIsMavenProject())) {
+            return Optional.of(parseMaven(path, directory.getName()));
+        }
+        if (Boolean.TRUE.equals(directory.getIsGradleProject())) {
+            return Optional.of(parseGradle(path, directory.getName()));
+        }
+        return Optional.empty();
+    }
+
+    private BuildProject parseMaven(Path path, String name) throws IOException {
+        Set<String> provides = new LinkedHashSet<>();
+        Set<String> requires = new LinkedHashSet<>();
+        readPom(path, provides, requires, 0);
+        requires.removeAll(provides);
+        return new BuildProject(path, name, BuildTool.MAVEN, provides, requires);
+    }
+
+    private void readPom(Path directory, Set<String> provides, Set<String> requires, int depth) throws IOException {
+        Element project = readXml(directory.resolve(DirectoryWalker.MAVEN_FILE)).getDocumentElement();
+        Element parent = child(project, "parent");
+        String parentGroupId = parent != null ? text(parent, "groupId") : null;
+        String groupId = Optional.ofNullable(text(project, "groupId")).orElse(parentGroupId);
+        provides.add(groupId + ":" + text(project, "artifactId"));
+        if (parent != null) {
+            requires.add(parentGroupId + ":" + text(parent, "artifactId"));
+        }
+
+        for (Element dependency : children(child(project, "dependencies"), "dependency")) {
+            String dependencyGroupId = text(dependency, "groupId");
+            if ("${project.groupId}".equals(dependencyGroupId) || "${pom.groupId}".equals(dependencyGroupId)) {
+                dependencyGroupId = groupId;
+            } else if ("${project.parent.groupId}".equals(dependencyGroupId)) {
+                dependencyGroupId = parentGroupId;
+            }
+            requires.add(dependencyGroupId + ":" + text(dependency, "artifactId"));
+        }
+
+        if (depth < MAX_MODULE_DEPTH) {
+            for (Element module : children(child(project, "modules"), "module")) {
+                Path modulePath = directory.resolve(module.getTextContent().trim()).normalize();
+                if (Files.isRegularFile(modulePath.resolve(DirectoryWalker.MAVEN_FILE))) {
+                    readPom(modulePath, provides, requires, depth + 1);
+                }
+            }
+        }
+    }
+
+    private BuildProject parseGradle(Path path, String name) throws IOException {
+        String settings = read(path.resolve(GRADLE_SETTINGS_FILE));
+        String rootName = first(GRADLE_ROOT_PROJECT_NAME, settings).orElse(name);
+        String rootScript = read(path.resolve(DirectoryWalker.GRADLE_FILE));
+        String rootGroup = first(GRADLE_GROUP, rootScript).orElse("");
+
+        Set<String> provides = new LinkedHashSet<>();
+        Set<String> requires = new LinkedHashSet<>();
+        provides.add(rootGroup + ":" + rootName);
+        readGradleDependencies(rootScript, requires);
+
+        for (String subproject : gradleSubprojects(settings)) {
+            String script = read(path.resolve(subproject.replace(':', '/')).resolve(DirectoryWalker.GRADLE_FILE));
+            String subprojectName = subproject.substring(subproject.lastIndexOf(':') + 1);
+            provides.add(first(GRADLE_GROUP, script).orElse(rootGroup) + ":" + subprojectName);
+            readGradleDependencies(script, requires);
+        }
+        requires.removeAll(provides);
+        return new BuildProject(path, name, BuildTool.GRADLE, provides, requires);
+    }
+
+    private static void readGradleDependencies(String script, Set<String> requires) {
+        for (Pattern pattern : List.of(GRADLE_DEPENDENCY, GRADLE_MAP_DEPENDENCY)) {
+            Matcher matcher = pattern.matcher(script);
+            while (matcher.find()) {
+                requires.add(matcher.group(1) + ":" + matcher.group(2));
+            }
+        }
+    }
+
+    private static List<String> gradleSubprojects(String settings) {
+        List<String> subprojects = new ArrayList<>();
+        Matcher include = GRADLE_INCLUDE.matcher(settings);
+        while (include.find()) {
+            Matcher quoted = QUOTED.matcher(include.group(1));
+            while (quoted.find()) {
+                subprojects.add(quoted.group(1));
+            }
+        }
+        return subprojects;
+    }
+
+    private Document readXml(Path file) throws IOException {
+        try {
+            DocumentBuilder builder;
+            synchronized (documentBuilderFactory) {
+                builder = documentBuilderFactory.newDocumentBuilder();
+            }
+            return builder.parse(file.toFile());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse " + file, e);
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.isRegularFile(file) ? Files.readString(file) : "";
+    }
+
+    private static Optional<String> first(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? Optional.of(matcher.group(1)) : Optional.empty();
+    }
+
+    private static Element child(Element element, String name) {
+        if (element == null) {
+            return null;
+        }
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && name.equals(node.getNodeName())) {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element element, String name) {
+        List<Element> children = new ArrayList<>();
+        if (element != null) {
+            for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (node instanceof Element && name.equals(node.getNodeName())) {
+                    children.add((Element) node);
+                }
+            }
+        }
+        return children;
+    }
+
+    private static String text(Element element, String name) {
+        Element child = child(element, name);
+        return child != null ? child.getTextContent().trim() : null;
+    }
+}
@@ -0,0 +1,6 @@
+package xyz.codeark.whistler.service;
+
+public enum BuildTool {
+    MAVEN,
+    GRADLE
+}
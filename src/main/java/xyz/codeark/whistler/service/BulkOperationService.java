@@ -0,0 +1,116 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import xyz.codeark.whistler.dto.BulkOperationMode;
+import xyz.codeark.whistler.dto.BulkOperationResult;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs git operations on many repositories at once on a bounded pool. Operations on the same
+ * repository are still serialized by the {@link RepositoryLocks} taken in {@link GitService}.
+ */
+@Slf4j
+@Service
+public class BulkOperationService {
+    private final GitService gitService;
+    private final ExecutorService executor;
+
+    public BulkOperationService(GitService gitService,
+                                @Value("${whistler.bulk.threads:16}") int threads) {
+        this.gitService = gitService;
+        this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("whistler-bulk"));
+    }
+
+    /**
+     * Checks out and rebases the branch in every repository.
+     *
+     * @param directories Git repositories to update
+     * @param branchName  Branch to check out
+     * @param mode        Whether to stop at the first failure
+     * @return The result of each repository, in the order of the given repositories
+     */
+    public List<BulkOperationResult> checkoutBranch(Collection<Directory> directories, String branchName, BulkOperationMode mode) {
+        log.info("Checking out branch={} in {} repositories, mode={}", branchName, directories.size(), mode);
+        return run(directories, mode, RestConstants.GIT_CHECKOUT_SUCCESS,
+                directory -> gitService.checkoutBranch(directory, branchName));
+    }
+
+    /**
+     * Rebases the branch on its remote counterpart in every repository.
+     *
+     * @param directories Git repositories to update
+     * @param branchName  Branch to rebase
+     * @param mode        Whether to stop at the first failure
+     * @return The result of each repository, in the order of the given repositories
+     */
+    public List<BulkOperationResult> pullRebase(Collection<Directory> directories, String branchName, BulkOperationMode mode) {
+        log.info("Rebasing branch={} in {} repositories, mode={}", branchName, directories.size(), mode);
+        return run(directories, mode, RestConstants.GIT_PULL_SUCCESS,
+                directory -> gitService.pullRebase(directory, branchName));
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    private List<BulkOperationResult> run(Collection<Directory> directories, BulkOperationMode mode, String successMessage,
+                                          Consumer<Directory> operation) {
+        AtomicBoolean failed = new AtomicBoolean();
+        List<CompletableFuture<BulkOperationResult>> results = directories.stream()
+                .map(directory -> CompletableFuture.supplyAsync(
+                        () -> run(directory, mode, failed, successMessage, operation), executor))
+                .collect(Collectors.toList());
+        return results.stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+    }
+
+    private BulkOperationResult run(Directory directory, BulkOperationMode mode, AtomicBoolean failed, String successMessage,
+                                    Consumer<Directory> operation) {
+        BulkOperationResult result = new BulkOperationResult();
+        result.setPath(directory.getPath());
+        result.setName(directory.getName());
+        if (mode == BulkOperationMode.FAIL_FAST && failed.get()) {
+            result.setStatus(BulkOperationResult.Status.SKIPPED);
+            result.setMessage(RestConstants.GIT_OPERATION_SKIPPED);
+            return result;
+        }
+
+        long start = System.nanoTime();
+        try {
+            gitService.resolveRepository(directory.getPath());
+            operation.accept(directory);
+            result.setStatus(BulkOperationResult.Status.SUCCESS);
+            result.setMessage(successMessage);
+        } catch (WhistlerRestException e) {
+            failed.set(true);
+            result.setStatus(BulkOperationResult.Status.FAILED);
+            result.setMessage(e.getMessage());
+        } catch (RuntimeException e) {
+            log.error("Something went wrong while running a bulk operation on the repository={}", directory.getName(), e);
+            failed.set(true);
+            result.setStatus(BulkOperationResult.Status.FAILED);
+            result.setMessage(RestConstants.GIT_UNEXPECTED_ERROR);
+        }
+        result.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+}
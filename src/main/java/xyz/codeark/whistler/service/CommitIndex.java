@@ -0,0 +1,541 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.CommitIndexStatistics;
+import xyz.codeark.whistler.dto.CommitIndexUpdate;
+import xyz.codeark.whistler.dto.CommitMatch;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Inverted index of the commit messages, authors and touched paths of the branches of every
+ * indexed repository, to find the repositories holding a commit that mentions a ticket or that
+ * was written by someone or touched a path without walking their histories.
+ * <p>
+ * Each repository has its own segment, which maps the terms to the commits in which they appear.
+ * A segment remembers the tip of each local and remote-tracking branch it was last updated from,
+ * and an update only walks the commits that are not reachable from those tips. Repositories are
+ * updated in parallel on {@code whistler.commit-index.threads} threads, when requested and every
+ * {@code whistler.commit-index.refresh-interval}, and their segments are persisted through the
+ * {@link CommitIndexStore}.
+ * <p>
+ * Messages and authors are split into lower case words, so {@code ABC-123} or an email address
+ * can be searched for. A commit is indexed under each path it changed compared to its first
+ * parent, and under the parent directories of those paths. Commits that are no longer reachable
+ * from any branch stay in the index.
+ */
+@Slf4j
+@Component
+public class CommitIndex {
+    static final String MESSAGE = "m:";
+    static final String AUTHOR = "a:";
+    static final String PATH = "p:";
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}_-]+");
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_LIMIT = 1000;
+
+    private final RepositoryCache repositoryCache;
+    private final GitMetrics gitMetrics;
+    private final CommitIndexStore store;
+    private final long refreshIntervalMillis;
+    private final int maxPaths;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("whistler-commit-index-refresh"));
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    public CommitIndex(RepositoryCache repositoryCache,
+                       GitMetrics gitMetrics,
+                       CommitIndexStore store,
+                       @Value("${whistler.commit-index.threads:4}") int threads,
+                       @Value("${whistler.commit-index.refresh-interval:300000}") long refreshIntervalMillis,
+                       @Value("${whistler.commit-index.max-paths:1000}") int maxPaths) {
+        this.repositoryCache = repositoryCache;
+        this.gitMetrics = gitMetrics;
+        this.store = store;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.maxPaths = maxPaths;
+        this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("whistler-commit-index"));
+    }
+
+    /**
+     * Restores the persisted segments, which are served right away and brought up to date by
+     * the first refresh.
+     */
+    @PostConstruct
+    public void restore() {
+        for (Segment segment : store.loadAll()) {
+            segments.put(key(segment.path), segment);
+        }
+        if (!segments.isEmpty()) {
+            log.info("Restored the commit index of {} repositories", segments.size());
+        }
+        if (refreshIntervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Indexes the commits of the git repositories that were added to their branches since
+     * their last update, adding the repositories indexed for the first time.
+     *
+     * @param directories Directories to index, the ones that are not git repositories are ignored
+     * @return The number of repositories updated and of commits added
+     */
+    public CommitIndexUpdate update(Collection<Directory> directories) {
+        long start = System.nanoTime();
+        Map<Segment, CompletableFuture<Long>> updates = new LinkedHashMap<>();
+        for (Directory directory : directories) {
+            if (!Boolean.TRUE.equals(directory.getIsGitRepository())) {
+                continue;
+            }
+            Segment segment = segments.computeIfAbsent(key(directory.getPath()), key -> new Segment(directory.getPath(), directory.getName()));
+            updates.put(segment, CompletableFuture.supplyAsync(() -> update(segment), executor));
+        }
+
+        CommitIndexUpdate result = new CommitIndexUpdate();
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<Segment, CompletableFuture<Long>> update : updates.entrySet()) {
+            Segment segment = update.getKey();
+            try {
+                long newCommits = update.getValue().join();
+                if (newCommits >= 0) {
+                    result.setUpdatedRepositories(result.getUpdatedRepositories() + 1);
+                    result.setNewCommits(result.getNewCommits() + newCommits);
+                }
+            } catch (CompletionException e) {
+                log.warn("Could not index the commits of repository={}", segment.name, e.getCause());
+                failed.add(segment.path);
+                if (segment.isEmpty()) {
+                    segments.remove(key(segment.path), segment);
+                }
+            }
+        }
+        result.setRepositories(updates.size());
+        result.setFailedRepositories(failed.isEmpty() ? null : failed);
+        result.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("Updated the commit index: {}", result);
+        return result;
+    }
+
+    /**
+     * Finds the commits matching every given criterion, in every indexed repository.
+     *
+     * @param text   Words that must all appear in the commit message
+     * @param author Words that must all appear in the author name or email
+     * @param path   File or directory, relative to the repository, the commit must have changed
+     * @param limit  Maximum number of commits returned
+     * @return The matching commits, most recent first
+     */
+    public List<CommitMatch> search(String text, String author, String path, int limit) {
+        List<String> terms = new ArrayList<>();
+        tokenize(text).forEach(token -> terms.add(MESSAGE + token));
+        tokenize(author).forEach(token -> terms.add(AUTHOR + token));
+        String normalizedPath = normalizePath(path);
+        if (!normalizedPath.isEmpty()) {
+            terms.add(PATH + normalizedPath);
+        }
+        if (terms.isEmpty()) {
+            throw new WhistlerRestException(RestConstants.INVALID_COMMIT_QUERY, HttpStatus.BAD_REQUEST);
+        }
+
+        int maxMatches = Math.max(1, Math.min(limit, MAX_LIMIT));
+        Comparator<Match> byTime = Comparator.comparingLong(match -> match.commit.commitTime);
+        PriorityQueue<Match> newest = new PriorityQueue<>(byTime);
+        for (Segment segment : segments.values()) {
+            segment.search(terms, commit -> {
+                if (newest.size() < maxMatches) {
+                    newest.add(new Match(segment, commit));
+                } else if (commit.commitTime > newest.peek().commit.commitTime) {
+                    newest.poll();
+                    newest.add(new Match(segment, commit));
+                }
+            });
+        }
+        return newest.stream()
+                .sorted(byTime.reversed())
+                .map(Match::toCommitMatch)
+                .collect(Collectors.toList());
+    }
+
+    public CommitIndexStatistics getStatistics() {
+        long commits = 0;
+        long terms = 0;
+        for (Segment segment : segments.values()) {
+            synchronized (segment) {
+                commits += segment.commits.size();
+                terms += segment.postings.size();
+            }
+        }
+        return new CommitIndexStatistics(segments.size(), commits, terms);
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void refresh() {
+        if (segments.isEmpty()) {
+            return;
+        }
+        try {
+            update(segments.values().stream()
+                    .map(segment -> {
+                        Directory directory = new Directory();
+                        directory.setPath(segment.path);
+                        directory.setName(segment.name);
+                        directory.setIsGitRepository(true);
+                        return directory;
+                    })
+                    .collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            log.error("Could not refresh the commit index", e);
+        }
+    }
+
+    /**
+     * @return The number of commits added, or -1 if no branch moved since the last update
+     */
+    private long update(Segment segment) {
+        long metricsStart = gitMetrics.start("commit-index");
+        boolean success = false;
+        segment.updating.lock();
+        try (RepositoryCache.Handle handle = repositoryCache.open(segment.path)) {
+            Repository repository = handle.repository();
+            Map<String, ObjectId> tips = branchTips(repository);
+            Map<String, ObjectId> indexedTips = segment.tips();
+            if (tips.equals(indexedTips)) {
+                success = true;
+                return -1;
+            }
+            List<IndexedCommit> commits = new ArrayList<>();
+            List<Set<String>> terms = new ArrayList<>();
+            walk(repository, segment, tips.values(), indexedTips.values(), commits, terms);
+            segment.add(commits, terms, tips);
+            store.save(segment);
+            log.debug("Indexed {} new commits of repository={}", commits.size(), segment.name);
+            success = true;
+            return commits.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            segment.updating.unlock();
+            gitMetrics.record("commit-index", segment.path, metricsStart, success);
+        }
+    }
+
+    private static Map<String, ObjectId> branchTips(Repository repository) throws IOException {
+        Map<String, ObjectId> tips = new HashMap<>();
+        List<Ref> refs = new ArrayList<>(repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS));
+        refs.addAll(repository.getRefDatabase().getRefsByPrefix(Constants.R_REMOTES));
+        for (Ref ref : refs) {
+            if (ref.getObjectId() != null) {
+                tips.put(ref.getName(), ref.getObjectId());
+            }
+        }
+        return tips;
+    }
+
+    /**
+     * Walks the commits reachable from the new tips but not from the indexed ones, and collects
+     * the terms of those that are not indexed yet.
+     */
+    private void walk(Repository repository, Segment segment, Collection<ObjectId> tips, Collection<ObjectId> indexedTips,
+                      List<IndexedCommit> commits, List<Set<String>> terms) throws IOException {
+        try (RevWalk walk = new RevWalk(repository);
+             TreeWalk treeWalk = new TreeWalk(repository, walk.getObjectReader())) {
+            treeWalk.setRecursive(true);
+            for (ObjectId tip : tips) {
+                RevCommit commit = parseCommit(walk, tip);
+                if (commit != null) {
+                    walk.markStart(commit);
+                }
+            }
+            for (ObjectId indexedTip : indexedTips) {
+                // The tip of a deleted or rewritten branch may have been garbage collected
+                RevCommit commit = parseCommit(walk, indexedTip);
+                if (commit != null) {
+                    walk.markUninteresting(commit);
+                }
+            }
+            for (RevCommit commit : walk) {
+                if (segment.contains(commit)) {
+                    continue;
+                }
+                PersonIdent author = commit.getAuthorIdent();
+                commits.add(new IndexedCommit(commit.copy(), author.getName(), author.getEmailAddress(),
+                        commit.getCommitTime() * 1000L, commit.getShortMessage()));
+
+                Set<String> commitTerms = new LinkedHashSet<>();
+                tokenize(commit.getFullMessage()).forEach(token -> commitTerms.add(MESSAGE + token));
+                tokenize(author.getName()).forEach(token -> commitTerms.add(AUTHOR + token));
+                tokenize(author.getEmailAddress()).forEach(token -> commitTerms.add(AUTHOR + token));
+                addPaths(walk, treeWalk, commit, commitTerms);
+                terms.add(commitTerms);
+            }
+        }
+    }
+
+    private void addPaths(RevWalk walk, TreeWalk treeWalk, RevCommit commit, Set<String> commitTerms) throws IOException {
+        if (commit.getParentCount() == 0) {
+            treeWalk.reset(commit.getTree());
+            treeWalk.setFilter(TreeFilter.ALL);
+        } else {
+            RevCommit parent = commit.getParent(0);
+            walk.parseHeaders(parent);
+            treeWalk.reset(parent.getTree(), commit.getTree());
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+        }
+        int paths = 0;
+        while (paths < maxPaths && treeWalk.next()) {
+            String path = treeWalk.getPathString();
+            commitTerms.add(PATH + path);
+            for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+                commitTerms.add(PATH + path.substring(0, slash));
+            }
+            paths++;
+        }
+    }
+
+    private static RevCommit parseCommit(RevWalk walk, ObjectId id) throws IOException {
+        try {
+            return walk.parseCommit(id);
+        } catch (MissingObjectException | IncorrectObjectTypeException e) {
+            return null;
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String part : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            int start = 0;
+            int end = part.length();
+            while (start < end && part.charAt(start) == '-') {
+                start++;
+            }
+            while (end > start && part.charAt(end - 1) == '-') {
+                end--;
+            }
+            if (start < end && end - start <= MAX_TERM_LENGTH) {
+                tokens.add(part.substring(start, end));
+            }
+        }
+        return tokens;
+    }
+
+    private static String normalizePath(String path) {
+        if (path == null) {
+            return "";
+        }
+        String normalized = path.trim().replace('\\', '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    private static String key(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
+
+    private static final class Match {
+        private final Segment segment;
+        private final IndexedCommit commit;
+
+        private Match(Segment segment, IndexedCommit commit) {
+            this.segment = segment;
+            this.commit = commit;
+        }
+
+        private CommitMatch toCommitMatch() {
+            CommitMatch match = new CommitMatch();
+            match.setPath(segment.path);
+            match.setName(segment.name);
+            match.setCommitId(commit.id.name());
+            match.setAuthorName(commit.authorName);
+            match.setAuthorEmail(commit.authorEmail);
+            match.setCommitTime(commit.commitTime);
+            match.setMessage(commit.message);
+            return match;
+        }
+    }
+
+    static final class IndexedCommit {
+        final ObjectId id;
+        final String authorName;
+        final String authorEmail;
+        /**
+         * Committer time, in milliseconds since the epoch
+         */
+        final long commitTime;
+        final String message;
+
+        IndexedCommit(ObjectId id, String authorName, String authorEmail, long commitTime, String message) {
+            this.id = id;
+            this.authorName = authorName;
+            this.authorEmail = authorEmail;
+            this.commitTime = commitTime;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Ascending positions of the commits of a segment in which a term appears.
+     */
+    static final class Postings {
+        int[] commits;
+        int size;
+
+        Postings() {
+            this(new int[4], 0);
+        }
+
+        Postings(int[] commits, int size) {
+            this.commits = commits;
+            this.size = size;
+        }
+
+        private void add(int commit) {
+            if (size == commits.length) {
+                commits = Arrays.copyOf(commits, size * 2);
+            }
+            commits[size++] = commit;
+        }
+    }
+
+    /**
+     * Commits and postings of one repository. Updates of a segment are serialized by
+     * {@code updating}, reads and writes of its content synchronize on the segment.
+     */
+    static final class Segment {
+        final String path;
+        final String name;
+        final Map<String, ObjectId> tips = new HashMap<>();
+        final List<IndexedCommit> commits = new ArrayList<>();
+        final Map<String, Postings> postings = new HashMap<>();
+        private final Set<ObjectId> ids = new HashSet<>();
+        private final ReentrantLock updating = new ReentrantLock();
+
+        Segment(String path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+
+        synchronized Map<String, ObjectId> tips() {
+            return new HashMap<>(tips);
+        }
+
+        synchronized boolean isEmpty() {
+            return commits.isEmpty();
+        }
+
+        synchronized boolean contains(AnyObjectId id) {
+            return ids.contains(id);
+        }
+
+        synchronized void add(List<IndexedCommit> newCommits, List<Set<String>> newTerms, Map<String, ObjectId> newTips) {
+            for (int i = 0; i < newCommits.size(); i++) {
+                addCommit(newCommits.get(i));
+                int position = commits.size() - 1;
+                for (String term : newTerms.get(i)) {
+                    postings.computeIfAbsent(term, key -> new Postings()).add(position);
+                }
+            }
+            tips.clear();
+            tips.putAll(newTips);
+        }
+
+        void addCommit(IndexedCommit commit) {
+            commits.add(commit);
+            ids.add(commit.id);
+        }
+
+        /**
+         * Passes the commits in which every term appears to the consumer.
+         */
+        private synchronized void search(List<String> terms, Consumer<IndexedCommit> consumer) {
+            Postings[] lists = new Postings[terms.size()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = postings.get(terms.get(i));
+                if (lists[i] == null) {
+                    return;
+                }
+            }
+            // Intersect starting from the rarest term
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+            int[] cursors = new int[lists.length];
+            Postings rarest = lists[0];
+            candidates:
+            for (int i = 0; i < rarest.size; i++) {
+                int commit = rarest.commits[i];
+                for (int j = 1; j < lists.length; j++) {
+                    Postings list = lists[j];
+                    while (cursors[j] < list.size && list.commits[cursors[j]] < commit) {
+                        cursors[j]++;
+                    }
+                    if (cursors[j] == list.size) {
+                        return;
+                    }
+                    if (list.commits[cursors[j]] != commit) {
+                        continue candidates;
+                    }
+                }
+                consumer.accept(commits.get(commit));
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persists the segments of the {@link CommitIndex} to binary files, one per repository, so that
+ * a restarted instance only indexes the commits added while it was down.
+ * <p>
+ * Segments are written to a temporary file and moved into place. A segment that cannot be read
+ * is ignored and its repository is indexed again from scratch.
+ */
+@Slf4j
+@Component
+public class CommitIndexStore {
+    private static final int MAGIC = 0x5748434D;
+    private static final int VERSION = 2;
+    private static final String EXTENSION = ".commits";
+
+    private final boolean enabled;
+    private final Path directory;
+
+    public CommitIndexStore(@Value("${whistler.commit-index.persistent:true}") boolean enabled,
+                            @Value("${whistler.commit-index.directory:${user.home}/.whistler/commits}") String directory) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Writes the segment of a repository, replacing the previous one.
+     */
+    void save(CommitIndex.Segment segment) {
+        if (!enabled) {
+            return;
+        }
+        Path target = directory.resolve(fileName(segment.path));
+        Path temporary = directory.resolve(fileName(segment.path) + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                synchronized (segment) {
+                    write(output, segment);
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save the commit index of {}", segment.path, e);
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Nothing else to clean up
+            }
+        }
+    }
+
+    /**
+     * Reads every segment in the store directory, skipping the unreadable ones.
+     */
+    List<CommitIndex.Segment> loadAll() {
+        if (!enabled || !Files.isDirectory(directory)) {
+            return List.of();
+        }
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Could not list the commit index in {}", directory, e);
+            return List.of();
+        }
+        List<CommitIndex.Segment> segments = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                segments.add(read(ByteBuffer.wrap(Files.readAllBytes(file))));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring the unreadable commit index {}", file, e);
+            }
+        }
+        return segments;
+    }
+
+    private static void write(DataOutputStream output, CommitIndex.Segment segment) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        writeString(output, segment.path);
+        writeString(output, segment.name);
+        output.writeInt(segment.tips.size());
+        for (Map.Entry<String, ObjectId> tip : segment.tips.entrySet()) {
+            writeString(output, tip.getKey());
+            writeObjectId(output, tip.getValue());
+        }
+        output.writeInt(segment.commits.size());
+        for (CommitIndex.IndexedCommit commit : segment.commits) {
+            writeObjectId(output, commit.id);
+            writeString(output, commit.authorName);
+            writeString(output, commit.authorEmail);
+            output.writeLong(commit.commitTime);
+            writeString(output, commit.message);
+        }
+        output.writeInt(segment.postings.size());
+        for (Map.Entry<String, CommitIndex.Postings> postings : segment.postings.entrySet()) {
+            writeString(output, postings.getKey());
+            CommitIndex.Postings list = postings.getValue();
+            output.writeInt(list.size);
+            for (int i = 0; i < list.size; i++) {
+                output.writeInt(list.commits[i]);
+            }
+        }
+    }
+
+    private static CommitIndex.Segment read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unsupported commit index format");
+            }
+            CommitIndex.Segment segment = new CommitIndex.Segment(readString(buffer), readString(buffer));
+            int tips = buffer.getInt();
+            for (int i = 0; i < tips; i++) {
+                segment.tips.put(readString(buffer), readObjectId(buffer));
+            }
+            int commits = buffer.getInt();
+            for (int i = 0; i < commits; i++) {
+                segment.addCommit(new CommitIndex.IndexedCommit(readObjectId(buffer), readString(buffer),
+                        readString(buffer), buffer.getLong(), readString(buffer)));
+            }
+            int terms = buffer.getInt();
+            for (int i = 0; i < terms; i++) {
+                String term = readString(buffer);
+                int size = buffer.getInt();
+                int[] positions = new int[size];
+                buffer.asIntBuffer().get(positions);
+                buffer.position(buffer.position() + size * Integer.BYTES);
+                segment.postings.put(term, new CommitIndex.Postings(positions, size));
+            }
+            return segment;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated commit index", e);
+        }
+    }
+
+    private static void writeObjectId(DataOutputStream output, ObjectId id) throws IOException {
+        byte[] bytes = new byte[Constants.OBJECT_ID_LENGTH];
+        id.copyRawTo(bytes, 0);
+        output.write(bytes);
+    }
+
+    private static ObjectId readObjectId(ByteBuffer buffer) {
+        byte[] bytes = new byte[Constants.OBJECT_ID_LENGTH];
+        buffer.get(bytes);
+        return ObjectId.fromRaw(bytes);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String fileName(String path) {
+        Path normalized = Paths.get(path).toAbsolutePath().normalize();
+        return UUID.nameUUIDFromBytes(normalized.toString().getBytes(StandardCharsets.UTF_8)) + EXTENSION;
+    }
+}
@@ -0,0 +1,214 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.Directory;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Walks a directory tree in parallel and classifies every directory as git repository, gradle
+ * project and/or maven project. Subtrees are walked as separate fork/join tasks whose results are merged on
+ * the way back up, so workers never share a result collection.
+ * <p>
+ * The walker never descends into ignored directories (e.g. {@code .git}, {@code build},
+ * {@code node_modules}) and, unless configured otherwise, stops at the root of a git repository.
+ */
+@Slf4j
+@Component
+public class DirectoryWalker {
+    static final String GRADLE_FILE = "build.gradle";
+    static final String MAVEN_FILE = "pom.xml";
+    static final String GIT_DIRECTORY = ".git";
+
+    private final ForkJoinPool pool;
+    private final Set<String> ignoredDirectories;
+    private final boolean descendIntoRepositories;
+
+    public DirectoryWalker(@Value("${whistler.discovery.parallelism:0}") int parallelism,
+                           @Value("${whistler.discovery.ignored-directories:.git,.gradle,.idea,build,target,node_modules}") String[] ignoredDirectories,
+                           @Value("${whistler.discovery.descend-into-repositories:false}") boolean descendIntoRepositories) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                forkJoinPool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                    thread.setName("whistler-discovery-" + thread.getPoolIndex());
+                    return thread;
+                }, null, false);
+        this.ignoredDirectories = Arrays.stream(ignoredDirectories)
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.descendIntoRepositories = descendIntoRepositories;
+    }
+
+    /**
+     * Walks the tree below the root directory, up to the given depth.
+     *
+     * @param root     Root directory of the walk, reported at depth 0
+     * @param maxDepth Maximum depth of the reported directories
+     * @param listener Called from the walker threads as soon as a directory is classified
+     * @return The classified directories, in depth-first order
+     * @throws IOException If the root directory cannot be read
+     */
+    public List<Directory> walk(Path root, int maxDepth, Consumer<Directory> listener) throws IOException {
+        return walk(root, maxDepth, listener, () -> false, true);
+    }
+
+    /**
+     * Walks the tree below the root directory without collecting the directories, which are only
+     * handed to the listener. The listener may block to slow the walk down.
+     *
+     * @param root      Root directory of the walk, reported at depth 0
+     * @param maxDepth  Maximum depth of the reported directories
+     * @param listener  Called from the walker threads as soon as a directory is classified
+     * @param cancelled Checked before each directory, the walk stops once it returns true
+     * @throws IOException If the root directory cannot be read
+     */
+    public void stream(Path root, int maxDepth, Consumer<Directory> listener, BooleanSupplier cancelled) throws IOException {
+        walk(root, maxDepth, listener, cancelled, false);
+    }
+
+    private List<Directory> walk(Path root, int maxDepth, Consumer<Directory> listener, BooleanSupplier cancelled,
+                                 boolean collect) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        try {
+            return pool.invoke(new WalkTask(root, 0, new Walk(maxDepth, listener, cancelled, collect)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Settings shared by every task of one walk.
+     */
+    private static final class Walk {
+        private final int maxDepth;
+        private final Consumer<Directory> listener;
+        private final BooleanSupplier cancelled;
+        private final boolean collect;
+
+        private Walk(int maxDepth, Consumer<Directory> listener, BooleanSupplier cancelled, boolean collect) {
+            this.maxDepth = maxDepth;
+            this.listener = listener;
+            this.cancelled = cancelled;
+            this.collect = collect;
+        }
+    }
+
+    private class WalkTask extends RecursiveTask<List<Directory>> {
+        private final Path path;
+        private final int depth;
+        private final Walk walk;
+
+        private WalkTask(Path path, int depth, Walk walk) {
+            this.path = path;
+            this.depth = depth;
+            this.walk = walk;
+        }
+
+        @Override
+        protected List<Directory> compute() {
+            if (walk.cancelled.getAsBoolean()) {
+                return Collections.emptyList();
+            }
+            Directory directory = new Directory();
+            directory.setPath(path.toString());
+            directory.setName(path.getFileName() != null ? path.getFileName().toString() : path.toString());
+
+            List<Path> children = depth < walk.maxDepth ? classifyAndList(directory) : classify(directory);
+            walk.listener.accept(directory);
+
+            if (Boolean.TRUE.equals(directory.getIsGitRepository()) && !descendIntoRepositories) {
+                children = Collections.emptyList();
+            }
+            if (children.isEmpty()) {
+                return walk.collect ? Collections.singletonList(directory) : Collections.emptyList();
+            }
+
+            List<WalkTask> tasks = new ArrayList<>(children.size());
+            for (Path child : children) {
+                tasks.add(new WalkTask(child, depth + 1, walk));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            if (!walk.collect) {
+                return Collections.emptyList();
+            }
+
+            List<Directory> directories = new ArrayList<>();
+            directories.add(directory);
+            for (WalkTask task : tasks) {
+                directories.addAll(task.join());
+            }
+            return directories;
+        }
+
+        /**
+         * Classifies the directory from its own listing and returns the subdirectories to walk.
+         */
+        private List<Path> classifyAndList(Directory directory) {
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    if (GRADLE_FILE.equals(name)) {
+                        directory.setIsGradleProject(true);
+                    } else if (MAVEN_FILE.equals(name)) {
+                        directory.setIsMavenProject(true);
+                    } else if (GIT_DIRECTORY.equals(name)) {
+                        directory.setIsGitRepository(true);
+                    } else if (!ignoredDirectories.contains(name) && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        children.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                if (depth == 0) {
+                    throw new UncheckedIOException(e);
+                }
+                log.warn("Could not list the directory={}, skipping it", path, e);
+            }
+            return children;
+        }
+
+        /**
+         * Classifies a directory at the maximum depth without listing it.
+         */
+        private List<Path> classify(Directory directory) {
+            if (Files.exists(path.resolve(GRADLE_FILE))) {
+                directory.setIsGradleProject(true);
+            }
+            if (Files.exists(path.resolve(MAVEN_FILE))) {
+                directory.setIsMavenProject(true);
+            }
+            if (Files.exists(path.resolve(GIT_DIRECTORY))) {
+                directory.setIsGitRepository(true);
+            }
+            return Collections.emptyList();
+        }
+    }
+}
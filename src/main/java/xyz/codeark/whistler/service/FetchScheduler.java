@@ -0,0 +1,249 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.InvalidRemoteException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.URIish;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.FetchStatus;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Fetches the tracked repositories in the background so that status checks can be answered from
+ * the last fetch instead of a network round trip.
+ * <p>
+ * A fetch requested while another fetch of the same repository is running joins the running one,
+ * and at most {@code whistler.fetch.max-per-host} fetches run against the same remote host at
+ * once.
+ */
+@Slf4j
+@Component
+public class FetchScheduler {
+    private static final String LOCAL_HOST = "localhost";
+
+    private final RepositoryCache repositoryCache;
+    private final RepositoryLocks repositoryLocks;
+    private final GitMetrics gitMetrics;
+    private final long intervalMillis;
+    private final int maxFetchesPerHost;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, FetchState> states = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public FetchScheduler(RepositoryCache repositoryCache,
+                          RepositoryLocks repositoryLocks,
+                          GitMetrics gitMetrics,
+                          @Value("${whistler.fetch.interval:300000}") long intervalMillis,
+                          @Value("${whistler.fetch.threads:8}") int threads,
+                          @Value("${whistler.fetch.max-per-host:4}") int maxFetchesPerHost) {
+        this.repositoryCache = repositoryCache;
+        this.repositoryLocks = repositoryLocks;
+        this.gitMetrics = gitMetrics;
+        this.intervalMillis = intervalMillis;
+        this.maxFetchesPerHost = maxFetchesPerHost;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("whistler-fetch"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("whistler-fetch-scheduler"));
+        if (intervalMillis > 0) {
+            long period = Math.max(1000, intervalMillis / 10);
+            scheduler.scheduleWithFixedDelay(this::fetchDue, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds the repository to the ones fetched in the background.
+     *
+     * @param directory Git repository to fetch periodically
+     */
+    public void track(Directory directory) {
+        state(directory);
+    }
+
+    public void untrack(Directory directory) {
+        states.remove(key(directory));
+    }
+
+    /**
+     * Fetches the repository, or joins the fetch of the repository already running.
+     *
+     * @param directory Git repository to fetch
+     * @return The outcome of the fetch
+     */
+    public CompletableFuture<FetchStatus> fetch(Directory directory) {
+        return fetch(directory, null);
+    }
+
+    /**
+     * Fetches the repository, or joins the fetch of the repository already running. The progress
+     * monitor only sees the fetch if this call started it.
+     *
+     * @param directory Git repository to fetch
+     * @param monitor   Progress monitor of the fetch, may be null
+     * @return The outcome of the fetch
+     */
+    public CompletableFuture<FetchStatus> fetch(Directory directory, ProgressMonitor monitor) {
+        FetchState state = state(directory);
+        synchronized (state) {
+            if (state.inFlight == null) {
+                state.inFlight = CompletableFuture.supplyAsync(() -> {
+                    FetchStatus status = null;
+                    try {
+                        status = run(state, monitor);
+                        return status;
+                    } finally {
+                        // Also reset when the fetch failed unexpectedly, so the next call fetches again
+                        synchronized (state) {
+                            state.inFlight = null;
+                            if (status != null) {
+                                state.last = status;
+                            }
+                        }
+                    }
+                }, executor);
+            }
+            return state.inFlight;
+        }
+    }
+
+    /**
+     * Returns the last fetch of the repository if it succeeded less than the given time ago,
+     * fetching it again otherwise.
+     *
+     * @param directory    Git repository to check
+     * @param maxAgeMillis Maximum age of the last fetch
+     * @return The last fetch, fresh enough
+     */
+    public FetchStatus fetchIfStale(Directory directory, long maxAgeMillis) {
+        FetchStatus last = state(directory).last;
+        if (last != null && last.isSuccess() && System.currentTimeMillis() - last.getFetchedAt() <= maxAgeMillis) {
+            return last;
+        }
+        return fetch(directory).join();
+    }
+
+    public Optional<FetchStatus> lastFetch(Directory directory) {
+        FetchState state = states.get(key(directory));
+        return state != null ? Optional.ofNullable(state.last) : Optional.empty();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void fetchDue() {
+        long deadline = System.currentTimeMillis() - intervalMillis;
+        states.values().stream()
+                .filter(state -> state.last == null || state.last.getFetchedAt() < deadline)
+                .forEach(state -> fetch(state.directory));
+    }
+
+    private FetchStatus run(FetchState state, ProgressMonitor monitor) {
+        Directory directory = state.directory;
+        long start = System.nanoTime();
+        long metricsStart = gitMetrics.start("fetch");
+        String message = RestConstants.GIT_FETCH_SUCCESS;
+        boolean success = false;
+        try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+            Semaphore permits = hostPermits.computeIfAbsent(host(handle), host -> new Semaphore(maxFetchesPerHost));
+            permits.acquire();
+            Lock lock = repositoryLocks.forRepository(directory.getPath());
+            lock.lock();
+            try {
+                log.debug("Fetching repository={}", directory.getName());
+                handle.git().fetch()
+                        .setProgressMonitor(monitor)
+                        .call();
+                repositoryCache.invalidateRefs(directory.getPath());
+                success = true;
+            } finally {
+                lock.unlock();
+                permits.release();
+            }
+        } catch (InvalidRemoteException e) {
+            log.warn("Could not fetch the repository={}, invalid remote", directory.getName(), e);
+            message = RestConstants.ERROR_FETCHING_INVALID_REMOTE;
+        } catch (TransportException e) {
+            log.warn("Could not fetch the repository={}, transport failed", directory.getName(), e);
+            message = RestConstants.ERROR_FETCHING_TRANSPORT_FAILED;
+        } catch (GitAPIException e) {
+            log.warn("Could not fetch the repository={}", directory.getName(), e);
+            message = RestConstants.ERROR_FETCHING_GITAPI_EXCEPTION;
+        } catch (IOException e) {
+            log.warn("Could not open the repository={}", directory.getName(), e);
+            message = RestConstants.ERROR_BUILDING_GIT_INSTANCE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            message = RestConstants.ERROR_FETCHING_GITAPI_EXCEPTION;
+        } catch (RuntimeException e) {
+            log.error("Unexpected error while fetching the repository={}", directory.getName(), e);
+            message = RestConstants.GIT_UNEXPECTED_ERROR;
+        } finally {
+            gitMetrics.record("fetch", directory.getPath(), metricsStart, success);
+        }
+        return new FetchStatus(directory.getPath(), success, message, System.currentTimeMillis(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private FetchState state(Directory directory) {
+        return states.computeIfAbsent(key(directory), key -> new FetchState(directory));
+    }
+
+    private static String key(Directory directory) {
+        return Paths.get(directory.getPath()).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Host of the default remote, local remotes such as {@code file://} URLs share one host.
+     */
+    private static String host(RepositoryCache.Handle handle) {
+        String url = handle.repository().getConfig().getString("remote", Constants.DEFAULT_REMOTE_NAME, "url");
+        if (url == null) {
+            return LOCAL_HOST;
+        }
+        try {
+            String host = new URIish(url).getHost();
+            return host != null ? host : LOCAL_HOST;
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    private static final class FetchState {
+        private final Directory directory;
+        private CompletableFuture<FetchStatus> inFlight;
+        private volatile FetchStatus last;
+
+        private FetchState(Directory directory) {
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package xyz.codeark.whistler.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the git command line, for what JGit does not support such as linked worktrees.
+ */
+final class GitCommandLine {
+    private final String gitCommand;
+
+    GitCommandLine(String gitCommand) {
+        this.gitCommand = gitCommand;
+    }
+
+    /**
+     * Runs git in the directory and waits for it.
+     *
+     * @param directory Working directory of git
+     * @param arguments Arguments of git
+     * @return The output of git, standard error included
+     * @throws IOException If git cannot be started, is interrupted or fails
+     */
+    String run(Path directory, String... arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(gitCommand);
+        command.addAll(Arrays.asList(arguments));
+        Process process = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .start();
+        String output;
+        try (InputStream inputStream = process.getInputStream()) {
+            output = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException(command + " failed with exit code " + exitCode + ": " + output.trim());
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException(command + " was interrupted", e);
+        }
+        return output;
+    }
+}
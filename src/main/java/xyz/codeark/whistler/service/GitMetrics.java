@@ -0,0 +1,167 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Times the git operations and the discovery phases.
+ * <p>
+ * Operations are recorded by the {@code whistler.git.operations} timer, tagged with the operation
+ * and its outcome, and counted by the {@code whistler.git.operations.active} gauge while they run.
+ * The repository name is only added as a tag with {@code whistler.metrics.repository-tag}, as it
+ * multiplies the number of time series by the number of repositories. Discovery phases are
+ * recorded by the {@code whistler.discovery.phases} timer and the number of directories found by
+ * each discovery by the {@code whistler.discovery.directories} summary.
+ * <p>
+ * With {@code whistler.metrics.enabled=false} nothing is timed or looked up. Percentiles and
+ * histograms are configured through the {@code management.metrics.distribution} properties.
+ */
+@Component
+public class GitMetrics {
+    static final String OPERATIONS = "whistler.git.operations";
+    static final String ACTIVE_OPERATIONS = "whistler.git.operations.active";
+    static final String DISCOVERY_PHASES = "whistler.discovery.phases";
+    static final String DISCOVERED_DIRECTORIES = "whistler.discovery.directories";
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final boolean repositoryTag;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeOperations = new ConcurrentHashMap<>();
+    private final DistributionSummary discoveredDirectories;
+
+    public GitMetrics(MeterRegistry meterRegistry,
+                      @Value("${whistler.metrics.enabled:true}") boolean enabled,
+                      @Value("${whistler.metrics.repository-tag:false}") boolean repositoryTag) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.repositoryTag = repositoryTag;
+        this.discoveredDirectories = enabled
+                ? DistributionSummary.builder(DISCOVERED_DIRECTORIES)
+                .description("Directories found by a discovery")
+                .register(meterRegistry)
+                : null;
+    }
+
+    /**
+     * Marks the start of an operation, which must be followed by
+     * {@link #record(String, String, long, boolean)}.
+     *
+     * @param operation Name of the operation
+     * @return The start time to record the operation with
+     */
+    public long start(String operation) {
+        if (!enabled) {
+            return 0;
+        }
+        activeOperations.computeIfAbsent(operation, this::registerActiveOperations).incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of an operation started with {@link #start(String)}.
+     *
+     * @param operation Name of the operation
+     * @param path      Path of the repository, only used with the repository tag
+     * @param start     Start time returned by {@link #start(String)}
+     * @param success   Whether the operation succeeded
+     */
+    public void record(String operation, String path, long start, boolean success) {
+        if (!enabled) {
+            return;
+        }
+        long duration = System.nanoTime() - start;
+        activeOperations.get(operation).decrementAndGet();
+        String repository = repositoryTag && path != null ? repositoryName(path) : null;
+        timer(OPERATIONS, "operation", operation, success, repository).record(duration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs and records an operation, which fails if it throws.
+     *
+     * @param operation Name of the operation
+     * @param path      Path of the repository, only used with the repository tag
+     * @param action    The operation
+     * @return The result of the operation
+     */
+    public <T> T record(String operation, String path, Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+        long start = start(operation);
+        boolean success = false;
+        try {
+            T result = action.get();
+            success = true;
+            return result;
+        } finally {
+            record(operation, path, start, success);
+        }
+    }
+
+    public void run(String operation, String path, Runnable action) {
+        record(operation, path, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Records a phase of a discovery.
+     *
+     * @param phase   Name of the phase
+     * @param start   Start time of the phase, from {@link System#nanoTime()}
+     * @param success Whether the phase completed
+     */
+    public void recordPhase(String phase, long start, boolean success) {
+        if (enabled) {
+            timer(DISCOVERY_PHASES, "phase", phase, success, null).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void recordDiscoveredDirectories(int directories) {
+        if (enabled) {
+            discoveredDirectories.record(directories);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private Timer timer(String name, String tag, String value, boolean success, String repository) {
+        String outcome = success ? "success" : "failure";
+        String key = name + '|' + value + '|' + outcome + (repository != null ? '|' + repository : "");
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            Tags tags = Tags.of(tag, value, "outcome", outcome);
+            timer = timers.computeIfAbsent(key, k -> Timer.builder(name)
+                    .tags(repository != null ? tags.and("repository", repository) : tags)
+                    .register(meterRegistry));
+        }
+        return timer;
+    }
+
+    private AtomicInteger registerActiveOperations(String operation) {
+        return meterRegistry.gauge(ACTIVE_OPERATIONS, Tags.of("operation", operation), new AtomicInteger());
+    }
+
+    private static String repositoryName(String path) {
+        int end = path.length();
+        while (end > 1 && (path.charAt(end - 1) == '/' || path.charAt(end - 1) == '\\')) {
+            end--;
+        }
+        int separator = Math.max(path.lastIndexOf('/', end - 1), path.lastIndexOf('\\', end - 1));
+        return path.substring(separator + 1, end);
+    }
+}
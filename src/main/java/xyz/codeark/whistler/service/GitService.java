@@ -3,185 +3,529 @@ package xyz.codeark.whistler.service;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ListBranchCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.BranchTrackingStatus;
-import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.FetchStatus;
+import xyz.codeark.whistler.dto.MaintenanceResult;
+import xyz.codeark.whistler.dto.Worktree;
 import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.util.NamedThreadFactory;
 import xyz.codeark.whistler.util.RestConstants;
 
-import java.io.File;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 public class GitService {
-    private static final String GRADLE_FILE = "build.gradle";
-    private static final String GIT_DIRECTORY = ".git";
+    /**
+     * Repositories of a streaming discovery waiting for their metadata, per metadata thread
+     */
+    private static final int PENDING_METADATA_PER_THREAD = 4;
 
-    public static List<String> getLocalBranches(Directory directory) {
-        try {
-            return Git.open(new File(directory.getPath()))
-                    .branchList()
-                    .call()
-                    .stream()
-                    .map(branch -> branch.getName().substring(11))
-                    .collect(Collectors.toList());
-        } catch (GitAPIException | IOException e) {
-            log.error("Something went wrong while getting the local branches for the repository={}", directory.getName(), e);
-            throw new WhistlerRestException(RestConstants.ERROR_WHILE_GETTING_LOCAL_BRANCHES, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+    private final RepositoryCache repositoryCache;
+    private final DirectoryWalker directoryWalker;
+    private final RepositoryLocks repositoryLocks;
+    private final FetchScheduler fetchScheduler;
+    private final WorktreePool worktreePool;
+    private final RepositoryMaintenance maintenance;
+    private final GitMetrics gitMetrics;
+    private final long fetchMaxAge;
+    private final int metadataThreads;
+    private final ExecutorService metadataExecutor;
+
+    public GitService(RepositoryCache repositoryCache,
+                      DirectoryWalker directoryWalker,
+                      RepositoryLocks repositoryLocks,
+                      FetchScheduler fetchScheduler,
+                      WorktreePool worktreePool,
+                      RepositoryMaintenance maintenance,
+                      GitMetrics gitMetrics,
+                      @Value("${whistler.discovery.metadata-threads:8}") int metadataThreads,
+                      @Value("${whistler.fetch.max-age:300000}") long fetchMaxAge) {
+        this.repositoryCache = repositoryCache;
+        this.directoryWalker = directoryWalker;
+        this.repositoryLocks = repositoryLocks;
+        this.fetchScheduler = fetchScheduler;
+        this.worktreePool = worktreePool;
+        this.maintenance = maintenance;
+        this.gitMetrics = gitMetrics;
+        this.fetchMaxAge = fetchMaxAge;
+        this.metadataThreads = metadataThreads;
+        this.metadataExecutor = Executors.newFixedThreadPool(metadataThreads, new NamedThreadFactory("whistler-git-metadata"));
     }
 
-    public static List<String> getRemoteBranches(Directory directory) {
-        try {
-            return Git.open(new File(directory.getPath()))
-                    .branchList()
-                    .setListMode(ListBranchCommand.ListMode.REMOTE)
-                    .call()
-                    .stream()
-                    .map(branch -> branch.getName().substring(20))
-                    .collect(Collectors.toList());
-        } catch (GitAPIException | IOException e) {
-            log.error("Something went wrong while getting the local branches for the repository={}", directory.getName(), e);
-            throw new WhistlerRestException(RestConstants.ERROR_WHILE_GETTING_LOCAL_BRANCHES, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+    public List<String> getLocalBranches(Directory directory) {
+        return gitMetrics.record("local-branches", directory.getPath(), () -> {
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                return handle.refs().getLocalBranches();
+            } catch (IOException e) {
+                log.error("Something went wrong while getting the local branches for the repository={}", directory.getName(), e);
+                throw new WhistlerRestException(RestConstants.ERROR_WHILE_GETTING_LOCAL_BRANCHES, HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        });
     }
 
-    public static void checkoutBranch(Directory directory, String branchName) {
-        if (branchExistsLocally(directory, branchName)) {
-            try {
-                log.info("Checking out local branch={} for repo={}", branchName, directory.getName());
-                Git.open(new File(directory.getPath()))
-                        .checkout()
-                        .setCreateBranch(false)
-                        .setName(branchName)
-                        .call();
-            } catch (GitAPIException | IOException e) {
-                log.error("Something went wrong while checking out the branch={} for the repository={}", branchName, directory.getName(), e);
-                throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_OUT_BRANCH, HttpStatus.INTERNAL_SERVER_ERROR);
+    public List<String> getRemoteBranches(Directory directory) {
+        return gitMetrics.record("remote-branches", directory.getPath(), () -> {
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                return handle.refs().getRemoteBranches();
+            } catch (IOException e) {
+                log.error("Something went wrong while getting the local branches for the repository={}", directory.getName(), e);
+                throw new WhistlerRestException(RestConstants.ERROR_WHILE_GETTING_LOCAL_BRANCHES, HttpStatus.INTERNAL_SERVER_ERROR);
             }
-        } else if (branchExistsRemotely(directory, branchName)) {
-            try {
-                log.info("Checking out remote branch={} for repo={}", branchName, directory.getName());
-                Git.open(new File(directory.getPath()))
-                        .checkout()
-                        .setCreateBranch(true)
-                        .setName(branchName)
-                        .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
-                        .setStartPoint("origin/" + branchName)
-                        .call();
+        });
+    }
+
+    public void checkoutBranch(Directory directory, String branchName) {
+        checkoutBranch(directory, branchName, NullProgressMonitor.INSTANCE);
+    }
+
+    /**
+     * Checks out the branch, creating it from a remote branch if it only exists remotely, and
+     * rebases it on its upstream.
+     *
+     * @param directory  Git repository
+     * @param branchName Branch to check out
+     * @param monitor    Progress monitor of the checkout and of the pull
+     */
+    public void checkoutBranch(Directory directory, String branchName, ProgressMonitor monitor) {
+        gitMetrics.run("checkout", directory.getPath(), () -> {
+            maintenance.track(directory);
+            Lock lock = repositoryLocks.forRepository(directory.getPath());
+            lock.lock();
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                Git git = handle.git();
+                RefSnapshot refs = handle.refs();
+                Optional<String> remote = refs.hasLocalBranch(branchName) ? Optional.empty() : refs.findRemote(branchName);
+                if (refs.hasLocalBranch(branchName)) {
+                    log.info("Checking out local branch={} for repo={}", branchName, directory.getName());
+                    git.checkout()
+                            .setCreateBranch(false)
+                            .setName(branchName)
+                            .setProgressMonitor(monitor)
+                            .call();
+                } else if (remote.isPresent()) {
+                    log.info("Checking out remote branch={} from remote={} for repo={}", branchName, remote.get(), directory.getName());
+                    git.checkout()
+                            .setCreateBranch(true)
+                            .setName(branchName)
+                            .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                            .setStartPoint(remote.get() + "/" + branchName)
+                            .setProgressMonitor(monitor)
+                            .call();
+                } else {
+                    log.warn("The branch does not exist locally or remotely");
+                    throw new WhistlerRestException(RestConstants.BRANCH_DOES_NOT_EXIST, HttpStatus.BAD_REQUEST);
+                }
+
+                pullRebase(directory, git, branchName, monitor);
             } catch (GitAPIException | IOException e) {
                 log.error("Something went wrong while checking out the branch={} for the repository={}", branchName, directory.getName(), e);
                 throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_OUT_BRANCH, HttpStatus.INTERNAL_SERVER_ERROR);
+            } finally {
+                lock.unlock();
             }
-        } else {
-            log.warn("The branch does not exist locally or remotely");
-            throw new WhistlerRestException(RestConstants.BRANCH_DOES_NOT_EXIST, HttpStatus.BAD_REQUEST);
-        }
+        });
+    }
+
+    public void pullRebase(Directory directory, String branchName) {
+        pullRebase(directory, branchName, NullProgressMonitor.INSTANCE);
+    }
+
+    public void pullRebase(Directory directory, String branchName, ProgressMonitor monitor) {
+        gitMetrics.run("pull-rebase", directory.getPath(), () -> {
+            maintenance.track(directory);
+            Lock lock = repositoryLocks.forRepository(directory.getPath());
+            lock.lock();
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                pullRebase(directory, handle.git(), branchName, monitor);
+            } catch (IOException e) {
+                log.error("Something went wrong while rebasing the branch={} for the repository={}", branchName, directory.getName(), e);
+                throw new WhistlerRestException(RestConstants.ERROR_WHILE_REBASING_BRANCH, HttpStatus.INTERNAL_SERVER_ERROR);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    public Boolean branchExistsLocally(Directory directory, String branchName) {
+        return gitMetrics.record("branch-exists-locally", directory.getPath(), () -> {
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                return handle.refs().hasLocalBranch(branchName);
+            } catch (IOException e) {
+                log.error("Something went wrong while checking if the branch={} exists locally for the repository={}", branchName, directory.getName(), e);
+                throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_BRANCH_EXISTS, HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        });
+    }
+
+    public Boolean branchExistsRemotely(Directory directory, String branchName) {
+        return gitMetrics.record("branch-exists-remotely", directory.getPath(), () -> {
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                return handle.refs().findRemote(branchName).isPresent();
+            } catch (IOException e) {
+                log.error("Something went wrong while checking if the branch={} exists remotely for the repository={}", branchName, directory.getName(), e);
+                throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_BRANCH_EXISTS, HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        });
+    }
 
-        pullRebase(directory, branchName);
+    public Boolean isBranchUpToDate(Directory directory, String branchName) {
+        return isBranchUpToDate(directory, branchName, fetchMaxAge);
     }
 
-    public static void pullRebase(Directory directory, String branchName) {
+    /**
+     * Checks whether the branch is behind its upstream, as of the last fetch of the repository.
+     * The repository is fetched first only if its last successful fetch is older than the given
+     * age, and it is fetched in the background from then on.
+     *
+     * @param directory    Git repository to check
+     * @param branchName   Local branch to check
+     * @param maxAgeMillis Maximum age of the fetch the answer is based on
+     * @return True if the branch is not behind its upstream
+     */
+    public Boolean isBranchUpToDate(Directory directory, String branchName, long maxAgeMillis) {
+        return gitMetrics.record("up-to-date", directory.getPath(), () -> {
+            fetchScheduler.track(directory);
+            maintenance.track(directory);
+            FetchStatus fetch = fetchScheduler.fetchIfStale(directory, maxAgeMillis);
+            if (!fetch.isSuccess()) {
+                throw new WhistlerRestException(fetch.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                BranchTrackingStatus branchTrackingStatus = BranchTrackingStatus.of(handle.repository(), branchName);
+                if (branchTrackingStatus == null) {
+                    throw new WhistlerRestException(RestConstants.GIT_NO_REMOTE_TRACKING_OF_BRANCH, HttpStatus.BAD_REQUEST);
+                }
+                return branchTrackingStatus.getBehindCount() == 0;
+            } catch (IOException e) {
+                log.error("Something went wrong while checking the status of the branch={} for the repository={}", branchName, directory.getName(), e);
+                throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_BRANCH_STATUS, HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        });
+    }
+
+    public List<Directory> discoverRepositories(String rootDirectory, int maxDirectoryDepth) {
+        log.info("Discovering gradle projects and git repositories in {}, max depth {}", rootDirectory, maxDirectoryDepth);
+        Path root = resolveRootDirectory(rootDirectory);
+        Queue<CompletableFuture<Void>> pendingMetadata = new ConcurrentLinkedQueue<>();
+        List<Directory> directories;
+        long walkStart = System.nanoTime();
+        boolean walked = false;
         try {
-            log.info("Rebasing branch={} for repo={}", branchName, directory.getName());
-            Git.open(new File(directory.getPath()))
-                    .pull()
-                    .setRemoteBranchName(branchName)
-                    .setRebase(true)
-                    .call();
-        } catch (GitAPIException | IOException e) {
-            log.error("Something went wrong while rebasing the branch={} for the repository={}", branchName, directory.getName(), e);
-            throw new WhistlerRestException(RestConstants.ERROR_WHILE_REBASING_BRANCH, HttpStatus.INTERNAL_SERVER_ERROR);
+            directories = directoryWalker.walk(root, maxDirectoryDepth, directory -> {
+                if (Boolean.TRUE.equals(directory.getIsGitRepository())) {
+                    pendingMetadata.add(CompletableFuture.runAsync(() -> loadGitMetadata(directory), metadataExecutor));
+                }
+            });
+            walked = true;
+        } catch (IOException e) {
+            log.error("There was an error while discovering the directories. ", e);
+            throw new WhistlerRestException(RestConstants.DIRECTORY_DISCOVERY_FAILURE, HttpStatus.ACCEPTED);
+        } finally {
+            gitMetrics.recordPhase("walk", walkStart, walked);
         }
+        awaitMetadata(pendingMetadata);
+        gitMetrics.recordDiscoveredDirectories(directories.size());
+
+        log.info("Directory discovery completed successfully");
+        return directories;
     }
 
-    private static Boolean branchExistsLocally(Directory directory, String branchName) {
+    /**
+     * Discovers the directories below the root directory and hands each one to the consumer as
+     * soon as it is classified, without collecting them. Git repositories are handed over once
+     * their metadata is loaded. The consumer is called concurrently and may block, which slows the
+     * discovery down accordingly.
+     *
+     * @param rootDirectory     Root directory of the discovery
+     * @param maxDirectoryDepth Maximum depth of the discovered directories
+     * @param loadBranches      Whether to load the local and remote branches of git repositories
+     * @param consumer          Receives the discovered directories
+     * @param cancelled         Checked before each directory, the discovery stops once it returns true
+     */
+    public void discoverRepositories(String rootDirectory, int maxDirectoryDepth, boolean loadBranches,
+                                     Consumer<Directory> consumer, BooleanSupplier cancelled) {
+        log.info("Streaming gradle projects and git repositories in {}, max depth {}", rootDirectory, maxDirectoryDepth);
+        Path root = resolveRootDirectory(rootDirectory);
+        // Only counts the pending repositories, which are bounded by the permits
+        Phaser pendingMetadata = new Phaser(1);
+        Semaphore permits = new Semaphore(metadataThreads * PENDING_METADATA_PER_THREAD);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        AtomicInteger discovered = new AtomicInteger();
+        long walkStart = System.nanoTime();
+        boolean walked = false;
         try {
-            return Git.open(new File(directory.getPath()))
-                    .branchList()
-                    .call()
-                    .stream()
-                    .map(Ref::getName)
-                    .collect(Collectors.toList())
-                    .contains("refs/heads/" + branchName);
-        } catch (GitAPIException | IOException e) {
-            log.error("Something went wrong while checking if the branch={} exists locally for the repository={}", branchName, directory.getName(), e);
-            throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_BRANCH_EXISTS, HttpStatus.INTERNAL_SERVER_ERROR);
+            directoryWalker.stream(root, maxDirectoryDepth, directory -> {
+                discovered.incrementAndGet();
+                if (!Boolean.TRUE.equals(directory.getIsGitRepository())) {
+                    consumer.accept(directory);
+                    return;
+                }
+                permits.acquireUninterruptibly();
+                pendingMetadata.register();
+                try {
+                    metadataExecutor.execute(() -> {
+                        try {
+                            if (!cancelled.getAsBoolean()) {
+                                loadGitMetadata(directory, loadBranches);
+                                consumer.accept(directory);
+                            }
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            permits.release();
+                            pendingMetadata.arriveAndDeregister();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    pendingMetadata.arriveAndDeregister();
+                    throw e;
+                }
+            }, cancelled);
+            walked = true;
+        } catch (IOException e) {
+            log.error("There was an error while discovering the directories. ", e);
+            throw new WhistlerRestException(RestConstants.DIRECTORY_DISCOVERY_FAILURE, HttpStatus.ACCEPTED);
+        } finally {
+            gitMetrics.recordPhase("walk", walkStart, walked);
         }
+        awaitMetadata(pendingMetadata);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        gitMetrics.recordDiscoveredDirectories(discovered.get());
+
+        log.info(cancelled.getAsBoolean() ? "Directory discovery was cancelled" : "Directory discovery completed successfully");
     }
 
-    public static Boolean branchExistsRemotely(Directory directory, String branchName) {
+    /**
+     * Resolves a git repository from its path, without loading its metadata.
+     *
+     * @param path Path of the git repository
+     * @return The git repository
+     * @throws WhistlerRestException If the path is not a git repository
+     */
+    public Directory resolveRepository(String path) {
         try {
-            return Git.open(new File(directory.getPath()))
-                    .branchList()
-                    .setListMode(ListBranchCommand.ListMode.REMOTE)
-                    .call()
-                    .stream()
-                    .map(Ref::getName)
-                    .collect(Collectors.toList())
-                    .contains("refs/remotes/origin/" + branchName);
-        } catch (GitAPIException | IOException e) {
-            log.error("Something went wrong while checking if the branch={} exists remotely for the repository={}", branchName, directory.getName(), e);
-            throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_BRANCH_EXISTS, HttpStatus.INTERNAL_SERVER_ERROR);
+            Path repositoryPath = Paths.get(path);
+            if (Files.exists(repositoryPath.resolve(DirectoryWalker.GIT_DIRECTORY))) {
+                Directory directory = new Directory();
+                directory.setPath(repositoryPath.toString());
+                directory.setName(repositoryPath.getFileName().toString());
+                directory.setIsGitRepository(true);
+                if (Files.exists(repositoryPath.resolve(DirectoryWalker.GRADLE_FILE))) {
+                    directory.setIsGradleProject(true);
+                }
+                if (Files.exists(repositoryPath.resolve(DirectoryWalker.MAVEN_FILE))) {
+                    directory.setIsMavenProject(true);
+                }
+                return directory;
+            }
+        } catch (InvalidPathException e) {
+            log.warn("Invalid git repository path={}", path, e);
         }
+        throw new WhistlerRestException(RestConstants.INVALID_GIT_REPOSITORY_PATH, HttpStatus.BAD_REQUEST, path, null);
+    }
+
+    /**
+     * Resolves a git repository from its path and loads its current, local and remote branches,
+     * and its pooled worktrees.
+     *
+     * @param path Path of the git repository
+     * @return The git repository with its branches
+     */
+    public Directory getBranches(String path) {
+        return gitMetrics.record("branches", path, () -> {
+            Directory directory = resolveRepository(path);
+            try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+                RefSnapshot refs = handle.refs();
+                directory.setBranchName(handle.repository().getBranch());
+                directory.setLocalBranches(refs.getLocalBranches());
+                directory.setRemoteBranches(refs.getRemoteBranches());
+                directory.setWorktrees(worktreePool.getWorktrees(directory));
+                return directory;
+            } catch (IOException e) {
+                log.error("Something went wrong while getting the branches for the repository={}", directory.getName(), e);
+                throw new WhistlerRestException(RestConstants.ERROR_WHILE_GETTING_LOCAL_BRANCHES, HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        });
+    }
+
+    /**
+     * Leases a linked worktree of the repository checked out at the tip of the branch, leaving
+     * the main checkout untouched. The lease must be closed by the calling thread.
+     *
+     * @param directory  Git repository
+     * @param branchName Local or remote branch
+     * @return The lease of the worktree
+     */
+    public WorktreePool.Lease acquireWorktree(Directory directory, String branchName) {
+        return gitMetrics.record("worktree-acquire", directory.getPath(), () -> worktreePool.acquire(directory, branchName));
+    }
+
+    public Worktree prepareWorktree(Directory directory, String branchName) {
+        return gitMetrics.record("worktree-prepare", directory.getPath(), () -> worktreePool.prepare(directory, branchName));
+    }
+
+    public List<Worktree> getWorktrees(Directory directory) {
+        return worktreePool.getWorktrees(directory);
     }
 
-    public static Boolean isBranchUpToDate(Directory directory, String branchName) {
+    public void removeWorktree(Directory directory, String branchName) {
+        gitMetrics.run("worktree-remove", directory.getPath(), () -> worktreePool.remove(directory, branchName));
+    }
+
+    /**
+     * Packs the objects and refs of the repository now, unless it is in use.
+     *
+     * @param directory Git repository
+     * @return The counts and timings before and after the maintenance
+     * @throws WhistlerRestException If the maintenance could not run
+     */
+    public MaintenanceResult maintain(Directory directory) {
         try {
+            return maintenance.maintain(directory).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof WhistlerRestException) {
+                throw (WhistlerRestException) e.getCause();
+            }
+            log.error("Something went wrong while maintaining the repository={}", directory.getName(), e.getCause());
+            throw new WhistlerRestException(RestConstants.ERROR_WHILE_MAINTAINING_REPOSITORY, HttpStatus.INTERNAL_SERVER_ERROR,
+                    directory.getPath(), directory.getName());
+        }
+    }
+
+    public List<MaintenanceResult> getMaintenanceResults() {
+        return maintenance.getResults();
+    }
 
-            Git git = Git.open(new File(directory.getPath()));
-            git.fetch().call();
-            BranchTrackingStatus branchTrackingStatus = BranchTrackingStatus.of(git.getRepository(), branchName);
-            return branchTrackingStatus.getBehindCount() == 0;
-        } catch (GitAPIException | IOException e) {
-            log.error("Something went wrong while checking if the branch={} exists remotely for the repository={}", branchName, directory.getName(), e);
-            throw new WhistlerRestException(RestConstants.ERROR_WHILE_CHECKING_BRANCH_EXISTS, HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * Resolves the root directory of a discovery.
+     *
+     * @param rootDirectory Root directory of the discovery
+     * @return The root directory path
+     * @throws WhistlerRestException If the path is not an existing directory
+     */
+    public Path resolveRootDirectory(String rootDirectory) {
+        try {
+            Path root = Paths.get(rootDirectory);
+            if (Files.isDirectory(root)) {
+                return root;
+            }
+        } catch (InvalidPathException e) {
+            log.warn("Invalid discovery root directory={}", rootDirectory, e);
         }
+        throw new WhistlerRestException(RestConstants.DIRECTORY_DISCOVERY_INVALID_PATH, HttpStatus.BAD_REQUEST, rootDirectory, null);
     }
 
-    public static List<Directory> discoverRepositories(String rootDirectory, int maxDirectoryDepth) {
-        log.info("Discovering gradle projects and git repositories in {}, max depth {}", rootDirectory, maxDirectoryDepth);
-        List<Directory> directories = new LinkedList<>();
-        try (Stream<Path> paths = Files.walk(Paths.get(rootDirectory), maxDirectoryDepth)) {
-            paths.forEach(filePath -> {
-                if (Files.isDirectory(filePath)) {
-                    Directory directory = new Directory();
-                    directory.setPath(filePath.toString());
-                    directory.setName(filePath.getFileName().toString());
-                    if (Files.exists(filePath.resolve(GRADLE_FILE))) {
-                        directory.setIsGradleProject(true);
-                    }
-                    if (Files.exists(filePath.resolve(GIT_DIRECTORY))) {
-                        directory.setIsGitRepository(true);
-                        try {
-                            directory.setBranchName(Git.open(new File(filePath.toString())).getRepository().getBranch());
-                            directory.setLocalBranches(getLocalBranches(directory));
-                            directory.setRemoteBranches(getRemoteBranches(directory));
-                        } catch (IOException e) {
-                            log.error(e.getMessage());
-                        }
-                    }
-                    directories.add(directory);
-                }
-            });
+    @PreDestroy
+    public void close() {
+        metadataExecutor.shutdownNow();
+    }
+
+    /**
+     * Loads the git metadata of several repositories in parallel and waits for all of them.
+     *
+     * @param directories Git repositories to complete
+     */
+    void loadGitMetadata(Collection<Directory> directories) {
+        CompletableFuture.allOf(directories.stream()
+                .map(directory -> CompletableFuture.runAsync(() -> loadGitMetadata(directory), metadataExecutor))
+                .toArray(CompletableFuture[]::new))
+                .join();
+    }
+
+    /**
+     * Loads the current branch and the branch lists of a git repository using a single
+     * repository handle.
+     *
+     * @param directory Git repository to complete
+     */
+    void loadGitMetadata(Directory directory) {
+        loadGitMetadata(directory, true);
+    }
+
+    private void loadGitMetadata(Directory directory, boolean loadBranches) {
+        long start = gitMetrics.start("metadata");
+        boolean success = false;
+        try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+            directory.setBranchName(handle.repository().getBranch());
+            if (loadBranches) {
+                RefSnapshot refs = handle.refs();
+                directory.setLocalBranches(refs.getLocalBranches());
+                directory.setRemoteBranches(refs.getRemoteBranches());
+            }
+            maintenance.track(directory);
+            success = true;
         } catch (IOException e) {
-            log.error("There was an error while discovering the directories. ", e);
-            throw new WhistlerRestException(RestConstants.DIRECTORY_DISCOVERY_FAILURE, HttpStatus.ACCEPTED);
+            log.error(e.getMessage());
+        } finally {
+            gitMetrics.record("metadata", directory.getPath(), start, success);
         }
+    }
 
-        log.info("Directory discovery completed successfully");
-        return directories;
+    /**
+     * Waits for the git metadata still loading once the walk is over, recorded as the metadata
+     * phase of the discovery.
+     */
+    private void awaitMetadata(Phaser pendingMetadata) {
+        long start = System.nanoTime();
+        pendingMetadata.arriveAndAwaitAdvance();
+        gitMetrics.recordPhase("metadata", start, true);
+    }
+
+    private void awaitMetadata(Queue<CompletableFuture<Void>> pendingMetadata) {
+        long start = System.nanoTime();
+        boolean loaded = false;
+        try {
+            CompletableFuture.allOf(pendingMetadata.toArray(new CompletableFuture[0])).join();
+            loaded = true;
+        } finally {
+            gitMetrics.recordPhase("metadata", start, loaded);
+        }
+    }
+
+    private void pullRebase(Directory directory, Git git, String branchName, ProgressMonitor monitor) {
+        try {
+            log.info("Rebasing branch={} for repo={}", branchName, directory.getName());
+            git.pull()
+                    .setRemoteBranchName(branchName)
+                    .setRebase(true)
+                    .setProgressMonitor(monitor)
+                    .call();
+        } catch (GitAPIException e) {
+            log.error("Something went wrong while rebasing the branch={} for the repository={}", branchName, directory.getName(), e);
+            throw new WhistlerRestException(RestConstants.ERROR_WHILE_REBASING_BRANCH, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
     }
 }
@@ -0,0 +1,362 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import xyz.codeark.whistler.dto.BulkOperationResult;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.FetchStatus;
+import xyz.codeark.whistler.dto.Job;
+import xyz.codeark.whistler.dto.JobType;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs long git operations and workspace builds as jobs, off the request threads. A job is
+ * queued on a bounded queue and its id is returned right away; the job reports its progress
+ * through the JGit {@link ProgressMonitor} callbacks and can be polled until it finishes.
+ * <p>
+ * When the queue is full the submission is rejected with {@code 503 Service Unavailable}.
+ * Finished jobs are kept for {@code whistler.jobs.retention} milliseconds, and removed in the
+ * background once they expire.
+ * <p>
+ * The output of a job (its tasks, build logs and outcome) is captured in an {@link OutputBuffer}
+ * of {@code whistler.output.buffer-lines} lines, the older lines are spilled to a file in
+ * {@code whistler.output.spill-directory} so readers can tail the whole output.
+ */
+@Slf4j
+@Service
+public class JobService {
+    private final GitService gitService;
+    private final FetchScheduler fetchScheduler;
+    private final BuildOrchestrator buildOrchestrator;
+    private final RepositoryIndex repositoryIndex;
+    private final DirectoryWalker directoryWalker;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService cleaner;
+    private final long retentionMillis;
+    private final int outputLines;
+    private final int outputMaxLineLength;
+    private final long outputMaxBytes;
+    private final Path spillDirectory;
+    private final Map<String, JobState> jobs = new ConcurrentHashMap<>();
+
+    public JobService(GitService gitService,
+                      FetchScheduler fetchScheduler,
+                      BuildOrchestrator buildOrchestrator,
+                      RepositoryIndex repositoryIndex,
+                      DirectoryWalker directoryWalker,
+                      @Value("${whistler.jobs.threads:4}") int threads,
+                      @Value("${whistler.jobs.queue-capacity:100}") int queueCapacity,
+                      @Value("${whistler.jobs.retention:3600000}") long retentionMillis,
+                      @Value("${whistler.output.buffer-lines:4096}") int outputLines,
+                      @Value("${whistler.output.max-line-length:4096}") int outputMaxLineLength,
+                      @Value("${whistler.output.buffer-bytes:1048576}") long outputMaxBytes,
+                      @Value("${whistler.output.spill:true}") boolean spill,
+                      @Value("${whistler.output.spill-directory:${java.io.tmpdir}/whistler/output}") String spillDirectory) {
+        this.gitService = gitService;
+        this.fetchScheduler = fetchScheduler;
+        this.buildOrchestrator = buildOrchestrator;
+        this.repositoryIndex = repositoryIndex;
+        this.directoryWalker = directoryWalker;
+        this.retentionMillis = retentionMillis;
+        this.outputLines = outputLines;
+        this.outputMaxLineLength = outputMaxLineLength;
+        this.outputMaxBytes = outputMaxBytes;
+        this.spillDirectory = spill ? Paths.get(spillDirectory) : null;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new NamedThreadFactory("whistler-job"));
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("whistler-job-cleaner"));
+        long period = Math.max(1000, retentionMillis / 2);
+        this.cleaner.scheduleWithFixedDelay(this::removeExpiredJobs, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a git operation on a repository.
+     *
+     * @param type       Operation to run
+     * @param path       Path of the git repository
+     * @param branchName Branch to check out or rebase, ignored by fetch jobs
+     * @return The queued job
+     */
+    public Job submit(JobType type, String path, String branchName) {
+        if (path == null || type == JobType.BUILD || (type != JobType.FETCH && branchName == null)) {
+            throw new WhistlerRestException(RestConstants.INVALID_JOB_REQUEST, HttpStatus.BAD_REQUEST);
+        }
+        return submit(newJob(type, gitService.resolveRepository(path), branchName, 0));
+    }
+
+    /**
+     * Queues the build of the Maven and Gradle projects below a root directory. With a branch,
+     * the root directory must be a git repository and the projects are built in a pooled
+     * worktree of the branch, so several branches of a repository can build at the same time.
+     *
+     * @param rootDirectory Root directory of the workspace
+     * @param maxDepth      Maximum depth of the projects
+     * @param branchName    Branch to build, null to build the checked out files
+     * @return The queued job
+     */
+    public Job submitBuild(String rootDirectory, int maxDepth, String branchName) {
+        if (rootDirectory == null) {
+            throw new WhistlerRestException(RestConstants.INVALID_JOB_REQUEST, HttpStatus.BAD_REQUEST);
+        }
+        if (branchName != null) {
+            return submit(newJob(JobType.BUILD, gitService.resolveRepository(rootDirectory), branchName, maxDepth));
+        }
+        Path root = gitService.resolveRootDirectory(rootDirectory);
+        Directory directory = new Directory();
+        directory.setPath(root.toString());
+        directory.setName(root.getFileName() != null ? root.getFileName().toString() : root.toString());
+        return submit(newJob(JobType.BUILD, directory, null, maxDepth));
+    }
+
+    private JobState newJob(JobType type, Directory directory, String branchName, int maxDepth) {
+        String id = UUID.randomUUID().toString();
+        OutputBuffer output = new OutputBuffer(outputLines, outputMaxLineLength, outputMaxBytes,
+                spillDirectory != null ? spillDirectory.resolve(id + ".log") : null);
+        return new JobState(id, type, directory, branchName, maxDepth, output);
+    }
+
+    private Job submit(JobState job) {
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            job.output.delete();
+            log.warn("Rejected the {} job for {}, {} jobs are queued", job.type, job.directory.getName(), executor.getQueue().size());
+            throw new WhistlerRestException(RestConstants.JOB_QUEUE_FULL, HttpStatus.SERVICE_UNAVAILABLE, job.directory.getPath(), job.directory.getName());
+        }
+        log.info("Queued {} job={} for {}", job.type, job.id, job.directory.getName());
+        return job.toJob();
+    }
+
+    public Job getJob(String id) {
+        return find(id).toJob();
+    }
+
+    /**
+     * Returns the outcome of a finished job, one result per repository or built project.
+     *
+     * @param id Id of the job
+     * @return The outcome of the job
+     */
+    public List<BulkOperationResult> getResult(String id) {
+        JobState job = find(id);
+        if (job.status != Job.Status.SUCCEEDED && job.status != Job.Status.FAILED) {
+            throw new WhistlerRestException(RestConstants.JOB_NOT_FINISHED, HttpStatus.CONFLICT, job.directory.getPath(), job.directory.getName());
+        }
+        if (job.results != null) {
+            return job.results;
+        }
+        BulkOperationResult result = new BulkOperationResult();
+        result.setPath(job.directory.getPath());
+        result.setName(job.directory.getName());
+        result.setStatus(job.status == Job.Status.SUCCEEDED ? BulkOperationResult.Status.SUCCESS : BulkOperationResult.Status.FAILED);
+        result.setMessage(job.message);
+        result.setDurationMillis(job.finishedAt - job.startedAt);
+        return List.of(result);
+    }
+
+    /**
+     * Returns the output of a job, which readers can tail while the job runs.
+     *
+     * @param id Id of the job
+     * @return The output of the job, closed once the job finished
+     */
+    public OutputBuffer getOutput(String id) {
+        return find(id).output;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void close() {
+        cleaner.shutdownNow();
+        executor.shutdownNow();
+        jobs.values().forEach(job -> job.output.delete());
+    }
+
+    private void run(JobState job) {
+        job.startedAt = System.currentTimeMillis();
+        job.status = Job.Status.RUNNING;
+        try {
+            switch (job.type) {
+                case CHECKOUT:
+                    gitService.checkoutBranch(job.directory, job.branchName, job);
+                    job.message = RestConstants.GIT_CHECKOUT_SUCCESS;
+                    break;
+                case PULL_REBASE:
+                    gitService.pullRebase(job.directory, job.branchName, job);
+                    job.message = RestConstants.GIT_PULL_SUCCESS;
+                    break;
+                case FETCH:
+                    FetchStatus fetch = fetchScheduler.fetch(job.directory, job).join();
+                    job.message = fetch.getMessage();
+                    if (!fetch.isSuccess()) {
+                        job.finish(Job.Status.FAILED);
+                        return;
+                    }
+                    break;
+                case BUILD:
+                    List<BulkOperationResult> results = job.branchName != null
+                            ? buildWorktree(job)
+                            : buildOrchestrator.build(repositoryIndex.getDirectories(job.directory.getPath(), job.maxDepth), job, job.output::append);
+                    job.results = results;
+                    if (results.stream().anyMatch(result -> result.getStatus() != BulkOperationResult.Status.SUCCESS)) {
+                        job.message = RestConstants.BUILD_JOB_FAILED;
+                        job.finish(Job.Status.FAILED);
+                        return;
+                    }
+                    job.message = RestConstants.BUILD_JOB_SUCCESS;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown job type " + job.type);
+            }
+            job.finish(Job.Status.SUCCEEDED);
+        } catch (WhistlerRestException e) {
+            job.message = e.getMessage();
+            job.finish(Job.Status.FAILED);
+        } catch (RuntimeException e) {
+            log.error("Unexpected error in job={} for repository={}", job.id, job.directory.getName(), e);
+            job.message = RestConstants.GIT_UNEXPECTED_ERROR;
+            job.finish(Job.Status.FAILED);
+        }
+    }
+
+    private List<BulkOperationResult> buildWorktree(JobState job) {
+        try (WorktreePool.Lease worktree = gitService.acquireWorktree(job.directory, job.branchName)) {
+            job.output.append("Building branch " + job.branchName + " in " + worktree.getPath());
+            return buildOrchestrator.build(directoryWalker.walk(worktree.getPath(), job.maxDepth, directory -> {
+            }), job, job.output::append);
+        } catch (IOException e) {
+            log.error("Could not discover the projects of the worktree for job={}", job.id, e);
+            throw new WhistlerRestException(RestConstants.DIRECTORY_DISCOVERY_FAILURE, HttpStatus.INTERNAL_SERVER_ERROR,
+                    job.directory.getPath(), job.directory.getName());
+        }
+    }
+
+    private JobState find(String id) {
+        JobState job = jobs.get(id);
+        if (job == null) {
+            throw new WhistlerRestException(RestConstants.JOB_NOT_FOUND, HttpStatus.NOT_FOUND);
+        }
+        return job;
+    }
+
+    private void removeExpiredJobs() {
+        long deadline = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> {
+            if (job.finishedAt == null || job.finishedAt >= deadline) {
+                return false;
+            }
+            job.output.delete();
+            return true;
+        });
+    }
+
+    /**
+     * Live state of a job, written by the job thread and read by the request threads.
+     */
+    private static final class JobState implements ProgressMonitor {
+        private final String id;
+        private final JobType type;
+        private final Directory directory;
+        private final String branchName;
+        private final int maxDepth;
+        private final OutputBuffer output;
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile Job.Status status = Job.Status.QUEUED;
+        private volatile String task;
+        // Builds report progress from several worker threads
+        private volatile int completedWork;
+        private volatile int totalWork;
+        private volatile String message;
+        private volatile Long startedAt;
+        private volatile Long finishedAt;
+        private volatile List<BulkOperationResult> results;
+
+        private JobState(String id, JobType type, Directory directory, String branchName, int maxDepth, OutputBuffer output) {
+            this.id = id;
+            this.type = type;
+            this.directory = directory;
+            this.branchName = branchName;
+            this.maxDepth = maxDepth;
+            this.output = output;
+        }
+
+        private void finish(Job.Status finalStatus) {
+            finishedAt = System.currentTimeMillis();
+            status = finalStatus;
+            output.append(finalStatus + ": " + message);
+            output.close();
+            log.info("Job={} {} after {} ms", id, finalStatus, finishedAt - startedAt);
+        }
+
+        @Override
+        public void start(int totalTasks) {
+            // Tasks are reported one at a time through beginTask
+        }
+
+        @Override
+        public synchronized void beginTask(String title, int totalWork) {
+            this.task = title;
+            this.completedWork = 0;
+            this.totalWork = totalWork;
+            output.append(title);
+        }
+
+        @Override
+        public synchronized void update(int completed) {
+            completedWork += completed;
+        }
+
+        @Override
+        public void endTask() {
+            // The last task stays visible until the next one begins
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        private Job toJob() {
+            Job job = new Job();
+            job.setId(id);
+            job.setType(type);
+            job.setStatus(status);
+            job.setPath(directory.getPath());
+            job.setName(directory.getName());
+            job.setBranchName(branchName);
+            job.setTask(task);
+            job.setCompletedWork(task != null ? completedWork : null);
+            job.setTotalWork(task != null && totalWork != ProgressMonitor.UNKNOWN ? totalWork : null);
+            job.setMessage(message);
+            job.setSubmittedAt(submittedAt);
+            job.setStartedAt(startedAt);
+            job.setFinishedAt(finishedAt);
+            return job;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package xyz.codeark.whistler.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Output of a job, kept as a ring of preallocated line slots addressed by absolute line offsets.
+ * <p>
+ * Appending never blocks on readers: once the ring is full the oldest line is overwritten, after
+ * being appended to the spill file if there is one. Readers tail the output from any offset and
+ * only copy the lines they ask for; lines that are neither in the ring nor in the spill file are
+ * reported as dropped. Lines longer than the configured maximum are truncated, and the oldest
+ * lines leave the ring once the lines in memory exceed the configured size, so the heap used by a
+ * buffer is bounded however chatty the producer is. The position of every
+ * {@value #SPILL_INDEX_INTERVAL}th spilled line is indexed, so reading from an old offset does
+ * not rescan the whole spill file.
+ */
+@Slf4j
+public class OutputBuffer {
+    static final int SPILL_INDEX_INTERVAL = 1024;
+    private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n|\\r|\\n");
+
+    private final String[] slots;
+    private final int maxLineLength;
+    private final long maxBytes;
+    private final Path spillFile;
+    private final List<Long> spillIndex = new ArrayList<>();
+    private OutputStream spillStream;
+    private long spilledLines;
+    private long spilledBytes;
+    /**
+     * Absolute offset of the oldest line in the ring
+     */
+    private long firstInMemory;
+    /**
+     * Absolute offset of the next line to append, the ring holds the lines before it
+     */
+    private long nextOffset;
+    /**
+     * Size of the characters of the lines in the ring
+     */
+    private long memoryBytes;
+    private boolean closed;
+    private int waiters;
+
+    /**
+     * @param capacity      Maximum number of lines kept in memory
+     * @param maxLineLength Length lines are truncated to
+     * @param maxBytes      Maximum size of the characters of the lines kept in memory, the newest
+     *                      line is always kept
+     * @param spillFile     File the overwritten lines are appended to, null to drop them
+     */
+    public OutputBuffer(int capacity, int maxLineLength, long maxBytes, Path spillFile) {
+        this.slots = new String[capacity];
+        this.maxLineLength = maxLineLength;
+        this.maxBytes = maxBytes;
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * Appends the text as one line per line break in it, so that every slot is a single line of
+     * the spill file.
+     *
+     * @param text Line or lines to append
+     */
+    public synchronized void append(String text) {
+        if (closed) {
+            return;
+        }
+        for (String line : LINE_BREAK.split(text, -1)) {
+            appendLine(line);
+        }
+        if (waiters > 0) {
+            notifyAll();
+        }
+    }
+
+    private void appendLine(String line) {
+        String truncated = line.length() > maxLineLength ? line.substring(0, maxLineLength) : line;
+        long bytes = sizeOf(truncated);
+        while (nextOffset - firstInMemory == slots.length
+                || (firstInMemory < nextOffset && memoryBytes + bytes > maxBytes)) {
+            evictOldest();
+        }
+        slots[(int) (nextOffset % slots.length)] = truncated;
+        memoryBytes += bytes;
+        nextOffset++;
+    }
+
+    /**
+     * Marks the output as complete, waking up the readers waiting for more lines.
+     */
+    public synchronized void close() {
+        closed = true;
+        closeSpillStream();
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Reads up to maxLines lines from the offset, from the spill file for the lines no longer in
+     * memory.
+     *
+     * @param offset   Absolute offset of the first line to read
+     * @param maxLines Maximum number of lines to read
+     * @return The lines read, empty if the offset is at the end of the output
+     */
+    public Chunk read(long offset, int maxLines) {
+        long spilled;
+        synchronized (this) {
+            spilled = spilledLines;
+            if (offset >= firstInMemory || offset >= spilled) {
+                return readMemory(offset, maxLines);
+            }
+        }
+        // Older than the ring, the spill file has the lines before firstInMemory
+        Chunk chunk = readSpilled(offset, (int) Math.min(maxLines, spilled - offset));
+        if (chunk.lines.isEmpty()) {
+            // The spill file is gone or unreadable, skip to the lines still in memory
+            synchronized (this) {
+                return readMemory(offset, maxLines);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Waits until a line past the offset is appended or the output is closed.
+     *
+     * @param offset        Offset the reader is at
+     * @param timeoutMillis Maximum time to wait
+     * @return True if there is a line at the offset
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public synchronized boolean await(long offset, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        waiters++;
+        try {
+            while (nextOffset <= offset && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+        } finally {
+            waiters--;
+        }
+        return nextOffset > offset;
+    }
+
+    /**
+     * Releases the buffer and deletes its spill file.
+     */
+    public void delete() {
+        close();
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                log.warn("Could not delete the output spill file {}", spillFile, e);
+            }
+        }
+    }
+
+    private Chunk readMemory(long offset, int maxLines) {
+        long start = Math.max(offset, firstInMemory);
+        int count = (int) Math.max(0, Math.min(maxLines, nextOffset - start));
+        List<String> lines = new ArrayList<>(count);
+        for (long line = start; line < start + count; line++) {
+            lines.add(slots[(int) (line % slots.length)]);
+        }
+        return new Chunk(start, lines, start - Math.max(0, offset));
+    }
+
+    private void evictOldest() {
+        int slot = (int) (firstInMemory % slots.length);
+        spill(slots[slot]);
+        memoryBytes -= sizeOf(slots[slot]);
+        slots[slot] = null;
+        firstInMemory++;
+    }
+
+    private static long sizeOf(String line) {
+        return (long) line.length() * Character.BYTES;
+    }
+
+    private void spill(String line) {
+        if (spillFile == null || spilledLines < 0) {
+            return;
+        }
+        try {
+            if (spillStream == null) {
+                Files.createDirectories(spillFile.getParent());
+                spillStream = new BufferedOutputStream(Files.newOutputStream(spillFile));
+            }
+            if (spilledLines % SPILL_INDEX_INTERVAL == 0) {
+                spillIndex.add(spilledBytes);
+            }
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            spillStream.write(bytes);
+            spillStream.write('\n');
+            spilledBytes += bytes.length + 1;
+            spilledLines++;
+        } catch (IOException e) {
+            log.warn("Could not spill the output to {}, dropping the oldest lines from now on", spillFile, e);
+            // From now on the lines before the ring are dropped
+            spilledLines = -1;
+            closeSpillStream();
+        }
+    }
+
+    private Chunk readSpilled(long offset, int count) {
+        long position;
+        synchronized (this) {
+            if (spillStream != null) {
+                try {
+                    spillStream.flush();
+                } catch (IOException e) {
+                    log.warn("Could not flush the output spill file {}", spillFile, e);
+                }
+            }
+            position = spillIndex.get((int) (offset / SPILL_INDEX_INTERVAL));
+        }
+        List<String> lines = new ArrayList<>(count);
+        try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(channel.position(position)), StandardCharsets.UTF_8))) {
+            for (long line = offset - offset % SPILL_INDEX_INTERVAL; line < offset; line++) {
+                if (reader.readLine() == null) {
+                    break;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                String line = reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            log.warn("Could not read the output spill file {}", spillFile, e);
+            return new Chunk(offset, Collections.emptyList(), 0);
+        }
+        return new Chunk(offset, lines, 0);
+    }
+
+    private void closeSpillStream() {
+        if (spillStream != null) {
+            try {
+                spillStream.close();
+            } catch (IOException e) {
+                log.warn("Could not close the output spill file {}", spillFile, e);
+            }
+            spillStream = null;
+        }
+    }
+
+    /**
+     * Consecutive lines of the output.
+     */
+    @Getter
+    public static final class Chunk {
+        /**
+         * Absolute offset of the first line of the chunk
+         */
+        private final long offset;
+        private final List<String> lines;
+        /**
+         * Number of lines between the requested offset and the chunk that are lost
+         */
+        private final long droppedLines;
+
+        private Chunk(long offset, List<String> lines, long droppedLines) {
+            this.offset = offset;
+            this.lines = lines;
+            this.droppedLines = droppedLines;
+        }
+
+        public long getNextOffset() {
+            return offset + lines.size();
+        }
+    }
+}
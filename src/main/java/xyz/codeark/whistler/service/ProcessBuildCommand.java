@@ -0,0 +1,74 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Builds a project by running Maven or Gradle in its directory. Gradle projects are built with
+ * their wrapper when they have one. The output of the build is read continuously while it runs,
+ * so the build never stalls on a full pipe.
+ */
+@Slf4j
+@Component
+public class ProcessBuildCommand implements BuildCommand {
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    private final List<String> mavenCommand;
+    private final List<String> gradleCommand;
+
+    public ProcessBuildCommand(@Value("${whistler.build.maven-command:mvn -B install}") String mavenCommand,
+                               @Value("${whistler.build.gradle-command:gradle build}") String gradleCommand) {
+        this.mavenCommand = split(mavenCommand);
+        this.gradleCommand = split(gradleCommand);
+    }
+
+    @Override
+    public int run(BuildProject project, Consumer<String> output) throws IOException, InterruptedException {
+        List<String> command = command(project);
+        log.info("Building project={} with {}", project.getName(), command);
+
+        Process process = new ProcessBuilder(command)
+                .directory(project.getPath().toFile())
+                .redirectErrorStream(true)
+                .start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                output.accept(line);
+            }
+            return process.waitFor();
+        } catch (IOException | InterruptedException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    private List<String> command(BuildProject project) {
+        List<String> command = new ArrayList<>(project.getTool() == BuildTool.MAVEN ? mavenCommand : gradleCommand);
+        if (project.getTool() == BuildTool.GRADLE) {
+            Path wrapper = project.getPath().resolve(WINDOWS ? "gradlew.bat" : "gradlew");
+            if (Files.isRegularFile(wrapper)) {
+                command.set(0, wrapper.toString());
+            }
+        } else if (WINDOWS && "mvn".equals(command.get(0))) {
+            command.set(0, "mvn.cmd");
+        }
+        return command;
+    }
+
+    private static List<String> split(String command) {
+        return new ArrayList<>(Arrays.asList(command.trim().split("\\s+")));
+    }
+}
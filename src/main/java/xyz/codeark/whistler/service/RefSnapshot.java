@@ -0,0 +1,172 @@
+package xyz.codeark.whistler.service;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable view of the branches of a repository, read in a single pass from its ref database.
+ * <p>
+ * Exact ref lookups are hash lookups, and the local and remote branch lists are computed once
+ * when the snapshot is read. Remote branches are grouped per configured remote, so remotes
+ * other than {@code origin} are supported.
+ */
+public final class RefSnapshot {
+    static final String DEFAULT_REMOTE = Constants.DEFAULT_REMOTE_NAME;
+
+    private final Map<String, Ref> refs;
+    private final List<String> localBranches;
+    private final Map<String, List<String>> remoteBranchesByRemote;
+    private final List<String> remoteBranches;
+    private final RepositoryStamp stamp;
+    private final long readAt;
+
+    private RefSnapshot(Map<String, Ref> refs, List<String> localBranches, Map<String, List<String>> remoteBranchesByRemote,
+                        RepositoryStamp stamp) {
+        this.refs = refs;
+        this.localBranches = localBranches;
+        this.remoteBranchesByRemote = remoteBranchesByRemote;
+        this.remoteBranches = flatten(remoteBranchesByRemote);
+        this.stamp = stamp;
+        this.readAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads the local and remote branches of a repository.
+     *
+     * @param repository The repository to read
+     * @return The snapshot of its branches
+     * @throws IOException If the ref database cannot be read
+     */
+    static RefSnapshot read(Repository repository) throws IOException {
+        // Taken first, so that a ref moving while we read makes the snapshot look stale
+        RepositoryStamp stamp = RepositoryStamp.shallow(repository.getDirectory().toPath());
+        List<Ref> heads = repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS);
+        List<Ref> remotes = repository.getRefDatabase().getRefsByPrefix(Constants.R_REMOTES);
+
+        Map<String, Ref> refs = new HashMap<>(heads.size() + remotes.size());
+        List<String> localBranches = new ArrayList<>(heads.size());
+        for (Ref ref : heads) {
+            refs.put(ref.getName(), ref);
+            localBranches.add(ref.getName().substring(Constants.R_HEADS.length()));
+        }
+
+        // Longest remote name first, so that a remote named "team/a" wins over a remote named "team"
+        List<String> remoteNames = new ArrayList<>(repository.getRemoteNames());
+        remoteNames.sort(Comparator.comparingInt(String::length).reversed());
+        Map<String, List<String>> remoteBranches = new HashMap<>();
+        for (Ref ref : remotes) {
+            if (ref.isSymbolic()) {
+                // refs/remotes/<remote>/HEAD only points at the default branch of the remote
+                continue;
+            }
+            refs.put(ref.getName(), ref);
+            String name = ref.getName().substring(Constants.R_REMOTES.length());
+            String remote = remoteOf(name, remoteNames);
+            remoteBranches.computeIfAbsent(remote, key -> new ArrayList<>())
+                    .add(name.substring(Math.min(name.length(), remote.length() + 1)));
+        }
+
+        // origin first, then the other remotes by name
+        Map<String, List<String>> remoteBranchesByRemote = new LinkedHashMap<>();
+        if (remoteBranches.containsKey(DEFAULT_REMOTE)) {
+            remoteBranchesByRemote.put(DEFAULT_REMOTE, Collections.unmodifiableList(remoteBranches.remove(DEFAULT_REMOTE)));
+        }
+        for (String remote : new TreeSet<>(remoteBranches.keySet())) {
+            remoteBranchesByRemote.put(remote, Collections.unmodifiableList(remoteBranches.get(remote)));
+        }
+        return new RefSnapshot(Collections.unmodifiableMap(refs), Collections.unmodifiableList(localBranches),
+                Collections.unmodifiableMap(remoteBranchesByRemote), stamp);
+    }
+
+    public Optional<Ref> getRef(String name) {
+        return Optional.ofNullable(refs.get(name));
+    }
+
+    public boolean hasLocalBranch(String branchName) {
+        return refs.containsKey(Constants.R_HEADS + branchName);
+    }
+
+    public boolean hasRemoteBranch(String remote, String branchName) {
+        return refs.containsKey(Constants.R_REMOTES + remote + "/" + branchName);
+    }
+
+    /**
+     * Finds a remote that has the given branch, preferring {@code origin}.
+     *
+     * @param branchName Name of the branch, without remote prefix
+     * @return The name of the remote, if any remote has the branch
+     */
+    public Optional<String> findRemote(String branchName) {
+        if (hasRemoteBranch(DEFAULT_REMOTE, branchName)) {
+            return Optional.of(DEFAULT_REMOTE);
+        }
+        return remoteBranchesByRemote.keySet().stream()
+                .filter(remote -> hasRemoteBranch(remote, branchName))
+                .findFirst();
+    }
+
+    public List<String> getLocalBranches() {
+        return localBranches;
+    }
+
+    /**
+     * Returns the remote branches, named after the branch alone for {@code origin} and prefixed
+     * with the remote name for the other remotes.
+     *
+     * @return The remote branches
+     */
+    public List<String> getRemoteBranches() {
+        return remoteBranches;
+    }
+
+    public Map<String, List<String>> getRemoteBranchesByRemote() {
+        return remoteBranchesByRemote;
+    }
+
+    public Set<String> getRemotes() {
+        return remoteBranchesByRemote.keySet();
+    }
+
+    RepositoryStamp getStamp() {
+        return stamp;
+    }
+
+    long getReadAt() {
+        return readAt;
+    }
+
+    private static String remoteOf(String name, List<String> remoteNames) {
+        for (String remote : remoteNames) {
+            if (name.startsWith(remote + "/")) {
+                return remote;
+            }
+        }
+        int separator = name.indexOf('/');
+        return separator > 0 ? name.substring(0, separator) : name;
+    }
+
+    private static List<String> flatten(Map<String, List<String>> remoteBranchesByRemote) {
+        List<String> branches = new ArrayList<>();
+        remoteBranchesByRemote.forEach((remote, names) -> {
+            if (DEFAULT_REMOTE.equals(remote)) {
+                branches.addAll(names);
+            } else {
+                names.forEach(name -> branches.add(remote + "/" + name));
+            }
+        });
+        return Collections.unmodifiableList(branches);
+    }
+}
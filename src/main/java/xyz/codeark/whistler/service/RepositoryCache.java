@@ -0,0 +1,340 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.lib.Repository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of open JGit repositories keyed by canonical path.
+ * <p>
+ * Handles are reference counted: an entry is only closed by eviction or shutdown once every
+ * {@link Handle} obtained through {@link #open(String)} has been closed again.
+ * <p>
+ * Each entry also keeps a {@link RefSnapshot} of the repository. It is dropped when JGit reports
+ * a ref change, when the shallow {@link RepositoryStamp} of the repository moves, when it gets
+ * older than {@code whistler.git.refs.max-age} or through {@link #invalidateRefs(String)}.
+ */
+@Slf4j
+@Component
+public class RepositoryCache {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final GitMetrics gitMetrics;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long refsMaxAgeMillis;
+    private final ScheduledExecutorService evictor;
+
+    public RepositoryCache(GitMetrics gitMetrics,
+                           @Value("${whistler.git.cache.max-size:256}") int maxSize,
+                           @Value("${whistler.git.cache.idle-timeout:300000}") long idleTimeoutMillis,
+                           @Value("${whistler.git.refs.max-age:5000}") long refsMaxAgeMillis) {
+        this.gitMetrics = gitMetrics;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.refsMaxAgeMillis = refsMaxAgeMillis;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("whistler-repository-evictor"));
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a handle on the repository located at the given path, opening it if needed.
+     * The handle must be closed once the caller is done with it.
+     *
+     * @param path Path of the git repository
+     * @return An open handle on the repository
+     * @throws IOException If the repository cannot be opened
+     */
+    public Handle open(String path) throws IOException {
+        String key = canonicalPath(path);
+        while (true) {
+            Entry entry = entries.computeIfAbsent(key, Entry::new);
+            if (!entry.retain()) {
+                // Lost a race with eviction, the entry is already gone from the map
+                continue;
+            }
+            try {
+                entry.ensureOpen(gitMetrics);
+            } catch (IOException | RuntimeException e) {
+                // Another thread may have retained the entry meanwhile, the last one drops it
+                entry.evictWhenReleased();
+                if (entry.release()) {
+                    evict(entry);
+                }
+                throw e;
+            }
+            if (entries.size() > maxSize) {
+                evictLeastRecentlyUsed();
+            }
+            return new Handle(entry);
+        }
+    }
+
+    /**
+     * Closes the cached repository for the given path once it is no longer in use.
+     *
+     * @param path Path of the git repository
+     */
+    public void invalidate(String path) {
+        try {
+            Entry entry = entries.get(canonicalPath(path));
+            if (entry != null) {
+                entry.evictWhenReleased();
+                if (entry.tryClose()) {
+                    entries.remove(entry.key, entry);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not resolve the repository path={} for invalidation", path, e);
+        }
+    }
+
+    /**
+     * Drops the ref snapshot of the cached repository for the given path, if any.
+     *
+     * @param path Path of the git repository
+     */
+    public void invalidateRefs(String path) {
+        try {
+            Entry entry = entries.get(canonicalPath(path));
+            if (entry != null) {
+                entry.refSnapshot = null;
+            }
+        } catch (IOException e) {
+            log.warn("Could not resolve the repository path={} for invalidation", path, e);
+        }
+    }
+
+    /**
+     * Tells whether no handle on the repository is open and the repository has not been used for
+     * the given time. Repositories that are not cached are idle.
+     *
+     * @param path       Path of the git repository
+     * @param idleMillis Time the repository must not have been used for
+     * @return True if the repository is idle
+     * @throws IOException If the path cannot be resolved
+     */
+    public boolean isIdle(String path, long idleMillis) throws IOException {
+        Entry entry = entries.get(canonicalPath(path));
+        return entry == null || entry.isIdleSince(System.currentTimeMillis() - idleMillis);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @PreDestroy
+    public void close() {
+        evictor.shutdownNow();
+        entries.values().forEach(Entry::forceClose);
+        entries.clear();
+        log.info("Closed all cached git repositories");
+    }
+
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMillis;
+        entries.values().stream()
+                .filter(entry -> entry.lastAccess < deadline)
+                .forEach(this::evict);
+    }
+
+    /**
+     * Evicts the least recently used entry that is not in use. Each open adds at most one entry
+     * and each last handle closed frees at most one, so a single eviction keeps up with both
+     * without sorting the whole cache.
+     */
+    private void evictLeastRecentlyUsed() {
+        Entry candidate = null;
+        for (Entry entry : entries.values()) {
+            if (entry.isUnused() && (candidate == null || entry.lastAccess < candidate.lastAccess)) {
+                candidate = entry;
+            }
+        }
+        if (candidate != null) {
+            evict(candidate);
+        }
+    }
+
+    private void evict(Entry entry) {
+        if (entry.tryClose()) {
+            entries.remove(entry.key, entry);
+            log.debug("Evicted cached git repository={}", entry.key);
+        }
+    }
+
+    private static String canonicalPath(String path) throws IOException {
+        return new File(path).getCanonicalPath();
+    }
+
+    private static final class Entry {
+        private final String key;
+        private Git git;
+        private ListenerHandle refsListener;
+        private volatile RefSnapshot refSnapshot;
+        private int references;
+        private boolean closed;
+        private boolean evictWhenReleased;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        private synchronized boolean retain() {
+            if (closed) {
+                return false;
+            }
+            references++;
+            lastAccess = System.currentTimeMillis();
+            return true;
+        }
+
+        private synchronized void ensureOpen(GitMetrics gitMetrics) throws IOException {
+            if (git == null) {
+                long start = gitMetrics.start("open");
+                boolean success = false;
+                try {
+                    git = Git.open(new File(key));
+                    success = true;
+                } finally {
+                    gitMetrics.record("open", key, start, success);
+                }
+                refsListener = git.getRepository().getListenerList().addRefsChangedListener(event -> refSnapshot = null);
+            }
+        }
+
+        /**
+         * @return True if the last handle was released
+         */
+        private synchronized boolean release() {
+            references--;
+            lastAccess = System.currentTimeMillis();
+            return references == 0;
+        }
+
+        private synchronized boolean isUnused() {
+            return !closed && references == 0;
+        }
+
+        private synchronized boolean isShared() {
+            return references > 1;
+        }
+
+        private synchronized boolean isEvictWhenReleased() {
+            return evictWhenReleased;
+        }
+
+        private synchronized boolean isIdleSince(long time) {
+            return references == 0 && lastAccess <= time;
+        }
+
+        private synchronized void evictWhenReleased() {
+            evictWhenReleased = true;
+        }
+
+        private synchronized boolean tryClose() {
+            if (closed || references > 0) {
+                return false;
+            }
+            closed = true;
+            refSnapshot = null;
+            if (refsListener != null) {
+                refsListener.remove();
+            }
+            if (git != null) {
+                git.close();
+                git = null;
+            }
+            return true;
+        }
+
+        private synchronized void forceClose() {
+            if (references > 0) {
+                log.warn("Closing git repository={} with {} handles still in use", key, references);
+            }
+            references = 0;
+            tryClose();
+        }
+    }
+
+    /**
+     * Lease on a cached repository. Closing the handle releases the lease but keeps the
+     * repository open in the cache.
+     */
+    public final class Handle implements AutoCloseable {
+        private final Entry entry;
+        private boolean released;
+
+        private Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Git git() {
+            return entry.git;
+        }
+
+        public Repository repository() {
+            return entry.git.getRepository();
+        }
+
+        /**
+         * Tells whether other handles on the repository are open besides this one.
+         */
+        public boolean isShared() {
+            return entry.isShared();
+        }
+
+        /**
+         * Returns the ref snapshot of the repository, reading it again if it may be stale.
+         *
+         * @return The ref snapshot
+         * @throws IOException If the refs cannot be read
+         */
+        public RefSnapshot refs() throws IOException {
+            RefSnapshot snapshot = entry.refSnapshot;
+            if (snapshot != null
+                    && System.currentTimeMillis() - snapshot.getReadAt() < refsMaxAgeMillis
+                    && snapshot.getStamp().equals(RepositoryStamp.shallow(repository().getDirectory().toPath()))) {
+                return snapshot;
+            }
+            long start = gitMetrics.start("refs");
+            boolean success = false;
+            try {
+                snapshot = RefSnapshot.read(repository());
+                success = true;
+            } finally {
+                gitMetrics.record("refs", entry.key, start, success);
+            }
+            entry.refSnapshot = snapshot;
+            return snapshot;
+        }
+
+        @Override
+        public void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (entry.release()) {
+                if (entry.isEvictWhenReleased()) {
+                    evict(entry);
+                } else if (entries.size() > maxSize) {
+                    // The entries in use were skipped when the cache grew past its size
+                    evictLeastRecentlyUsed();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,582 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Long-lived, in-memory index of the directories discovered below registered roots.
+ * <p>
+ * A root is registered by the first discovery request for it. From then on the index is kept
+ * up to date by a {@link WatchService}: directories are reclassified when a {@code .git} or
+ * {@code build.gradle} appears or disappears, and a repository's branches are reloaded when its
+ * {@code HEAD} or refs change. When file watching is disabled or unavailable, the root is
+ * rescanned periodically instead and only repositories whose {@link RepositoryStamp} changed
+ * are reloaded.
+ * <p>
+ * Indexed roots are persisted through the {@link RepositorySnapshotStore}. On startup they are
+ * served from their snapshot right away while a background rescan revalidates them.
+ */
+@Slf4j
+@Component
+public class RepositoryIndex {
+    private final GitService gitService;
+    private final DirectoryWalker directoryWalker;
+    private final RepositoryCache repositoryCache;
+    private final RepositorySnapshotStore snapshotStore;
+    private final boolean watchEnabled;
+    private final long pollIntervalMillis;
+    private final long debounceMillis;
+    private final long snapshotIntervalMillis;
+    private final Map<Path, IndexedRoot> roots = new ConcurrentHashMap<>();
+    private final Map<Path, CompletableFuture<IndexedRoot>> registrations = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("whistler-index-poller"));
+    private final NamedThreadFactory watcherThreadFactory = new NamedThreadFactory("whistler-index-watcher");
+
+    public RepositoryIndex(GitService gitService,
+                           DirectoryWalker directoryWalker,
+                           RepositoryCache repositoryCache,
+                           RepositorySnapshotStore snapshotStore,
+                           @Value("${whistler.index.watch:true}") boolean watchEnabled,
+                           @Value("${whistler.index.poll-interval:30000}") long pollIntervalMillis,
+                           @Value("${whistler.index.debounce:200}") long debounceMillis,
+                           @Value("${whistler.snapshot.save-interval:60000}") long snapshotIntervalMillis) {
+        this.gitService = gitService;
+        this.directoryWalker = directoryWalker;
+        this.repositoryCache = repositoryCache;
+        this.snapshotStore = snapshotStore;
+        this.watchEnabled = watchEnabled;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.debounceMillis = debounceMillis;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    /**
+     * Restores the roots saved in the snapshots. They are served as saved until the background
+     * rescan has reloaded the repositories whose stamp changed while the service was down.
+     */
+    @PostConstruct
+    public void restore() {
+        for (RepositorySnapshotStore.Snapshot snapshot : snapshotStore.loadAll()) {
+            IndexedRoot indexedRoot = new IndexedRoot(snapshot.getRoot(), snapshot.getMaxDepth());
+            snapshot.getEntries().forEach(entry -> indexedRoot.entries.put(Paths.get(entry.directory.getPath()), entry));
+            roots.put(indexedRoot.root, indexedRoot);
+            poller.execute(() -> {
+                indexedRoot.start();
+                indexedRoot.rescan(indexedRoot.root);
+            });
+            log.info("Restored {} directories below {} from the snapshot", indexedRoot.entries.size(), indexedRoot.root);
+        }
+        if (snapshotStore.isEnabled()) {
+            poller.scheduleWithFixedDelay(this::saveSnapshots, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the directories below the root directory, registering the root on first use.
+     *
+     * @param rootDirectory Root directory of the discovery
+     * @param maxDepth      Maximum depth of the returned directories
+     * @return Copies of the indexed directories, in path order
+     */
+    public List<Directory> getDirectories(String rootDirectory, int maxDepth) {
+        Path root = normalize(rootDirectory);
+        IndexedRoot indexedRoot = roots.get(root);
+        if (indexedRoot == null || indexedRoot.maxDepth < maxDepth) {
+            indexedRoot = register(root, maxDepth);
+        }
+        return indexedRoot.directories(maxDepth);
+    }
+
+    /**
+     * Looks up an indexed directory by path in every registered root.
+     *
+     * @param path Path of the directory
+     * @return A copy of the indexed directory, if any
+     */
+    public Optional<Directory> find(String path) {
+        Path normalized = normalize(path);
+        return roots.values().stream()
+                .map(indexedRoot -> indexedRoot.entries.get(normalized))
+                .filter(Objects::nonNull)
+                .map(entry -> snapshotOf(entry.directory))
+                .findFirst();
+    }
+
+    public void unregister(String rootDirectory) {
+        IndexedRoot indexedRoot = roots.remove(normalize(rootDirectory));
+        if (indexedRoot != null) {
+            indexedRoot.close();
+            snapshotStore.delete(indexedRoot.root);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        poller.shutdownNow();
+        saveSnapshots();
+        roots.values().forEach(IndexedRoot::close);
+        roots.clear();
+    }
+
+    /**
+     * Discovers and indexes a root. Concurrent requests for the same root wait for a single
+     * discovery, the other roots stay available meanwhile.
+     */
+    private IndexedRoot register(Path root, int maxDepth) {
+        while (true) {
+            CompletableFuture<IndexedRoot> registration = new CompletableFuture<>();
+            CompletableFuture<IndexedRoot> running = registrations.putIfAbsent(root, registration);
+            if (running != null) {
+                IndexedRoot registered = await(running);
+                if (registered.maxDepth >= maxDepth) {
+                    return registered;
+                }
+                // Registered shallower than needed, discover it again
+                continue;
+            }
+            IndexedRoot indexedRoot;
+            try {
+                indexedRoot = discover(root, maxDepth);
+            } catch (RuntimeException e) {
+                registrations.remove(root, registration);
+                registration.completeExceptionally(e);
+                throw e;
+            }
+            registrations.remove(root, registration);
+            registration.complete(indexedRoot);
+            return indexedRoot;
+        }
+    }
+
+    private IndexedRoot discover(Path root, int maxDepth) {
+        IndexedRoot existing = roots.get(root);
+        if (existing != null && existing.maxDepth >= maxDepth) {
+            return existing;
+        }
+        IndexedRoot indexedRoot = new IndexedRoot(root, maxDepth);
+        indexedRoot.build(gitService.discoverRepositories(root.toString(), maxDepth));
+        indexedRoot.start();
+        roots.put(root, indexedRoot);
+        if (existing != null) {
+            existing.close();
+        }
+        indexedRoot.saveSnapshot();
+        log.info("Indexed {} directories below {}", indexedRoot.entries.size(), root);
+        return indexedRoot;
+    }
+
+    private static IndexedRoot await(CompletableFuture<IndexedRoot> registration) {
+        try {
+            return registration.join();
+        } catch (CompletionException e) {
+            // The discovery failed in the thread that ran it, fail the same way
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void saveSnapshots() {
+        roots.values().stream()
+                .filter(indexedRoot -> indexedRoot.modified)
+                .forEach(IndexedRoot::saveSnapshot);
+    }
+
+    private static Path normalize(String path) {
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    private static Directory copyOf(Directory directory) {
+        Directory copy = new Directory();
+        copy.setPath(directory.getPath());
+        copy.setName(directory.getName());
+        copy.setIsGitRepository(directory.getIsGitRepository());
+        copy.setIsGradleProject(directory.getIsGradleProject());
+        copy.setIsMavenProject(directory.getIsMavenProject());
+        return copy;
+    }
+
+    /**
+     * Copies an indexed directory for a caller, which may modify it. The branch lists are shared,
+     * they are replaced rather than modified.
+     */
+    private static Directory snapshotOf(Directory directory) {
+        Directory copy = copyOf(directory);
+        copyGitMetadata(directory, copy);
+        return copy;
+    }
+
+    private static void copyGitMetadata(Directory from, Directory to) {
+        to.setBranchName(from.getBranchName());
+        to.setLocalBranches(from.getLocalBranches());
+        to.setRemoteBranches(from.getRemoteBranches());
+    }
+
+    private static boolean isGitRepository(Directory directory) {
+        return Boolean.TRUE.equals(directory.getIsGitRepository());
+    }
+
+    /**
+     * Indexed directory. Entries are replaced rather than mutated, and their {@link Directory} is
+     * never handed out, so readers always see a consistent one.
+     */
+    static final class Entry {
+        final Directory directory;
+        final int depth;
+        final RepositoryStamp stamp;
+
+        Entry(Directory directory, int depth, RepositoryStamp stamp) {
+            this.directory = directory;
+            this.depth = depth;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Watched directory. {@code repository} is set when the directory belongs to the git
+     * directory of that repository.
+     */
+    private static final class Watched {
+        private final Path path;
+        private final Path repository;
+
+        private Watched(Path path, Path repository) {
+            this.path = path;
+            this.repository = repository;
+        }
+    }
+
+    private final class IndexedRoot {
+        private final Path root;
+        private final int maxDepth;
+        private final ConcurrentSkipListMap<Path, Entry> entries = new ConcurrentSkipListMap<>();
+        private final Map<WatchKey, Watched> watchKeys = new ConcurrentHashMap<>();
+        private final Map<Path, WatchKey> watchedPaths = new ConcurrentHashMap<>();
+        private WatchService watchService;
+        private ScheduledFuture<?> pollTask;
+        private volatile boolean closed;
+        private volatile boolean modified;
+
+        private IndexedRoot(Path root, int maxDepth) {
+            this.root = root;
+            this.maxDepth = maxDepth;
+        }
+
+        private List<Directory> directories(int depth) {
+            return entries.values().stream()
+                    .filter(entry -> entry.depth <= depth)
+                    .map(entry -> snapshotOf(entry.directory))
+                    .collect(Collectors.toList());
+        }
+
+        private void build(List<Directory> directories) {
+            for (Directory directory : directories) {
+                Path path = Paths.get(directory.getPath());
+                RepositoryStamp stamp = isGitRepository(directory) ? RepositoryStamp.of(path) : null;
+                entries.put(path, new Entry(directory, depthOf(path), stamp));
+            }
+        }
+
+        private void start() {
+            if (watchEnabled) {
+                try {
+                    watchService = root.getFileSystem().newWatchService();
+                    for (Entry entry : entries.values()) {
+                        watch(entry);
+                    }
+                    Thread watcher = watcherThreadFactory.newThread(this::watchLoop);
+                    watcher.start();
+                    return;
+                } catch (IOException | UncheckedIOException | UnsupportedOperationException e) {
+                    log.warn("Could not watch {}, falling back to polling every {} ms", root, pollIntervalMillis, e);
+                    closeWatchService();
+                    watchService = null;
+                }
+            }
+            startPolling();
+        }
+
+        private synchronized void startPolling() {
+            if (pollTask == null && !closed) {
+                pollTask = poller.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized void close() {
+            closed = true;
+            if (pollTask != null) {
+                pollTask.cancel(false);
+            }
+            closeWatchService();
+        }
+
+        private void closeWatchService() {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    log.warn("Could not close the watch service of {}", root, e);
+                }
+            }
+        }
+
+        private void saveSnapshot() {
+            modified = false;
+            snapshotStore.save(root, maxDepth, entries.values());
+        }
+
+        private void poll() {
+            try {
+                rescan(root);
+            } catch (RuntimeException e) {
+                log.error("Polling {} failed", root, e);
+            }
+        }
+
+        private void watchLoop() {
+            while (!closed) {
+                Set<Path> dirtyDirectories = new HashSet<>();
+                Set<Path> dirtyRepositories = new HashSet<>();
+                try {
+                    WatchKey key = watchService.take();
+                    boolean overflow = false;
+                    // Drain the events that follow closely to reload each repository only once
+                    while (key != null) {
+                        overflow |= collect(key, dirtyDirectories, dirtyRepositories);
+                        key.reset();
+                        key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    }
+                    if (overflow) {
+                        rescan(root);
+                    } else {
+                        dirtyDirectories.forEach(this::rescan);
+                        reload(dirtyRepositories);
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                } catch (UncheckedIOException e) {
+                    // Typically the inotify watch limit, keep the existing watches and poll for the rest
+                    log.warn("Could not watch a new directory below {}, polling every {} ms as well", root, pollIntervalMillis, e);
+                    startPolling();
+                } catch (RuntimeException e) {
+                    log.error("Could not apply the file system changes below {}", root, e);
+                }
+            }
+        }
+
+        /**
+         * Sorts the events of a watch key into directories to reclassify and repositories to
+         * reload.
+         *
+         * @return true if events were lost and the whole root must be rescanned
+         */
+        private boolean collect(WatchKey key, Set<Path> dirtyDirectories, Set<Path> dirtyRepositories) {
+            Watched watched = watchKeys.get(key);
+            boolean overflow = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflow = true;
+                    continue;
+                }
+                if (watched == null) {
+                    continue;
+                }
+                String name = event.context().toString();
+                Path child = watched.path.resolve(name);
+                if (watched.repository != null) {
+                    if (!name.endsWith(".lock")) {
+                        dirtyRepositories.add(watched.repository);
+                        if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            watchTree(child, watched.repository);
+                        }
+                    }
+                } else if (DirectoryWalker.GIT_DIRECTORY.equals(name) || DirectoryWalker.GRADLE_FILE.equals(name)
+                        || DirectoryWalker.MAVEN_FILE.equals(name)) {
+                    dirtyDirectories.add(watched.path);
+                } else if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    dirtyDirectories.add(child);
+                } else if (event.kind() == ENTRY_DELETE && entries.containsKey(child)) {
+                    dirtyDirectories.add(child);
+                }
+            }
+            return overflow;
+        }
+
+        /**
+         * Reclassifies a directory and its subtree, reusing the git metadata of repositories
+         * whose stamp did not change.
+         */
+        private synchronized void rescan(Path directory) {
+            int depth = depthOf(directory);
+            if (depth > maxDepth) {
+                return;
+            }
+            List<Directory> found;
+            try {
+                found = Files.isDirectory(directory)
+                        ? directoryWalker.walk(directory, maxDepth - depth, discovered -> {
+                        })
+                        : List.of();
+            } catch (IOException e) {
+                log.warn("Could not rescan the directory={}", directory, e);
+                found = List.of();
+            }
+
+            Map<Path, Entry> updated = new HashMap<>();
+            List<Directory> toLoad = new ArrayList<>();
+            for (Directory discovered : found) {
+                Path path = Paths.get(discovered.getPath());
+                RepositoryStamp stamp = null;
+                if (isGitRepository(discovered)) {
+                    stamp = RepositoryStamp.of(path);
+                    Entry previous = entries.get(path);
+                    if (previous != null && stamp.equals(previous.stamp)) {
+                        copyGitMetadata(previous.directory, discovered);
+                    } else {
+                        repositoryCache.invalidateRefs(discovered.getPath());
+                        toLoad.add(discovered);
+                    }
+                }
+                updated.put(path, new Entry(discovered, depthOf(path), stamp));
+            }
+            gitService.loadGitMetadata(toLoad);
+
+            List<Path> removed = entries.keySet().stream()
+                    .filter(path -> path.startsWith(directory) && !updated.containsKey(path))
+                    .collect(Collectors.toList());
+            removed.forEach(this::remove);
+            updated.forEach((path, entry) -> {
+                entries.put(path, entry);
+                watch(entry);
+            });
+            if (!toLoad.isEmpty() || !removed.isEmpty()) {
+                modified = true;
+                log.info("Reindexed {}: {} repositories reloaded, {} directories removed", directory, toLoad.size(), removed.size());
+            }
+        }
+
+        private synchronized void reload(Set<Path> repositories) {
+            List<Entry> reloaded = new ArrayList<>();
+            for (Path repository : repositories) {
+                Entry entry = entries.get(repository);
+                if (entry == null || !isGitRepository(entry.directory)) {
+                    continue;
+                }
+                RepositoryStamp stamp = RepositoryStamp.of(repository);
+                if (!stamp.equals(entry.stamp)) {
+                    repositoryCache.invalidateRefs(repository.toString());
+                    reloaded.add(new Entry(copyOf(entry.directory), entry.depth, stamp));
+                }
+            }
+            gitService.loadGitMetadata(reloaded.stream().map(entry -> entry.directory).collect(Collectors.toList()));
+            for (Entry entry : reloaded) {
+                modified = true;
+                entries.put(Paths.get(entry.directory.getPath()), entry);
+                log.debug("Reloaded the branches of repository={}", entry.directory.getName());
+            }
+        }
+
+        private void remove(Path path) {
+            Entry entry = entries.remove(path);
+            if (entry != null && isGitRepository(entry.directory)) {
+                repositoryCache.invalidate(path.toString());
+            }
+            watchedPaths.keySet().removeIf(watchedPath -> {
+                if (!watchedPath.startsWith(path)) {
+                    return false;
+                }
+                WatchKey key = watchedPaths.get(watchedPath);
+                if (key != null) {
+                    key.cancel();
+                    watchKeys.remove(key);
+                }
+                return true;
+            });
+        }
+
+        private void watch(Entry entry) {
+            if (watchService == null) {
+                return;
+            }
+            Path path = Paths.get(entry.directory.getPath());
+            register(path, null, ENTRY_CREATE, ENTRY_DELETE);
+            if (isGitRepository(entry.directory)) {
+                Path gitDirectory = RepositoryStamp.gitDirectory(path);
+                if (Files.isDirectory(gitDirectory)) {
+                    register(gitDirectory, path, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    watchTree(gitDirectory.resolve("refs/heads"), path);
+                    watchTree(gitDirectory.resolve("refs/remotes"), path);
+                }
+            }
+        }
+
+        private void watchTree(Path directory, Path repository) {
+            if (!Files.isDirectory(directory)) {
+                return;
+            }
+            try (Stream<Path> directories = Files.walk(directory)) {
+                directories.filter(Files::isDirectory)
+                        .forEach(refDirectory -> register(refDirectory, repository, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+            } catch (IOException e) {
+                log.warn("Could not watch the refs in {}", directory, e);
+            }
+        }
+
+        @SafeVarargs
+        private void register(Path directory, Path repository, WatchEvent.Kind<Path>... kinds) {
+            try {
+                WatchKey key = directory.register(watchService, kinds);
+                watchKeys.put(key, new Watched(directory, repository));
+                watchedPaths.put(directory, key);
+            } catch (ClosedWatchServiceException e) {
+                // The root is being closed
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private int depthOf(Path path) {
+            return path.equals(root) ? 0 : root.relativize(path).getNameCount();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package xyz.codeark.whistler.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks serializing the mutating operations on a repository. Locks are picked by the
+ * canonical path of the repository, so two operations on the same repository always share a
+ * lock, while operations on different repositories only contend when their paths share a stripe.
+ */
+@Component
+public class RepositoryLocks {
+    private final Lock[] stripes;
+
+    public RepositoryLocks(@Value("${whistler.git.lock-stripes:64}") int stripes) {
+        this.stripes = new Lock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the lock guarding the repository at the given path. The lock is reentrant, so an
+     * operation may call other locked operations on the same repository.
+     *
+     * @param path Path of the git repository
+     * @return The lock of the repository
+     */
+    public Lock forRepository(String path) {
+        return stripes[Math.floorMod(canonicalPath(path).hashCode(), stripes.length)];
+    }
+
+    private static String canonicalPath(String path) {
+        File file = new File(path);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+}
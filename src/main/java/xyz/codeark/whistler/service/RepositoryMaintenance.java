@@ -0,0 +1,355 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.GarbageCollectCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.MaintenanceResult;
+import xyz.codeark.whistler.dto.RepositoryHealth;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Packs the objects and refs of the tracked repositories once they degrade, so that ref listings
+ * and commit walks stay fast after months of fetches and rebases.
+ * <p>
+ * Every {@code whistler.maintenance.interval} the tracked repositories are inspected from the
+ * file system: a repository is degraded when its estimated number of loose objects, its number of
+ * packs or its number of loose refs exceeds the configured maximum. A degraded repository is
+ * garbage collected with JGit, which repacks its objects and packs its refs, once it has not been
+ * used for {@code whistler.maintenance.idle-time} and, when {@code whistler.maintenance.window}
+ * is set, e.g. {@code 01:00-05:00}, only within that time of day. At most
+ * {@code whistler.maintenance.threads} repositories are maintained at once. A repository with
+ * another open handle, a leased worktree or a running git operation is skipped, and git
+ * operations wait for a running maintenance through the repository lock. A repository with linked worktrees is never
+ * maintained: JGit does not count their {@code HEAD} and index as reachable, so it could prune
+ * the commits they have checked out.
+ * <p>
+ * The object and ref counts, and the time taken to list the refs and to walk the history of
+ * {@code HEAD}, are recorded before and after each maintenance. JGit does not read or write
+ * commit-graph files, so none are written.
+ */
+@Slf4j
+@Component
+public class RepositoryMaintenance {
+    /**
+     * Loose objects are estimated from one of the 256 object directories, as {@code git gc --auto} does
+     */
+    private static final String SAMPLE_OBJECT_DIRECTORY = "17";
+    private static final int OBJECT_DIRECTORIES = 256;
+    private static final String WORKTREES_DIRECTORY = "worktrees";
+
+    private final RepositoryCache repositoryCache;
+    private final RepositoryLocks repositoryLocks;
+    private final WorktreePool worktreePool;
+    private final GitMetrics gitMetrics;
+    private final long idleMillis;
+    private final LocalTime windowStart;
+    private final LocalTime windowEnd;
+    private final int maxLooseObjects;
+    private final int maxPacks;
+    private final int maxLooseRefs;
+    private final int walkLimit;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Directory> repositories = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<MaintenanceResult>> running = new ConcurrentHashMap<>();
+    private final Map<String, MaintenanceResult> results = new ConcurrentHashMap<>();
+
+    public RepositoryMaintenance(RepositoryCache repositoryCache,
+                                 RepositoryLocks repositoryLocks,
+                                 WorktreePool worktreePool,
+                                 GitMetrics gitMetrics,
+                                 @Value("${whistler.maintenance.interval:3600000}") long intervalMillis,
+                                 @Value("${whistler.maintenance.idle-time:600000}") long idleMillis,
+                                 @Value("${whistler.maintenance.window:}") String window,
+                                 @Value("${whistler.maintenance.threads:1}") int threads,
+                                 @Value("${whistler.maintenance.max-loose-objects:6700}") int maxLooseObjects,
+                                 @Value("${whistler.maintenance.max-packs:50}") int maxPacks,
+                                 @Value("${whistler.maintenance.max-loose-refs:1000}") int maxLooseRefs,
+                                 @Value("${whistler.maintenance.walk-limit:10000}") int walkLimit) {
+        this.repositoryCache = repositoryCache;
+        this.repositoryLocks = repositoryLocks;
+        this.worktreePool = worktreePool;
+        this.gitMetrics = gitMetrics;
+        this.idleMillis = idleMillis;
+        if (window.isBlank()) {
+            this.windowStart = null;
+            this.windowEnd = null;
+        } else {
+            String[] bounds = window.split("-");
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("whistler.maintenance.window must look like 01:00-05:00, was " + window);
+            }
+            this.windowStart = LocalTime.parse(bounds[0].trim());
+            this.windowEnd = LocalTime.parse(bounds[1].trim());
+        }
+        this.maxLooseObjects = maxLooseObjects;
+        this.maxPacks = maxPacks;
+        this.maxLooseRefs = maxLooseRefs;
+        this.walkLimit = walkLimit;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory("whistler-maintenance"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("whistler-maintenance-scheduler"));
+        if (intervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::maintainDue, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds the repository to the ones inspected for maintenance.
+     *
+     * @param directory Git repository to maintain when it degrades
+     */
+    public void track(Directory directory) {
+        repositories.putIfAbsent(key(directory), directory);
+    }
+
+    public void untrack(Directory directory) {
+        repositories.remove(key(directory));
+    }
+
+    /**
+     * Maintains the repository now, whether it is degraded or not, unless it is in use. A
+     * maintenance requested while another maintenance of the same repository is queued or running
+     * joins that one.
+     *
+     * @param directory Git repository to maintain
+     * @return The result of the maintenance, which is skipped if the repository is in use
+     */
+    public CompletableFuture<MaintenanceResult> maintain(Directory directory) {
+        String key = key(directory);
+        CompletableFuture<MaintenanceResult> future = new CompletableFuture<>();
+        CompletableFuture<MaintenanceResult> existing = running.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    MaintenanceResult result = run(directory);
+                    running.remove(key, future);
+                    future.complete(result);
+                } catch (RuntimeException e) {
+                    running.remove(key, future);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Last maintenance result of each repository, most recent first.
+     */
+    public List<MaintenanceResult> getResults() {
+        return results.values().stream()
+                .sorted(Comparator.comparingLong(MaintenanceResult::getStartedAt).reversed())
+                .collect(Collectors.toList());
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void maintainDue() {
+        if (!isInWindow(LocalTime.now())) {
+            return;
+        }
+        for (Directory directory : repositories.values()) {
+            if (running.containsKey(key(directory))) {
+                continue;
+            }
+            try {
+                if (repositoryCache.isIdle(directory.getPath(), idleMillis) && isDegraded(gitDirectory(directory))) {
+                    maintain(directory);
+                }
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Could not inspect the repository={} for maintenance", directory.getName(), e);
+            }
+        }
+    }
+
+    boolean isInWindow(LocalTime time) {
+        if (windowStart == null) {
+            return true;
+        }
+        if (!windowStart.isAfter(windowEnd)) {
+            return !time.isBefore(windowStart) && time.isBefore(windowEnd);
+        }
+        // The window spans midnight
+        return !time.isBefore(windowStart) || time.isBefore(windowEnd);
+    }
+
+    /**
+     * Inspects the object and ref directories without opening the repository, which would mark
+     * it as used.
+     */
+    boolean isDegraded(Path gitDirectory) throws IOException {
+        Path objects = gitDirectory.resolve(Constants.OBJECTS);
+        Path sample = objects.resolve(SAMPLE_OBJECT_DIRECTORY);
+        if (Files.isDirectory(sample) && count(sample, path -> true) * OBJECT_DIRECTORIES > maxLooseObjects) {
+            return true;
+        }
+        Path packs = objects.resolve("pack");
+        if (Files.isDirectory(packs) && count(packs, path -> path.getFileName().toString().endsWith(".pack")) > maxPacks) {
+            return true;
+        }
+        Path refs = gitDirectory.resolve(Constants.R_REFS);
+        if (Files.isDirectory(refs)) {
+            try (Stream<Path> files = Files.walk(refs)) {
+                return files.filter(Files::isRegularFile).limit(maxLooseRefs + 1L).count() > maxLooseRefs;
+            }
+        }
+        return false;
+    }
+
+    private MaintenanceResult run(Directory directory) {
+        MaintenanceResult result = new MaintenanceResult();
+        result.setPath(directory.getPath());
+        result.setName(directory.getName());
+        result.setStartedAt(System.currentTimeMillis());
+        long start = System.nanoTime();
+
+        Lock lock = repositoryLocks.forRepository(directory.getPath());
+        if (!lock.tryLock()) {
+            return skipped(result, RestConstants.MAINTENANCE_REPOSITORY_IN_USE);
+        }
+        Long metricsStart = null;
+        boolean success = false;
+        // Readers that do not take the repository lock are only visible through their handles
+        try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath())) {
+            if (handle.isShared() || worktreePool.isLeased(directory)) {
+                return skipped(result, RestConstants.MAINTENANCE_REPOSITORY_IN_USE);
+            }
+            if (hasLinkedWorktrees(gitDirectory(directory))) {
+                return skipped(result, RestConstants.MAINTENANCE_REPOSITORY_HAS_WORKTREES);
+            }
+            metricsStart = gitMetrics.start("gc");
+            GarbageCollectCommand gc = handle.git().gc();
+            result.setBefore(health(handle.repository(), gc.getStatistics()));
+            gc.call();
+            repositoryCache.invalidateRefs(directory.getPath());
+            result.setAfter(health(handle.repository(), gc.getStatistics()));
+            result.setStatus(MaintenanceResult.Status.SUCCEEDED);
+            result.setMessage(RestConstants.MAINTENANCE_SUCCESS);
+            success = true;
+        } catch (GitAPIException | IOException e) {
+            failed(result, e);
+        } finally {
+            lock.unlock();
+            if (metricsStart != null) {
+                gitMetrics.record("gc", directory.getPath(), metricsStart, success);
+            }
+        }
+        result.setDurationMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        results.put(key(directory), result);
+        if (success) {
+            log.info("Maintained repository={} in {} ms, before={}, after={}", directory.getName(),
+                    result.getDurationMillis(), result.getBefore(), result.getAfter());
+        }
+        return result;
+    }
+
+    private MaintenanceResult skipped(MaintenanceResult result, String message) {
+        log.debug("Skipped the maintenance of repository={}: {}", result.getName(), message);
+        result.setStatus(MaintenanceResult.Status.SKIPPED);
+        result.setMessage(message);
+        return result;
+    }
+
+    private MaintenanceResult failed(MaintenanceResult result, Exception e) {
+        log.warn("Could not maintain the repository={}", result.getName(), e);
+        result.setStatus(MaintenanceResult.Status.FAILED);
+        result.setMessage(RestConstants.ERROR_WHILE_MAINTAINING_REPOSITORY);
+        return result;
+    }
+
+    private RepositoryHealth health(Repository repository, Properties statistics) throws IOException {
+        RepositoryHealth health = new RepositoryHealth();
+        health.setLooseObjects(statistic(statistics, "numberOfLooseObjects"));
+        health.setPacks(statistic(statistics, "numberOfPackFiles"));
+        health.setLooseRefs(statistic(statistics, "numberOfLooseRefs"));
+        health.setPackedRefs(statistic(statistics, "numberOfPackedRefs"));
+
+        long start = System.nanoTime();
+        repository.getRefDatabase().getRefs();
+        health.setRefsMicros(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head != null) {
+            start = System.nanoTime();
+            try (RevWalk walk = new RevWalk(repository)) {
+                walk.markStart(walk.parseCommit(head));
+                int commits = 0;
+                while (commits < walkLimit && walk.next() != null) {
+                    commits++;
+                }
+                health.setWalkedCommits(commits);
+            }
+            health.setWalkMicros(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+        return health;
+    }
+
+    private static long statistic(Properties statistics, String name) {
+        Object value = statistics.get(name);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static boolean hasLinkedWorktrees(Path gitDirectory) throws IOException {
+        Path worktrees = gitDirectory.resolve(WORKTREES_DIRECTORY);
+        return Files.isDirectory(worktrees) && count(worktrees, path -> true) > 0;
+    }
+
+    private static long count(Path directory, Predicate<Path> filter) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(filter).count();
+        }
+    }
+
+    private static Path gitDirectory(Directory directory) {
+        Path path = Paths.get(directory.getPath());
+        Path gitDirectory = path.resolve(DirectoryWalker.GIT_DIRECTORY);
+        return Files.isDirectory(gitDirectory) ? gitDirectory : path;
+    }
+
+    private static String key(Directory directory) {
+        return Paths.get(directory.getPath()).toAbsolutePath().normalize().toString();
+    }
+}
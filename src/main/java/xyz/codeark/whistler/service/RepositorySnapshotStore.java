@@ -0,0 +1,276 @@
+package xyz.codeark.whistler.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.Directory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persists the repository index to compact binary snapshot files, one per registered root, so
+ * that a restarted instance can serve the repository list before the first rescan completes.
+ * <p>
+ * Snapshots are written to a temporary file and moved into place, so a crash never leaves a
+ * truncated snapshot behind. A snapshot that cannot be read is ignored and the root is simply
+ * discovered again.
+ */
+@Slf4j
+@Component
+public class RepositorySnapshotStore {
+    private static final int MAGIC = 0x5748534E;
+    private static final int VERSION = 2;
+    private static final String EXTENSION = ".snapshot";
+
+    private static final int FLAG_GIT_REPOSITORY = 1;
+    private static final int FLAG_GRADLE_PROJECT = 1 << 1;
+    private static final int FLAG_STAMP = 1 << 2;
+    private static final int FLAG_MAVEN_PROJECT = 1 << 3;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final boolean memoryMapped;
+
+    public RepositorySnapshotStore(@Value("${whistler.snapshot.enabled:true}") boolean enabled,
+                                   @Value("${whistler.snapshot.directory:${user.home}/.whistler/snapshots}") String directory,
+                                   @Value("${whistler.snapshot.memory-mapped:false}") boolean memoryMapped) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.memoryMapped = memoryMapped;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Writes the snapshot of a root, replacing the previous one.
+     *
+     * @param root     Root directory of the index
+     * @param maxDepth Depth the root was indexed with
+     * @param entries  Indexed directories
+     */
+    void save(Path root, int maxDepth, Collection<RepositoryIndex.Entry> entries) {
+        if (!enabled) {
+            return;
+        }
+        Path target = directory.resolve(fileName(root));
+        Path temporary = directory.resolve(fileName(root) + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                writeString(output, root.toString());
+                output.writeInt(maxDepth);
+                output.writeInt(entries.size());
+                for (RepositoryIndex.Entry entry : entries) {
+                    writeEntry(output, entry);
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved the snapshot of {} with {} directories", root, entries.size());
+        } catch (IOException e) {
+            log.warn("Could not save the snapshot of {}", root, e);
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Nothing else to clean up
+            }
+        }
+    }
+
+    /**
+     * Reads every snapshot in the snapshot directory, skipping the unreadable ones.
+     *
+     * @return The snapshots found
+     */
+    List<Snapshot> loadAll() {
+        if (!enabled || !Files.isDirectory(directory)) {
+            return List.of();
+        }
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("Could not list the snapshots in {}", directory, e);
+            return List.of();
+        }
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Path file : files) {
+            try {
+                snapshots.add(read(file));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring the unreadable snapshot {}", file, e);
+            }
+        }
+        return snapshots;
+    }
+
+    void delete(Path root) {
+        try {
+            Files.deleteIfExists(directory.resolve(fileName(root)));
+        } catch (IOException e) {
+            log.warn("Could not delete the snapshot of {}", root, e);
+        }
+    }
+
+    private Snapshot read(Path file) throws IOException {
+        ByteBuffer buffer;
+        if (memoryMapped) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } else {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unsupported snapshot format");
+            }
+            Path root = Paths.get(readString(buffer));
+            int maxDepth = buffer.getInt();
+            int count = checkedSize(buffer, buffer.getInt());
+            List<RepositoryIndex.Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(readEntry(buffer));
+            }
+            return new Snapshot(root, maxDepth, entries);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot", e);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream output, RepositoryIndex.Entry entry) throws IOException {
+        Directory directory = entry.directory;
+        int flags = (Boolean.TRUE.equals(directory.getIsGitRepository()) ? FLAG_GIT_REPOSITORY : 0)
+                | (Boolean.TRUE.equals(directory.getIsGradleProject()) ? FLAG_GRADLE_PROJECT : 0)
+                | (entry.stamp != null ? FLAG_STAMP : 0)
+                | (Boolean.TRUE.equals(directory.getIsMavenProject()) ? FLAG_MAVEN_PROJECT : 0);
+        output.writeByte(flags);
+        output.writeShort(entry.depth);
+        writeString(output, directory.getPath());
+        writeString(output, directory.getName());
+        writeString(output, directory.getBranchName());
+        writeStrings(output, directory.getLocalBranches());
+        writeStrings(output, directory.getRemoteBranches());
+        if (entry.stamp != null) {
+            output.writeLong(entry.stamp.getHeadModified());
+            output.writeLong(entry.stamp.getPackedRefsModified());
+            output.writeLong(entry.stamp.getLooseRefsModified());
+        }
+    }
+
+    private static RepositoryIndex.Entry readEntry(ByteBuffer buffer) {
+        int flags = buffer.get();
+        int depth = buffer.getShort();
+        Directory directory = new Directory();
+        directory.setPath(readString(buffer));
+        directory.setName(readString(buffer));
+        directory.setBranchName(readString(buffer));
+        directory.setLocalBranches(readStrings(buffer));
+        directory.setRemoteBranches(readStrings(buffer));
+        if ((flags & FLAG_GIT_REPOSITORY) != 0) {
+            directory.setIsGitRepository(true);
+        }
+        if ((flags & FLAG_GRADLE_PROJECT) != 0) {
+            directory.setIsGradleProject(true);
+        }
+        if ((flags & FLAG_MAVEN_PROJECT) != 0) {
+            directory.setIsMavenProject(true);
+        }
+        RepositoryStamp stamp = (flags & FLAG_STAMP) != 0
+                ? new RepositoryStamp(buffer.getLong(), buffer.getLong(), buffer.getLong())
+                : null;
+        return new RepositoryIndex.Entry(directory, depth, stamp);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[checkedSize(buffer, length)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream output, List<String> values) throws IOException {
+        if (values == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(values.size());
+        for (String value : values) {
+            writeString(output, value);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(checkedSize(buffer, size));
+        for (int i = 0; i < size; i++) {
+            values.add(readString(buffer));
+        }
+        return values;
+    }
+
+    /**
+     * Rejects a size read from a corrupt snapshot before anything is allocated for it, every item
+     * taking at least one byte.
+     */
+    private static int checkedSize(ByteBuffer buffer, int size) {
+        if (size < 0 || size > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return size;
+    }
+
+    private static String fileName(Path root) {
+        return UUID.nameUUIDFromBytes(root.toString().getBytes(StandardCharsets.UTF_8)) + EXTENSION;
+    }
+
+    @Getter
+    static final class Snapshot {
+        private final Path root;
+        private final int maxDepth;
+        private final List<RepositoryIndex.Entry> entries;
+
+        private Snapshot(Path root, int maxDepth, List<RepositoryIndex.Entry> entries) {
+            this.root = root;
+            this.maxDepth = maxDepth;
+            this.entries = entries;
+        }
+    }
+}
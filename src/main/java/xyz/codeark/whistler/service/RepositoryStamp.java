@@ -0,0 +1,119 @@
+package xyz.codeark.whistler.service;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Cheap validation stamp of a git repository built from file modification times only.
+ * Two stamps of the same repository differ once its {@code HEAD} or any of its refs moved.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public final class RepositoryStamp {
+    private static final String GITDIR_PREFIX = "gitdir:";
+
+    private final long headModified;
+    private final long packedRefsModified;
+    private final long looseRefsModified;
+
+    /**
+     * Reads the stamp of the repository whose working tree is the given directory.
+     *
+     * @param repositoryDirectory Working tree of the git repository
+     * @return The current stamp, with zeroes for files that do not exist
+     */
+    public static RepositoryStamp of(Path repositoryDirectory) {
+        Path gitDirectory = gitDirectory(repositoryDirectory);
+        return new RepositoryStamp(
+                lastModified(gitDirectory.resolve("HEAD")),
+                lastModified(gitDirectory.resolve("packed-refs")),
+                Math.max(lastModifiedDirectory(gitDirectory.resolve("refs/heads")),
+                        lastModifiedDirectory(gitDirectory.resolve("refs/remotes"))));
+    }
+
+    /**
+     * Reads a cheaper stamp from a git directory, only looking at the ref directories of the
+     * first two levels ({@code refs/heads}, {@code refs/remotes} and {@code refs/remotes/<remote>}).
+     * Refs moving in deeper directories, e.g. {@code refs/heads/feature/x}, are not noticed.
+     *
+     * @param gitDirectory The git directory
+     * @return The current stamp, with zeroes for files that do not exist
+     */
+    static RepositoryStamp shallow(Path gitDirectory) {
+        long looseRefsModified = Math.max(lastModified(gitDirectory.resolve("refs/heads")),
+                lastModified(gitDirectory.resolve("refs/remotes")));
+        try (Stream<Path> remotes = Files.list(gitDirectory.resolve("refs/remotes"))) {
+            looseRefsModified = Math.max(looseRefsModified, remotes
+                    .mapToLong(RepositoryStamp::lastModified)
+                    .max()
+                    .orElse(0));
+        } catch (IOException e) {
+            // No remote refs
+        }
+        return new RepositoryStamp(
+                lastModified(gitDirectory.resolve("HEAD")),
+                lastModified(gitDirectory.resolve("packed-refs")),
+                looseRefsModified);
+    }
+
+    /**
+     * Resolves the git directory of a working tree, following {@code gitdir:} files used by
+     * submodules and linked worktrees.
+     *
+     * @param repositoryDirectory Working tree of the git repository
+     * @return The git directory
+     */
+    public static Path gitDirectory(Path repositoryDirectory) {
+        Path dotGit = repositoryDirectory.resolve(DirectoryWalker.GIT_DIRECTORY);
+        if (Files.isRegularFile(dotGit)) {
+            try {
+                List<String> lines = Files.readAllLines(dotGit, StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && lines.get(0).startsWith(GITDIR_PREFIX)) {
+                    return repositoryDirectory.resolve(lines.get(0).substring(GITDIR_PREFIX.length()).trim()).normalize();
+                }
+            } catch (IOException e) {
+                return dotGit;
+            }
+        }
+        return dotGit;
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Loose refs are written through a lock file that is renamed into place, which touches the
+     * directory holding the ref, so comparing directory times is enough to notice ref updates.
+     */
+    private static long lastModifiedDirectory(Path directory) {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        try (Stream<Path> directories = Files.walk(directory)) {
+            return directories
+                    .filter(Files::isDirectory)
+                    .mapToLong(RepositoryStamp::lastModified)
+                    .max()
+                    .orElse(0);
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+}
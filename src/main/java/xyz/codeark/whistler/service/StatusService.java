@@ -0,0 +1,181 @@
+package xyz.codeark.whistler.service;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.RevWalkUtils;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import xyz.codeark.whistler.dto.BranchStatus;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.util.NamedThreadFactory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Computes how far every local branch is ahead of and behind its upstream, for all the
+ * repositories of a workspace at once.
+ * <p>
+ * Each repository is walked with a single {@link RevWalk}, so commits parsed for one branch are
+ * reused by the next one. The counts are cached by the pair of commit ids they were computed
+ * for; commit ids are content addressed, so the cache is shared by all repositories and a branch
+ * that did not move since the last refresh costs a map lookup.
+ */
+@Slf4j
+@Service
+public class StatusService {
+    private final RepositoryIndex repositoryIndex;
+    private final RepositoryCache repositoryCache;
+    private final ExecutorService executor;
+    private final Map<CountsKey, Counts> counts;
+
+    public StatusService(RepositoryIndex repositoryIndex,
+                         RepositoryCache repositoryCache,
+                         @Value("${whistler.status.threads:8}") int threads,
+                         @Value("${whistler.status.cache-size:10000}") int cacheSize) {
+        this.repositoryIndex = repositoryIndex;
+        this.repositoryCache = repositoryCache;
+        this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("whistler-status"));
+        this.counts = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CountsKey, Counts> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * Computes the status of every local branch of every git repository below the root directory.
+     *
+     * @param rootDirectory Root directory of the workspace
+     * @param maxDepth      Maximum depth of the repositories
+     * @return The status of the branches, grouped by repository
+     */
+    public List<BranchStatus> getWorkspaceStatus(String rootDirectory, int maxDepth) {
+        List<CompletableFuture<List<BranchStatus>>> pending = repositoryIndex.getDirectories(rootDirectory, maxDepth).stream()
+                .filter(directory -> Boolean.TRUE.equals(directory.getIsGitRepository()))
+                .map(directory -> CompletableFuture.supplyAsync(() -> getStatus(directory), executor))
+                .collect(Collectors.toList());
+        return pending.stream()
+                .map(CompletableFuture::join)
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Computes the status of every local branch of the repository. A repository that cannot be
+     * read is reported as a single status carrying the error message.
+     *
+     * @param directory Git repository
+     * @return The status of its local branches
+     */
+    public List<BranchStatus> getStatus(Directory directory) {
+        try (RepositoryCache.Handle handle = repositoryCache.open(directory.getPath());
+             RevWalk walk = new RevWalk(handle.repository())) {
+            walk.setRetainBody(false);
+            RefSnapshot refs = handle.refs();
+            Config config = handle.repository().getConfig();
+            String currentBranch = handle.repository().getBranch();
+
+            List<BranchStatus> statuses = new ArrayList<>(refs.getLocalBranches().size());
+            for (String branchName : refs.getLocalBranches()) {
+                BranchStatus status = newStatus(directory);
+                status.setBranchName(branchName);
+                status.setIsCurrentBranch(branchName.equals(currentBranch));
+
+                String upstream = new BranchConfig(config, branchName).getRemoteTrackingBranch();
+                Optional<Ref> local = refs.getRef(Constants.R_HEADS + branchName);
+                Optional<Ref> remote = upstream != null ? refs.getRef(upstream) : Optional.empty();
+                if (remote.isPresent() && local.isPresent()) {
+                    status.setUpstream(upstream);
+                    try {
+                        Counts branchCounts = count(walk, local.get().getObjectId(), remote.get().getObjectId());
+                        status.setAheadCount(branchCounts.ahead);
+                        status.setBehindCount(branchCounts.behind);
+                    } catch (IncorrectObjectTypeException e) {
+                        // Annotated tags are peeled, only this branch is unavailable if it points to a tree or a blob
+                        log.debug("Branch={} of repository={} does not point to a commit", branchName, directory.getName(), e);
+                        status.setMessage(RestConstants.GIT_BRANCH_NOT_A_COMMIT);
+                    }
+                } else {
+                    status.setMessage(RestConstants.GIT_NO_REMOTE_TRACKING_OF_BRANCH);
+                }
+                statuses.add(status);
+            }
+            return statuses;
+        } catch (IOException e) {
+            log.warn("Could not compute the status of the repository={}", directory.getName(), e);
+            BranchStatus status = newStatus(directory);
+            status.setMessage(RestConstants.ERROR_WHILE_CHECKING_BRANCH_STATUS);
+            return Collections.singletonList(status);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Counts count(RevWalk walk, ObjectId localId, ObjectId upstreamId) throws IOException {
+        CountsKey key = new CountsKey(localId.copy(), upstreamId.copy());
+        Counts cached = counts.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        RevCommit local = walk.parseCommit(localId);
+        RevCommit upstream = walk.parseCommit(upstreamId);
+        walk.reset();
+        walk.setRevFilter(RevFilter.MERGE_BASE);
+        walk.markStart(local);
+        walk.markStart(upstream);
+        RevCommit mergeBase = walk.next();
+
+        walk.reset();
+        walk.setRevFilter(RevFilter.ALL);
+        Counts computed = new Counts(RevWalkUtils.count(walk, local, mergeBase), RevWalkUtils.count(walk, upstream, mergeBase));
+        counts.put(key, computed);
+        return computed;
+    }
+
+    private static BranchStatus newStatus(Directory directory) {
+        BranchStatus status = new BranchStatus();
+        status.setPath(directory.getPath());
+        status.setName(directory.getName());
+        return status;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class CountsKey {
+        private final ObjectId local;
+        private final ObjectId upstream;
+    }
+
+    @AllArgsConstructor
+    private static final class Counts {
+        private final int ahead;
+        private final int behind;
+    }
+}
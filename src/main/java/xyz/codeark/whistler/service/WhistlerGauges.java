@@ -0,0 +1,48 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gauges of the caches and queues: cached repositories, queued jobs and fetches, and the
+ * size and hit counts of the build cache. Skipped when the metrics are disabled.
+ * <p>
+ * The gauges are registered once the registry and the services exist, rather than through a
+ * {@code MeterBinder}, since the services themselves depend on the registry through
+ * {@link GitMetrics}.
+ */
+@Component
+public class WhistlerGauges {
+
+    public WhistlerGauges(MeterRegistry registry,
+                          GitMetrics gitMetrics,
+                          RepositoryCache repositoryCache,
+                          FetchScheduler fetchScheduler,
+                          JobService jobService,
+                          BuildCache buildCache) {
+        if (!gitMetrics.isEnabled()) {
+            return;
+        }
+        Gauge.builder("whistler.git.repositories.cached", repositoryCache, RepositoryCache::size)
+                .description("Git repositories held open by the repository cache, whether or not a handle is in use")
+                .register(registry);
+        Gauge.builder("whistler.fetch.queued", fetchScheduler, FetchScheduler::getQueueSize)
+                .description("Fetches waiting for a fetch thread")
+                .register(registry);
+        Gauge.builder("whistler.jobs.queued", jobService, JobService::getQueueSize)
+                .description("Jobs waiting for a job thread")
+                .register(registry);
+        Gauge.builder("whistler.build.cache.size", buildCache, cache -> cache.getStatistics().getSizeBytes())
+                .description("Size of the build cache")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("whistler.build.cache.requests", buildCache, cache -> cache.getStatistics().getHits())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("whistler.build.cache.requests", buildCache, cache -> cache.getStatistics().getMisses())
+                .tag("result", "miss")
+                .register(registry);
+    }
+}
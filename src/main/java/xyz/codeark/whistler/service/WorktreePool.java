@@ -0,0 +1,476 @@
+package xyz.codeark.whistler.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.Worktree;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Pool of linked worktrees, one per repository and branch, so several branches of a repository
+ * can be built or inspected at the same time without touching its main checkout.
+ * <p>
+ * JGit does not manage linked worktrees, so they are created and removed with the git command
+ * line. A worktree is checked out detached at the tip of its branch, which lets the branch stay
+ * checked out in the main working tree, and is moved to the new tip when it is leased again.
+ * Leases are exclusive: a second lease of the same branch waits for the first one to be closed.
+ * <p>
+ * Worktrees live in {@code whistler.worktrees.directory} and are reused across restarts. The least
+ * recently used worktrees that are not leased are removed once a repository has more than
+ * {@code whistler.worktrees.max-per-repository} of them, or once all of them use more than
+ * {@code whistler.worktrees.quota} bytes.
+ */
+@Slf4j
+@Component
+public class WorktreePool {
+    private final RepositoryCache repositoryCache;
+    private final RepositoryLocks repositoryLocks;
+    private final Path rootDirectory;
+    private final int maxPerRepository;
+    private final long quotaBytes;
+    private final GitCommandLine gitCommandLine;
+    private final Map<String, RepositoryWorktrees> repositories = new ConcurrentHashMap<>();
+
+    public WorktreePool(RepositoryCache repositoryCache,
+                        RepositoryLocks repositoryLocks,
+                        @Value("${whistler.worktrees.directory:${user.home}/.whistler/worktrees}") String rootDirectory,
+                        @Value("${whistler.worktrees.max-per-repository:4}") int maxPerRepository,
+                        @Value("${whistler.worktrees.quota:10737418240}") long quotaBytes,
+                        @Value("${whistler.worktrees.git-command:git}") String gitCommand) {
+        this.repositoryCache = repositoryCache;
+        this.repositoryLocks = repositoryLocks;
+        this.rootDirectory = Paths.get(rootDirectory).toAbsolutePath().normalize();
+        this.maxPerRepository = maxPerRepository;
+        this.quotaBytes = quotaBytes;
+        this.gitCommandLine = new GitCommandLine(gitCommand);
+    }
+
+    /**
+     * Leases the worktree of a branch, creating it or moving it to the tip of the branch. The
+     * lease must be closed by the thread that acquired it.
+     *
+     * @param repository Git repository
+     * @param branchName Local or remote branch
+     * @return The lease of the worktree
+     */
+    public Lease acquire(Directory repository, String branchName) {
+        RepositoryWorktrees worktrees = worktrees(repository);
+        String commitId = resolveBranch(repository, branchName);
+        while (true) {
+            Entry entry;
+            synchronized (worktrees) {
+                entry = worktrees.entries.computeIfAbsent(branchName,
+                        branch -> new Entry(worktrees, worktrees.directory.resolve(encode(branch)), branch));
+            }
+            entry.lock.lock();
+            if (entry.removed) {
+                // Evicted while this thread was waiting for it
+                entry.lock.unlock();
+                continue;
+            }
+            try {
+                checkout(worktrees, entry, commitId);
+            } catch (RuntimeException e) {
+                if (entry.commitId == null) {
+                    entry.removed = true;
+                    worktrees.entries.remove(branchName, entry);
+                }
+                entry.lock.unlock();
+                throw e;
+            }
+            entry.lastUsedAt = System.currentTimeMillis();
+            return new Lease(entry);
+        }
+    }
+
+    /**
+     * Creates the worktree of a branch or moves it to the tip of the branch, unless it is leased.
+     *
+     * @param repository Git repository
+     * @param branchName Local or remote branch
+     * @return The worktree
+     */
+    public Worktree prepare(Directory repository, String branchName) {
+        Entry leased = worktrees(repository).entries.get(branchName);
+        if (leased != null && leased.commitId != null && leased.lock.isLocked()) {
+            return leased.toWorktree();
+        }
+        Lease lease = acquire(repository, branchName);
+        lease.close();
+        return lease.entry.toWorktree();
+    }
+
+    /**
+     * Lists the pooled worktrees of a repository, least recently used first.
+     *
+     * @param repository Git repository
+     * @return The worktrees of the repository
+     */
+    public List<Worktree> getWorktrees(Directory repository) {
+        RepositoryWorktrees worktrees = worktrees(repository);
+        synchronized (worktrees) {
+            return worktrees.entries.values().stream()
+                    .filter(entry -> entry.commitId != null)
+                    .sorted(Comparator.comparingLong(entry -> entry.lastUsedAt))
+                    .map(Entry::toWorktree)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Tells whether a worktree of the repository is leased, without adopting its worktrees.
+     *
+     * @param repository Git repository
+     * @return True if one of its worktrees is leased
+     */
+    public boolean isLeased(Directory repository) {
+        RepositoryWorktrees worktrees = repositories.get(canonicalPath(repository.getPath()));
+        return worktrees != null && worktrees.entries.values().stream().anyMatch(entry -> entry.lock.isLocked());
+    }
+
+    /**
+     * Removes the worktree of a branch from the pool and from the disk.
+     *
+     * @param repository Git repository
+     * @param branchName Branch of the worktree
+     */
+    public void remove(Directory repository, String branchName) {
+        RepositoryWorktrees worktrees = worktrees(repository);
+        Entry entry = worktrees.entries.get(branchName);
+        if (entry == null || entry.commitId == null) {
+            throw new WhistlerRestException(RestConstants.WORKTREE_NOT_FOUND, HttpStatus.NOT_FOUND, repository.getPath(), repository.getName());
+        }
+        if (!entry.lock.tryLock()) {
+            throw new WhistlerRestException(RestConstants.WORKTREE_IN_USE, HttpStatus.CONFLICT, repository.getPath(), repository.getName());
+        }
+        try {
+            remove(entry);
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    private void checkout(RepositoryWorktrees worktrees, Entry entry, String commitId) {
+        try {
+            if (entry.commitId == null) {
+                evict();
+                if (usedBytes() >= quotaBytes) {
+                    throw new WhistlerRestException(RestConstants.WORKTREE_QUOTA_EXCEEDED, HttpStatus.INSUFFICIENT_STORAGE,
+                            worktrees.repository.getPath(), worktrees.repository.getName());
+                }
+                Files.createDirectories(worktrees.directory);
+                Lock lock = repositoryLocks.forRepository(worktrees.repository.getPath());
+                lock.lock();
+                try {
+                    git(Paths.get(worktrees.repository.getPath()), "worktree", "add", "--detach", entry.path.toString(), commitId);
+                } finally {
+                    lock.unlock();
+                }
+                log.info("Created worktree={} of branch={} for repo={}", entry.path, entry.branchName, worktrees.repository.getName());
+                entry.sizeBytes = sizeOf(entry.path);
+            } else if (!commitId.equals(entry.commitId)) {
+                // Local changes in a pooled worktree are discarded, it always mirrors the branch
+                git(entry.path, "checkout", "--detach", "--force", commitId);
+                log.info("Moved worktree={} of branch={} to commit={}", entry.path, entry.branchName, commitId);
+            }
+            entry.commitId = commitId;
+        } catch (IOException e) {
+            log.error("Something went wrong while preparing the worktree of branch={} for the repository={}",
+                    entry.branchName, worktrees.repository.getName(), e);
+            throw new WhistlerRestException(RestConstants.ERROR_WHILE_PREPARING_WORKTREE, HttpStatus.INTERNAL_SERVER_ERROR,
+                    worktrees.repository.getPath(), worktrees.repository.getName());
+        }
+    }
+
+    /**
+     * Removes the least recently used worktrees that are not leased until every repository is
+     * within its limit and the pool is within its quota.
+     */
+    private synchronized void evict() {
+        List<Entry> candidates = new ArrayList<>();
+        Map<RepositoryWorktrees, Integer> counts = new HashMap<>();
+        for (RepositoryWorktrees worktrees : repositories.values()) {
+            synchronized (worktrees) {
+                for (Entry entry : worktrees.entries.values()) {
+                    if (entry.commitId != null) {
+                        candidates.add(entry);
+                        counts.merge(worktrees, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingLong(entry -> entry.lastUsedAt));
+        long used = candidates.stream().mapToLong(entry -> entry.sizeBytes).sum();
+        for (Entry entry : candidates) {
+            boolean overLimit = counts.get(entry.owner) > maxPerRepository;
+            if (!overLimit && used <= quotaBytes) {
+                continue;
+            }
+            // A worktree leased by this thread is the one being created or refreshed
+            if (entry.lock.isHeldByCurrentThread() || !entry.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (!entry.removed && remove(entry)) {
+                    counts.merge(entry.owner, -1, Integer::sum);
+                    used -= entry.sizeBytes;
+                }
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    private boolean remove(Entry entry) {
+        RepositoryWorktrees worktrees = entry.owner;
+        Path repositoryPath = Paths.get(worktrees.repository.getPath());
+        Lock lock = repositoryLocks.forRepository(worktrees.repository.getPath());
+        lock.lock();
+        try {
+            try {
+                git(repositoryPath, "worktree", "remove", "--force", entry.path.toString());
+            } catch (IOException e) {
+                log.warn("Could not remove worktree={}, deleting it", entry.path, e);
+                deleteRecursively(entry.path);
+                git(repositoryPath, "worktree", "prune");
+            }
+        } catch (IOException e) {
+            log.error("Could not prune the worktrees of the repository={}", worktrees.repository.getName(), e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        entry.removed = true;
+        worktrees.entries.remove(entry.branchName, entry);
+        log.info("Removed worktree={} of branch={} for repo={}", entry.path, entry.branchName, worktrees.repository.getName());
+        return true;
+    }
+
+    private long usedBytes() {
+        return repositories.values().stream()
+                .flatMap(worktrees -> worktrees.entries.values().stream())
+                .mapToLong(entry -> entry.sizeBytes)
+                .sum();
+    }
+
+    private RepositoryWorktrees worktrees(Directory repository) {
+        String key = canonicalPath(repository.getPath());
+        return repositories.computeIfAbsent(key, path -> {
+            String id = UUID.nameUUIDFromBytes(path.getBytes(StandardCharsets.UTF_8)).toString().substring(0, 8);
+            RepositoryWorktrees worktrees = new RepositoryWorktrees(repository, rootDirectory.resolve(repository.getName() + "-" + id));
+            adopt(worktrees);
+            return worktrees;
+        });
+    }
+
+    /**
+     * Registers the worktrees created before a restart, as listed by git.
+     */
+    private void adopt(RepositoryWorktrees worktrees) {
+        if (!Files.isDirectory(worktrees.directory)) {
+            return;
+        }
+        Path repositoryPath = Paths.get(worktrees.repository.getPath());
+        Lock lock = repositoryLocks.forRepository(worktrees.repository.getPath());
+        lock.lock();
+        try {
+            git(repositoryPath, "worktree", "prune");
+            Path path = null;
+            for (String line : git(repositoryPath, "worktree", "list", "--porcelain").split("\n")) {
+                if (line.startsWith("worktree ")) {
+                    path = Paths.get(line.substring("worktree ".length())).toAbsolutePath().normalize();
+                } else if (line.startsWith("HEAD ") && path != null && worktrees.directory.equals(path.getParent())) {
+                    String branchName = URLDecoder.decode(path.getFileName().toString(), StandardCharsets.UTF_8);
+                    Entry entry = new Entry(worktrees, path, branchName);
+                    entry.commitId = line.substring("HEAD ".length());
+                    entry.sizeBytes = sizeOf(path);
+                    entry.lastUsedAt = Files.getLastModifiedTime(path).toMillis();
+                    worktrees.entries.put(branchName, entry);
+                }
+            }
+            log.info("Adopted {} worktrees of repo={}", worktrees.entries.size(), worktrees.repository.getName());
+        } catch (IOException e) {
+            log.warn("Could not list the worktrees of the repository={}", worktrees.repository.getName(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String resolveBranch(Directory repository, String branchName) {
+        try (RepositoryCache.Handle handle = repositoryCache.open(repository.getPath())) {
+            RefSnapshot refs = handle.refs();
+            Optional<String> revision = refs.hasLocalBranch(branchName)
+                    ? Optional.of("refs/heads/" + branchName)
+                    : refs.findRemote(branchName).map(remote -> "refs/remotes/" + remote + "/" + branchName);
+            ObjectId commitId = revision.isPresent() ? handle.repository().resolve(revision.get()) : null;
+            if (commitId == null) {
+                throw new WhistlerRestException(RestConstants.BRANCH_DOES_NOT_EXIST, HttpStatus.BAD_REQUEST, repository.getPath(), repository.getName());
+            }
+            return commitId.name();
+        } catch (IOException e) {
+            log.error("Something went wrong while resolving the branch={} for the repository={}", branchName, repository.getName(), e);
+            throw new WhistlerRestException(RestConstants.ERROR_WHILE_PREPARING_WORKTREE, HttpStatus.INTERNAL_SERVER_ERROR,
+                    repository.getPath(), repository.getName());
+        }
+    }
+
+    private String git(Path directory, String... arguments) throws IOException {
+        return gitCommandLine.run(directory, arguments);
+    }
+
+    /**
+     * Branch names are URL encoded into directory names, so the branch of a worktree can be read
+     * back from its directory.
+     */
+    private static String encode(String branchName) {
+        return URLEncoder.encode(branchName, StandardCharsets.UTF_8);
+    }
+
+    private static String canonicalPath(String path) {
+        try {
+            return Paths.get(path).toRealPath().toString();
+        } catch (IOException e) {
+            return Paths.get(path).toAbsolutePath().normalize().toString();
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Exclusive use of a pooled worktree, released on close.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Path getPath() {
+            return entry.path;
+        }
+
+        public Worktree getWorktree() {
+            return entry.toWorktree();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // Builds leave their output in the worktree
+                entry.sizeBytes = sizeOf(entry.path);
+            } catch (IOException e) {
+                log.warn("Could not measure worktree={}", entry.path, e);
+            }
+            entry.lastUsedAt = System.currentTimeMillis();
+            entry.lock.unlock();
+            evict();
+        }
+    }
+
+    private static final class RepositoryWorktrees {
+        private final Directory repository;
+        private final Path directory;
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        private RepositoryWorktrees(Directory repository, Path directory) {
+            this.repository = repository;
+            this.directory = directory;
+        }
+    }
+
+    private static final class Entry {
+        private final RepositoryWorktrees owner;
+        private final Path path;
+        private final String branchName;
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Null until the worktree exists on disk
+         */
+        private volatile String commitId;
+        private volatile long sizeBytes;
+        private volatile long lastUsedAt;
+        private volatile boolean removed;
+
+        private Entry(RepositoryWorktrees owner, Path path, String branchName) {
+            this.owner = owner;
+            this.path = path;
+            this.branchName = branchName;
+        }
+
+        private Worktree toWorktree() {
+            Worktree worktree = new Worktree();
+            worktree.setPath(path.toString());
+            worktree.setBranchName(branchName);
+            worktree.setCommitId(commitId);
+            worktree.setSizeBytes(sizeBytes);
+            worktree.setLastUsedAt(lastUsedAt);
+            worktree.setInUse(lock.isLocked());
+            return worktree;
+        }
+    }
+}
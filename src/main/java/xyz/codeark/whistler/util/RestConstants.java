@@ -8,6 +8,24 @@ public class RestConstants {
     public static final String DISCOVERY = API + "discovery";
     public static final String MAVEN = API + "mvn";
     public static final String GIT = API + "git";
+    public static final String BRANCHES = GIT + "/branches";
+    public static final String BULK_CHECKOUT = GIT + "/bulk/checkout";
+    public static final String BULK_PULL_REBASE = GIT + "/bulk/pull-rebase";
+    public static final String UP_TO_DATE = GIT + "/up-to-date";
+    public static final String STATUS = GIT + "/status";
+    public static final String WORKTREES = GIT + "/worktrees";
+    public static final String MAINTENANCE = GIT + "/maintenance";
+    public static final String COMMITS = GIT + "/commits";
+    public static final String COMMIT_INDEX = COMMITS + "/index";
+    public static final String JOBS = GIT + "/jobs";
+    public static final String JOB_CHECKOUT = JOBS + "/checkout";
+    public static final String JOB_PULL_REBASE = JOBS + "/pull-rebase";
+    public static final String JOB_FETCH = JOBS + "/fetch";
+    public static final String JOB_BUILD = JOBS + "/build";
+    public static final String JOB = JOBS + "/{id}";
+    public static final String JOB_RESULT = JOB + "/result";
+    public static final String JOB_OUTPUT = JOB + "/output";
+    public static final String BUILD_CACHE = API + "build/cache";
 
     /**
      * Directory related exception messages
@@ -25,15 +43,38 @@ public class RestConstants {
     public static final String UNSUPPORTED_OPERATING_SYSTEM = "Unsupported operating system";
     public static final String MAVEN_PATH_NOT_FOUND_IN_PATH_VARIABLE = "Maven not found in path variable";
 
+    /**
+     * Build related constants
+     */
+    public static final String GRADLE_BUILD_SUCCESS = "Gradle build success";
+    public static final String GRADLE_BUILD_FAIL = "Gradle build fail";
+    public static final String BUILD_COMMAND_FAILURE = "The build could not be started";
+    public static final String BUILD_UPSTREAM_FAILED = "Skipped because an upstream project failed";
+    public static final String BUILD_DEPENDENCY_CYCLE = "The project is part of, or depends on, a dependency cycle";
+    public static final String BUILD_PROJECT_UNREADABLE = "The build files of the project could not be read";
+    public static final String BUILD_CACHE_HIT = "Restored from the build cache";
+    public static final String BUILD_JOB_SUCCESS = "All the projects were built successfully";
+    public static final String BUILD_JOB_FAILED = "At least one project failed or was skipped";
+
     /**
      * Git related constants
      */
     public static final String INVALID_GIT_REPOSITORY_PATH = "Invalid git repository path";
     public static final String GIT_PULL_FAILED = "Git pull failed";
     public static final String GIT_PULL_SUCCESS = "Git pull executed successfully";
+    public static final String GIT_FETCH_SUCCESS = "Git fetch executed successfully";
+    public static final String GIT_CHECKOUT_SUCCESS = "Branch checked out and rebased successfully";
+    public static final String GIT_OPERATION_SKIPPED = "Skipped after an earlier failure";
+    public static final String GIT_UNEXPECTED_ERROR = "Unexpected error while running the git operation";
+    public static final String INVALID_BULK_OPERATION_REQUEST = "A bulk operation needs the repository paths and a branch name";
+    public static final String INVALID_JOB_REQUEST = "A job needs a path, and a branch name for checkout and pull-rebase";
+    public static final String JOB_QUEUE_FULL = "Too many queued jobs, try again later";
+    public static final String JOB_NOT_FOUND = "Job not found";
+    public static final String JOB_NOT_FINISHED = "The job has not finished yet";
     public static final String GIT_REPOSITORY_IS_UP_TO_DATE = "Git repository is up to date with origin";
     public static final String GIT_REPOSITORY_IS_AHEAD_OF_ORIGIN = "Git repository is ahead origin";
     public static final String GIT_REPOSITORY_IS_BEHIND_ORIGIN = "Git repository is behind origin";
+    public static final String GIT_BRANCH_NOT_A_COMMIT = "The branch or its upstream does not point to a commit";
     public static final String GIT_NO_REMOTE_TRACKING_OF_BRANCH = "Returned null, likely no remote tracking of branch";
     public static final String GIT_REPOSITORY_NO_REMOTE_ORIGIN_FOUND_IN_THE_LOCAL_CONFIG = "No remote origin found in the local git config file";
     public static final String GIT_ERROR_WHILE_UPDATING_REPOSITORY = "Error while updating the repository";
@@ -54,4 +95,13 @@ public class RestConstants {
     public static final String BRANCH_DOES_NOT_EXIST = "The branch does not exist locally or remotely";
     public static final String ERROR_WHILE_GETTING_THE_TRANSPORT_PROTOCOL = "Error while getting the transport protocol";
     public static final String NO_SUPPORTED_TRANSPORT_PROTOCOL_FOUND = "No supported transport protocol found";
+    public static final String WORKTREE_NOT_FOUND = "No pooled worktree for the branch";
+    public static final String WORKTREE_IN_USE = "The worktree is in use";
+    public static final String WORKTREE_QUOTA_EXCEEDED = "The worktree disk quota is exceeded by worktrees in use";
+    public static final String ERROR_WHILE_PREPARING_WORKTREE = "Error while preparing the worktree";
+    public static final String MAINTENANCE_SUCCESS = "Repository objects and refs packed successfully";
+    public static final String MAINTENANCE_REPOSITORY_IN_USE = "Skipped because the repository is in use";
+    public static final String MAINTENANCE_REPOSITORY_HAS_WORKTREES = "Skipped because the repository has linked worktrees";
+    public static final String ERROR_WHILE_MAINTAINING_REPOSITORY = "Error while packing the repository";
+    public static final String INVALID_COMMIT_QUERY = "A commit search needs a text, an author or a path";
 }
@@ -0,0 +1,301 @@
+package xyz.codeark.whistler.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+import xyz.codeark.whistler.dto.BulkOperationResult;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.Job;
+import xyz.codeark.whistler.support.LoadReport;
+import xyz.codeark.whistler.support.SyntheticWorkspace;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives a mix of concurrent requests against the application on a generated workspace, whose
+ * {@code origin} remotes are local bare repositories receiving commits during the test. Excluded
+ * from the default build, run with {@code mvn -Pload-test test}. The load is configured with
+ * system properties:
+ * <ul>
+ * <li>{@code whistler.load.clients}: concurrent clients, each sending one request at a time</li>
+ * <li>{@code whistler.load.duration}: duration of the test in seconds</li>
+ * <li>{@code whistler.load.mix}: weights of the operations, e.g. {@code branches:5,fetch:1}</li>
+ * <li>{@code whistler.load.repositories}, {@code whistler.load.branches}: size of the workspace</li>
+ * <li>{@code whistler.load.push-interval}: milliseconds between commits pushed to the remotes</li>
+ * <li>{@code whistler.load.max-error-rate}: error rate above which the test fails</li>
+ * <li>{@code whistler.load.report}: JSON file the report is written to</li>
+ * </ul>
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class GitResourceLoadTest {
+	private static final Path DIRECTORY = createDirectory();
+	private static final int CLIENTS = Integer.getInteger("whistler.load.clients", 16);
+	private static final int DURATION = Integer.getInteger("whistler.load.duration", 30);
+	private static final String MIX = System.getProperty("whistler.load.mix",
+			"branches:30,up-to-date:20,status:10,discovery:5,fetch:15,checkout:10,pull-rebase:10");
+	private static final int REPOSITORIES = Integer.getInteger("whistler.load.repositories", 20);
+	private static final int BRANCHES = Integer.getInteger("whistler.load.branches", 5);
+	private static final int PUSH_INTERVAL = Integer.getInteger("whistler.load.push-interval", 100);
+	private static final double MAX_ERROR_RATE = Double.parseDouble(System.getProperty("whistler.load.max-error-rate", "0.01"));
+	private static final String REPORT = System.getProperty("whistler.load.report", "target/load-report.json");
+	private static final long JOB_TIMEOUT_MILLIS = 60000;
+
+	private static SyntheticWorkspace workspace;
+
+	@LocalServerPort
+	int port;
+
+	@Autowired
+	ObjectMapper objectMapper;
+
+	private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+	@DynamicPropertySource
+	static void properties(DynamicPropertyRegistry registry) {
+		registry.add("whistler.build.cache.directory", () -> DIRECTORY.resolve("build-cache").toString());
+		registry.add("whistler.snapshot.directory", () -> DIRECTORY.resolve("snapshots").toString());
+		registry.add("whistler.worktrees.directory", () -> DIRECTORY.resolve("worktrees").toString());
+		registry.add("whistler.output.spill-directory", () -> DIRECTORY.resolve("output").toString());
+	}
+
+	@BeforeAll
+	static void createWorkspace() throws IOException {
+		workspace = SyntheticWorkspace.builder()
+				.repositories(REPOSITORIES)
+				.branches(BRANCHES)
+				.depth(2)
+				.remotes(true)
+				.create(DIRECTORY);
+	}
+
+	@AfterAll
+	static void deleteWorkspace() throws IOException {
+		FileSystemUtils.deleteRecursively(DIRECTORY);
+	}
+
+	@Test
+	void concurrentRequestMix() throws Exception {
+		Map<String, Integer> mix = parseMix(MIX);
+		int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+		LoadReport report = new LoadReport();
+
+		ScheduledExecutorService pusher = Executors.newSingleThreadScheduledExecutor();
+		pusher.scheduleWithFixedDelay(() -> {
+			int index = ThreadLocalRandom.current().nextInt(REPOSITORIES);
+			try {
+				workspace.pushRemoteCommit(index, workspace.getBranchName(ThreadLocalRandom.current().nextInt(BRANCHES)));
+			} catch (IOException e) {
+				log.warn("Could not push to the remote of repository {}", index, e);
+			}
+		}, 0, PUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION);
+		List<Future<?>> running = new ArrayList<>();
+		for (int i = 0; i < CLIENTS; i++) {
+			running.add(clients.submit(() -> {
+				while (System.nanoTime() < deadline) {
+					String operation = pick(mix, ThreadLocalRandom.current().nextInt(totalWeight));
+					long start = System.nanoTime();
+					String error;
+					try {
+						error = run(operation);
+					} catch (IOException | UncheckedIOException e) {
+						error = e.getClass().getSimpleName();
+					}
+					report.record(operation, System.nanoTime() - start, error);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> client : running) {
+			client.get();
+		}
+		report.finish();
+		clients.shutdown();
+		pusher.shutdownNow();
+
+		log.info("Load test with {} clients for {}s on {} repositories:\n{}", CLIENTS, DURATION, REPOSITORIES, report.format());
+		report.write(Paths.get(REPORT), objectMapper);
+
+		for (LoadReport.Summary summary : report.summarize()) {
+			assertTrue(summary.getRequests() > 0, summary.getOperation());
+			assertTrue(summary.getErrorRate() <= MAX_ERROR_RATE,
+					summary.getOperation() + " error rate " + summary.getErrorRate() + ": " + summary.getErrorReasons());
+		}
+		assertEquals(mix.keySet(), report.summarize().stream().map(LoadReport.Summary::getOperation).collect(Collectors.toSet()));
+	}
+
+	/**
+	 * Sends one request of the operation to a random repository. Checkout and pull-rebase always
+	 * use the same branch of a repository, as pull-rebase rebases the checked out branch onto the
+	 * given one and random pairs of branches would conflict.
+	 *
+	 * @return Why the request failed, null if it succeeded
+	 */
+	private String run(String operation) throws IOException, InterruptedException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int index = random.nextInt(REPOSITORIES);
+		Directory repository = workspace.getRepositories().get(index);
+		String branchName = workspace.getBranchName(random.nextInt(BRANCHES));
+		String workingBranchName = workspace.getBranchName(index);
+		String root = workspace.getRoot().toString();
+		switch (operation) {
+			case "discovery":
+				return check(get(RestConstants.DISCOVERY, "rootDirectory", root, "maxDepth", "2"));
+			case "status":
+				return check(get(RestConstants.STATUS, "rootDirectory", root, "maxDepth", "2"));
+			case "branches":
+				return check(get(RestConstants.BRANCHES, "path", repository.getPath()));
+			case "up-to-date":
+				return check(get(RestConstants.UP_TO_DATE, "path", repository.getPath(), "branchName", branchName,
+						"maxAge", "2000"));
+			case "fetch":
+				return fetch(repository);
+			case "checkout":
+				return checkBulkResults(post(RestConstants.BULK_CHECKOUT, bulkRequest(repository, workingBranchName)));
+			case "pull-rebase":
+				return checkBulkResults(post(RestConstants.BULK_PULL_REBASE, bulkRequest(repository, workingBranchName)));
+			default:
+				throw new IllegalArgumentException("Unknown operation " + operation);
+		}
+	}
+
+	/**
+	 * Submits a fetch job and waits for it to finish.
+	 */
+	private String fetch(Directory repository) throws IOException, InterruptedException {
+		HttpResponse<String> submitted = post(RestConstants.JOB_FETCH, Map.of("path", repository.getPath()));
+		String error = check(submitted);
+		if (error != null) {
+			return error;
+		}
+		String id = objectMapper.readTree(submitted.body()).path("id").asText();
+		long deadline = System.currentTimeMillis() + JOB_TIMEOUT_MILLIS;
+		while (System.currentTimeMillis() < deadline) {
+			HttpResponse<String> response = get(RestConstants.JOB.replace("{id}", id));
+			error = check(response);
+			if (error != null) {
+				return error;
+			}
+			String status = objectMapper.readTree(response.body()).path("status").asText();
+			if (Job.Status.SUCCEEDED.name().equals(status)) {
+				return null;
+			}
+			if (Job.Status.FAILED.name().equals(status)) {
+				return "Job " + status;
+			}
+			Thread.sleep(10);
+		}
+		return "Job timeout";
+	}
+
+	private String checkBulkResults(HttpResponse<String> response) throws IOException {
+		String error = check(response);
+		if (error != null) {
+			return error;
+		}
+		for (JsonNode result : objectMapper.readTree(response.body())) {
+			String status = result.path("status").asText();
+			if (!BulkOperationResult.Status.SUCCESS.name().equals(status)) {
+				return status + " " + result.path("message").asText();
+			}
+		}
+		return null;
+	}
+
+	private static String check(HttpResponse<String> response) {
+		return response.statusCode() < 300 ? null : "HTTP " + response.statusCode();
+	}
+
+	private HttpResponse<String> get(String path, String... parameters) throws IOException, InterruptedException {
+		StringBuilder query = new StringBuilder();
+		for (int i = 0; i < parameters.length; i += 2) {
+			query.append(i == 0 ? '?' : '&')
+					.append(parameters[i]).append('=')
+					.append(URLEncoder.encode(parameters[i + 1], StandardCharsets.UTF_8));
+		}
+		return client.send(HttpRequest.newBuilder(uri(path + query)).GET().build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private HttpResponse<String> post(String path, Object body) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(uri(path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://localhost:" + port + "/" + path);
+	}
+
+	private static Map<String, Object> bulkRequest(Directory repository, String branchName) {
+		return Map.of("paths", List.of(repository.getPath()), "branchName", branchName);
+	}
+
+	private static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new LinkedHashMap<>();
+		for (String entry : mix.split(",")) {
+			String[] parts = entry.trim().split(":");
+			weights.put(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+		}
+		return weights;
+	}
+
+	private static String pick(Map<String, Integer> mix, int value) {
+		for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+			value -= entry.getValue();
+			if (value < 0) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalStateException("The weights changed");
+	}
+
+	private static Path createDirectory() {
+		try {
+			return Files.createTempDirectory("whistler-load");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.BulkOperationResult;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildOrchestratorTest {
+
+	@TempDir
+	Path workspace;
+
+	private final StubBuildCommand buildCommand = new StubBuildCommand();
+	private final RepositoryCache repositoryCache = new RepositoryCache(new GitMetrics(new SimpleMeterRegistry(), false, false), 8, 60000, 5000);
+	private BuildOrchestrator buildOrchestrator;
+
+	@AfterEach
+	void tearDown() {
+		buildOrchestrator.close();
+		repositoryCache.close();
+	}
+
+	@Test
+	void projectsWaitOnlyForTheirUpstreams() throws Exception {
+		buildOrchestrator = new BuildOrchestrator(new BuildProjectParser(), buildCommand, buildCache(false), 4);
+		List<Directory> directories = List.of(
+				mavenProject("d", "b", "c"),
+				mavenProject("b", "a"),
+				mavenProject("c", "a"),
+				mavenProject("a"));
+
+		Map<String, BulkOperationResult> results = byName(buildOrchestrator.build(directories));
+
+		assertTrue(results.values().stream().allMatch(result -> result.getStatus() == BulkOperationResult.Status.SUCCESS));
+		assertTrue(buildCommand.started("b") >= buildCommand.finished("a"));
+		assertTrue(buildCommand.started("c") >= buildCommand.finished("a"));
+		assertTrue(buildCommand.started("d") >= Math.max(buildCommand.finished("b"), buildCommand.finished("c")));
+		// b and c only depend on a, so they build at the same time
+		assertTrue(buildCommand.started("b") < buildCommand.finished("c"));
+		assertTrue(buildCommand.started("c") < buildCommand.finished("b"));
+	}
+
+	@Test
+	void failedUpstreamSkipsOnlyItsDownstreams() throws Exception {
+		buildOrchestrator = new BuildOrchestrator(new BuildProjectParser(), buildCommand, buildCache(false), 2);
+		buildCommand.failing.add("b");
+		List<Directory> directories = List.of(
+				mavenProject("a"),
+				mavenProject("b", "a"),
+				mavenProject("c", "a"),
+				gradleProject("d", "b"));
+
+		Map<String, BulkOperationResult> results = byName(buildOrchestrator.build(directories));
+
+		assertEquals(BulkOperationResult.Status.SUCCESS, results.get("a").getStatus());
+		assertEquals(BulkOperationResult.Status.FAILED, results.get("b").getStatus());
+		assertEquals(BulkOperationResult.Status.SUCCESS, results.get("c").getStatus());
+		assertEquals(BulkOperationResult.Status.SKIPPED, results.get("d").getStatus());
+		assertEquals(Set.of("a", "b", "c"), buildCommand.starts.keySet());
+	}
+
+	@Test
+	void unexpectedErrorFailsTheProjectAndSkipsItsDownstreams() throws Exception {
+		buildOrchestrator = new BuildOrchestrator(new BuildProjectParser(), buildCommand, buildCache(false), 2);
+		buildCommand.throwing.add("a");
+		List<Directory> directories = List.of(
+				mavenProject("a"),
+				mavenProject("b", "a"),
+				mavenProject("c"));
+
+		Map<String, BulkOperationResult> results = byName(buildOrchestrator.build(directories));
+
+		assertEquals(BulkOperationResult.Status.FAILED, results.get("a").getStatus());
+		assertEquals("process could not start", results.get("a").getMessage());
+		assertEquals(BulkOperationResult.Status.SKIPPED, results.get("b").getStatus());
+		assertEquals(BulkOperationResult.Status.SUCCESS, results.get("c").getStatus());
+	}
+
+	@Test
+	void dependencyCycleIsNotBuilt() throws Exception {
+		buildOrchestrator = new BuildOrchestrator(new BuildProjectParser(), buildCommand, buildCache(false), 2);
+		List<Directory> directories = List.of(
+				mavenProject("a", "b"),
+				mavenProject("b", "a"),
+				mavenProject("c"));
+
+		Map<String, BulkOperationResult> results = byName(buildOrchestrator.build(directories));
+
+		assertEquals(RestConstants.BUILD_DEPENDENCY_CYCLE, results.get("a").getMessage());
+		assertEquals(RestConstants.BUILD_DEPENDENCY_CYCLE, results.get("b").getMessage());
+		assertEquals(BulkOperationResult.Status.SUCCESS, results.get("c").getStatus());
+		assertEquals(Set.of("c"), buildCommand.starts.keySet());
+	}
+
+	@Test
+	void unchangedProjectsAreRestoredFromTheBuildCache() throws Exception {
+		BuildCache buildCache = buildCache(true);
+		buildOrchestrator = new BuildOrchestrator(new BuildProjectParser(), buildCommand, buildCache, 2);
+		List<Directory> directories = List.of(commit(mavenProject("a")), commit(mavenProject("b", "a")));
+
+		buildOrchestrator.build(directories);
+		assertEquals(Set.of("a", "b"), buildCommand.starts.keySet());
+
+		buildCommand.starts.clear();
+		Files.delete(workspace.resolve("a/target/a.jar"));
+		Map<String, BulkOperationResult> results = byName(buildOrchestrator.build(directories));
+		assertEquals(Set.of(), buildCommand.starts.keySet());
+		assertEquals(RestConstants.BUILD_CACHE_HIT, results.get("a").getMessage());
+		assertTrue(Files.exists(workspace.resolve("a/target/a.jar")));
+
+		// An uncommitted change in a invalidates a and its downstream b
+		Files.writeString(workspace.resolve("a/Changed.java"), "class Changed {}");
+		buildOrchestrator.build(directories);
+		assertEquals(Set.of("a", "b"), buildCommand.starts.keySet());
+		assertEquals(2, buildCache.getStatistics().getHits());
+		assertEquals(4, buildCache.getStatistics().getStores());
+	}
+
+	@Test
+	void projectsInALinkedWorktreeAreRestoredFromTheBuildCache() throws Exception {
+		BuildCache buildCache = buildCache(true);
+		buildOrchestrator = new BuildOrchestrator(new BuildProjectParser(), buildCommand, buildCache, 2);
+		Directory repository = commit(mavenProject("a"));
+		WorktreePool worktreePool = new WorktreePool(repositoryCache, new RepositoryLocks(4),
+				workspace.resolve("worktrees").toString(), 2, 1 << 30, "git");
+		try (WorktreePool.Lease lease = worktreePool.acquire(repository, "master")) {
+			Directory worktree = new Directory();
+			worktree.setPath(lease.getPath().toString());
+			worktree.setName("a");
+			worktree.setIsMavenProject(true);
+
+			buildOrchestrator.build(List.of(worktree));
+			assertEquals(Set.of("a"), buildCommand.starts.keySet());
+
+			buildCommand.starts.clear();
+			Map<String, BulkOperationResult> results = byName(buildOrchestrator.build(List.of(worktree)));
+			assertEquals(Set.of(), buildCommand.starts.keySet());
+			assertEquals(RestConstants.BUILD_CACHE_HIT, results.get("a").getMessage());
+
+			// An uncommitted change in the worktree invalidates it
+			Files.writeString(lease.getPath().resolve("Changed.java"), "class Changed {}");
+			buildOrchestrator.build(List.of(worktree));
+			assertEquals(Set.of("a"), buildCommand.starts.keySet());
+		}
+	}
+
+	private BuildCache buildCache(boolean enabled) {
+		return new BuildCache(repositoryCache, enabled, workspace.resolve("cache").toString(), 1 << 20, "git");
+	}
+
+	private static Directory commit(Directory directory) throws Exception {
+		try (Git git = Git.init().setDirectory(new File(directory.getPath())).call()) {
+			git.add().addFilepattern(".").call();
+			git.commit()
+					.setMessage("initial")
+					.setAuthor("whistler", "whistler@codeark.xyz")
+					.setCommitter("whistler", "whistler@codeark.xyz")
+					.call();
+		}
+		return directory;
+	}
+
+	private Directory mavenProject(String name, String... dependencies) throws IOException {
+		StringBuilder pom = new StringBuilder()
+				.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n")
+				.append("  <groupId>xyz.codeark</groupId>\n")
+				.append("  <artifactId>").append(name).append("</artifactId>\n")
+				.append("  <dependencies>\n");
+		for (String dependency : dependencies) {
+			pom.append("    <dependency><groupId>xyz.codeark</groupId><artifactId>").append(dependency)
+					.append("</artifactId><version>1.0</version></dependency>\n");
+		}
+		pom.append("  </dependencies>\n</project>\n");
+		Directory directory = project(name, DirectoryWalker.MAVEN_FILE, pom.toString());
+		directory.setIsMavenProject(true);
+		return directory;
+	}
+
+	private Directory gradleProject(String name, String... dependencies) throws IOException {
+		StringBuilder script = new StringBuilder("group = 'xyz.codeark'\n\ndependencies {\n");
+		for (String dependency : dependencies) {
+			script.append("    implementation 'xyz.codeark:").append(dependency).append(":1.0'\n");
+		}
+		script.append("}\n");
+		Directory directory = project(name, DirectoryWalker.GRADLE_FILE, script.toString());
+		directory.setIsGradleProject(true);
+		return directory;
+	}
+
+	private Directory project(String name, String buildFile, String content) throws IOException {
+		Path path = Files.createDirectories(workspace.resolve(name));
+		Files.writeString(path.resolve(buildFile), content);
+		Directory directory = new Directory();
+		directory.setPath(path.toString());
+		directory.setName(name);
+		return directory;
+	}
+
+	private static Map<String, BulkOperationResult> byName(List<BulkOperationResult> results) {
+		return results.stream().collect(Collectors.toMap(BulkOperationResult::getName, Function.identity()));
+	}
+
+	/**
+	 * Records when each project build starts and ends, and fails or throws for the configured projects.
+	 */
+	private static final class StubBuildCommand implements BuildCommand {
+		private final Map<String, Long> starts = new ConcurrentHashMap<>();
+		private final Map<String, Long> ends = new ConcurrentHashMap<>();
+		private final List<String> failing = new ArrayList<>();
+		private final List<String> throwing = new ArrayList<>();
+
+		@Override
+		public int run(BuildProject project, Consumer<String> output) throws IOException, InterruptedException {
+			if (throwing.contains(project.getName())) {
+				throw new IllegalStateException("process could not start");
+			}
+			starts.put(project.getName(), System.nanoTime());
+			Thread.sleep(100);
+			Path target = Files.createDirectories(project.getPath().resolve("target"));
+			Files.writeString(target.resolve(project.getName() + ".jar"), project.getName());
+			ends.put(project.getName(), System.nanoTime());
+			return failing.contains(project.getName()) ? 1 : 0;
+		}
+
+		private long started(String name) {
+			return starts.get(name);
+		}
+
+		private long finished(String name) {
+			return ends.get(name);
+		}
+	}
+}
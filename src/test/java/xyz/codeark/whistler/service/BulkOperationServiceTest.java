@@ -0,0 +1,117 @@
+package xyz.codeark.whistler.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.BulkOperationMode;
+import xyz.codeark.whistler.dto.BulkOperationResult;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.support.GitServiceFixture;
+import xyz.codeark.whistler.support.SyntheticWorkspace;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class BulkOperationServiceTest {
+
+	@TempDir
+	Path directory;
+
+	private SyntheticWorkspace workspace;
+	private GitServiceFixture fixture;
+	private BulkOperationService bulkOperationService;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		workspace = SyntheticWorkspace.builder()
+				.repositories(3)
+				.branches(1)
+				.remotes(true)
+				.create(directory);
+		fixture = new GitServiceFixture(directory);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		bulkOperationService.close();
+		fixture.close();
+	}
+
+	@Test
+	void failFastSkipsTheRemainingRepositories() {
+		// A single thread runs the repositories in order
+		bulkOperationService = new BulkOperationService(fixture.gitService, 1);
+		List<Directory> directories = new ArrayList<>();
+		directories.add(missingRepository());
+		directories.addAll(workspace.getRepositories());
+
+		List<BulkOperationResult> results = bulkOperationService.checkoutBranch(directories, workspace.getBranchName(0),
+				BulkOperationMode.FAIL_FAST);
+
+		assertEquals(List.of(BulkOperationResult.Status.FAILED, BulkOperationResult.Status.SKIPPED,
+				BulkOperationResult.Status.SKIPPED, BulkOperationResult.Status.SKIPPED), statuses(results));
+		assertEquals(RestConstants.GIT_OPERATION_SKIPPED, results.get(1).getMessage());
+	}
+
+	@Test
+	void bestEffortRunsTheRemainingRepositories() {
+		bulkOperationService = new BulkOperationService(fixture.gitService, 1);
+		List<Directory> directories = new ArrayList<>();
+		directories.add(missingRepository());
+		directories.addAll(workspace.getRepositories());
+
+		List<BulkOperationResult> results = bulkOperationService.checkoutBranch(directories, workspace.getBranchName(0),
+				BulkOperationMode.BEST_EFFORT);
+
+		assertEquals(List.of(BulkOperationResult.Status.FAILED, BulkOperationResult.Status.SUCCESS,
+				BulkOperationResult.Status.SUCCESS, BulkOperationResult.Status.SUCCESS), statuses(results));
+	}
+
+	@Test
+	void operationsOnTheSameRepositoryAreSerialized() throws Exception {
+		bulkOperationService = new BulkOperationService(fixture.gitService, 4);
+		Directory repository = workspace.getRepositories().get(0);
+		String branchName = workspace.getBranchName(0);
+		Lock lock = fixture.repositoryLocks.forRepository(repository.getPath());
+
+		CompletableFuture<List<BulkOperationResult>> checkout;
+		CompletableFuture<List<BulkOperationResult>> pull;
+		lock.lock();
+		try {
+			checkout = CompletableFuture.supplyAsync(() -> bulkOperationService.checkoutBranch(List.of(repository), branchName,
+					BulkOperationMode.FAIL_FAST));
+			pull = CompletableFuture.supplyAsync(() -> bulkOperationService.pullRebase(List.of(repository), branchName,
+					BulkOperationMode.FAIL_FAST));
+			// Both operations wait for the lock of the repository
+			Thread.sleep(300);
+			assertFalse(checkout.isDone());
+			assertFalse(pull.isDone());
+		} finally {
+			lock.unlock();
+		}
+
+		assertEquals(BulkOperationResult.Status.SUCCESS, checkout.get(30, TimeUnit.SECONDS).get(0).getStatus());
+		assertEquals(BulkOperationResult.Status.SUCCESS, pull.get(30, TimeUnit.SECONDS).get(0).getStatus());
+	}
+
+	private Directory missingRepository() {
+		Directory missing = new Directory();
+		missing.setPath(directory.resolve("missing").toString());
+		missing.setName("missing");
+		return missing;
+	}
+
+	private static List<BulkOperationResult.Status> statuses(List<BulkOperationResult> results) {
+		return results.stream().map(BulkOperationResult::getStatus).collect(Collectors.toList());
+	}
+}
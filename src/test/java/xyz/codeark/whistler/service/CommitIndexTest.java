@@ -0,0 +1,137 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.CommitIndexUpdate;
+import xyz.codeark.whistler.dto.CommitMatch;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommitIndexTest {
+	private static final PersonIdent ALICE = new PersonIdent("Alice Smith", "alice@example.com");
+	private static final PersonIdent BOB = new PersonIdent("Bob Jones", "bob@example.com");
+
+	@TempDir
+	Path workspace;
+
+	private Git git;
+	private long time = 1_600_000_000_000L;
+	private Directory repository;
+	private RepositoryCache repositoryCache;
+	private GitMetrics gitMetrics;
+	private CommitIndex commitIndex;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Path path = workspace.resolve("repository");
+		git = Git.init().setDirectory(path.toFile()).call();
+		commit("src/main/Parser.java", "Initial import", ALICE);
+		commit("src/main/Parser.java", "ABC-123: fix the parser", ALICE);
+		commit("docs/README.md", "Document the parser (ABC-124)", BOB);
+
+		repository = new Directory();
+		repository.setPath(path.toString());
+		repository.setName("repository");
+		repository.setIsGitRepository(true);
+
+		gitMetrics = new GitMetrics(new SimpleMeterRegistry(), false, false);
+		repositoryCache = new RepositoryCache(gitMetrics, 8, 60000, 5000);
+		commitIndex = newCommitIndex();
+	}
+
+	@AfterEach
+	void tearDown() {
+		commitIndex.close();
+		repositoryCache.close();
+		git.close();
+	}
+
+	@Test
+	void commitsAreFoundByMessageAuthorAndPath() {
+		CommitIndexUpdate update = commitIndex.update(List.of(repository));
+
+		assertEquals(3, update.getNewCommits());
+		assertNull(update.getFailedRepositories());
+		assertEquals(List.of("ABC-123: fix the parser"), messages(commitIndex.search("abc-123", null, null, 10)));
+		assertEquals(List.of("Document the parser (ABC-124)"), messages(commitIndex.search("parser", "bob@example.com", null, 10)));
+		assertEquals(List.of("ABC-123: fix the parser", "Initial import"), messages(commitIndex.search(null, "alice", "/src/main/", 10)));
+		assertEquals(List.of("ABC-123: fix the parser"), messages(commitIndex.search(null, null, "src", 1)));
+		assertTrue(commitIndex.search("parser", "carol", null, 10).isEmpty());
+		assertThrows(WhistlerRestException.class, () -> commitIndex.search(" ", null, "", 10));
+	}
+
+	@Test
+	void onlyNewCommitsAreIndexedAndTheIndexIsPersisted() throws Exception {
+		commitIndex.update(List.of(repository));
+		assertEquals(0, commitIndex.update(List.of(repository)).getUpdatedRepositories());
+
+		git.checkout().setCreateBranch(true).setName("feature").call();
+		commit("src/test/ParserTest.java", "ABC-125 test the parser", BOB);
+		CommitIndexUpdate update = commitIndex.update(List.of(repository));
+		assertEquals(1, update.getUpdatedRepositories());
+		assertEquals(1, update.getNewCommits());
+
+		commitIndex.close();
+		commitIndex = newCommitIndex();
+		assertEquals(4, commitIndex.getStatistics().getCommits());
+		assertEquals(List.of("ABC-125 test the parser"), messages(commitIndex.search("abc-125", null, "src/test/ParserTest.java", 10)));
+		assertEquals(0, commitIndex.update(List.of(repository)).getUpdatedRepositories());
+	}
+
+	@Test
+	void commitsAreOrderedByCommitterTime() throws Exception {
+		// A rebased commit keeps its old author time but is committed last
+		Path path = git.getRepository().getWorkTree().toPath().resolve("src/main/Rebased.java");
+		Files.writeString(path, "rebased");
+		git.add().addFilepattern("src/main/Rebased.java").call();
+		time += 60_000;
+		git.commit().setMessage("Rebased parser change")
+				.setAuthor(new PersonIdent(BOB, 1_500_000_000_000L, 0))
+				.setCommitter(new PersonIdent(BOB, time, 0))
+				.call();
+
+		commitIndex.update(List.of(repository));
+		List<CommitMatch> matches = commitIndex.search("parser", null, null, 10);
+
+		assertEquals("Rebased parser change", matches.get(0).getMessage());
+		assertEquals(time, matches.get(0).getCommitTime());
+	}
+
+	private CommitIndex newCommitIndex() {
+		CommitIndex index = new CommitIndex(repositoryCache, gitMetrics,
+				new CommitIndexStore(true, workspace.resolve("index").toString()), 2, 0, 1000);
+		index.restore();
+		return index;
+	}
+
+	private RevCommit commit(String file, String message, PersonIdent author) throws Exception {
+		Path path = git.getRepository().getWorkTree().toPath().resolve(file);
+		Files.createDirectories(path.getParent());
+		Files.writeString(path, message);
+		git.add().addFilepattern(file).call();
+		// One minute apart, so the commits are returned in a predictable order
+		time += 60_000;
+		PersonIdent ident = new PersonIdent(author, time, 0);
+		return git.commit().setMessage(message).setAuthor(ident).setCommitter(ident).call();
+	}
+
+	private static List<String> messages(List<CommitMatch> matches) {
+		return matches.stream().map(CommitMatch::getMessage).collect(Collectors.toList());
+	}
+}
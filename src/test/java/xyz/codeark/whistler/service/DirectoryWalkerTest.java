@@ -0,0 +1,136 @@
+package xyz.codeark.whistler.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.Directory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirectoryWalkerTest {
+	private static final String[] IGNORED = {".git", "build", "node_modules"};
+
+	@TempDir
+	Path workspace;
+
+	private DirectoryWalker directoryWalker;
+
+	/**
+	 * workspace
+	 * ├── app (git repository, maven project)
+	 * │   ├── build/generated
+	 * │   └── module (gradle project)
+	 * │       └── nested (git repository)
+	 * ├── lib (gradle project)
+	 * │   └── node_modules/dependency
+	 * └── tools
+	 *     └── scripts
+	 *         └── deep (git repository)
+	 */
+	@BeforeEach
+	void setUp() throws IOException {
+		Files.createDirectories(workspace.resolve("app/.git/objects"));
+		Files.createFile(workspace.resolve("app/pom.xml"));
+		Files.createDirectories(workspace.resolve("app/build/generated"));
+		Files.createDirectories(workspace.resolve("app/module/nested/.git"));
+		Files.createFile(workspace.resolve("app/module/build.gradle"));
+		Files.createDirectories(workspace.resolve("lib/node_modules/dependency"));
+		Files.createFile(workspace.resolve("lib/build.gradle"));
+		Files.createDirectories(workspace.resolve("tools/scripts/deep/.git"));
+	}
+
+	@AfterEach
+	void tearDown() {
+		directoryWalker.close();
+	}
+
+	@Test
+	void walkStopsAtRepositoriesAndSkipsIgnoredDirectories() throws IOException {
+		directoryWalker = new DirectoryWalker(2, IGNORED, false);
+
+		Map<String, Directory> directories = byPath(directoryWalker.walk(workspace, 5, directory -> {
+		}));
+
+		assertEquals(Set.of("", "app", "lib", "tools", "tools/scripts", "tools/scripts/deep"), directories.keySet());
+		Directory app = directories.get("app");
+		assertTrue(app.getIsGitRepository());
+		assertTrue(app.getIsMavenProject());
+		assertNull(app.getIsGradleProject());
+		assertTrue(directories.get("lib").getIsGradleProject());
+		assertNull(directories.get("lib").getIsGitRepository());
+		assertTrue(directories.get("tools/scripts/deep").getIsGitRepository());
+	}
+
+	@Test
+	void walkDescendsIntoRepositoriesWhenConfigured() throws IOException {
+		directoryWalker = new DirectoryWalker(2, IGNORED, true);
+
+		Map<String, Directory> directories = byPath(directoryWalker.walk(workspace, 5, directory -> {
+		}));
+
+		assertTrue(directories.get("app").getIsGitRepository());
+		assertTrue(directories.get("app/module").getIsGradleProject());
+		assertTrue(directories.get("app/module/nested").getIsGitRepository());
+		// The git directory itself and the build output are never walked
+		assertTrue(directories.keySet().stream().noneMatch(path -> path.contains(".git") || path.contains("build")));
+	}
+
+	@Test
+	void walkStopsAtTheMaximumDepth() throws IOException {
+		directoryWalker = new DirectoryWalker(2, IGNORED, false);
+
+		Map<String, Directory> directories = byPath(directoryWalker.walk(workspace, 2, directory -> {
+		}));
+
+		assertEquals(Set.of("", "app", "lib", "tools", "tools/scripts"), directories.keySet());
+		// Directories at the maximum depth are still classified
+		assertTrue(directories.get("app").getIsGitRepository());
+		assertNull(directories.get("tools/scripts").getIsGitRepository());
+	}
+
+	@Test
+	void walkReportsEveryDirectoryToTheListener() throws IOException {
+		directoryWalker = new DirectoryWalker(2, IGNORED, false);
+		List<Directory> reported = new CopyOnWriteArrayList<>();
+
+		List<Directory> directories = directoryWalker.walk(workspace, 5, reported::add);
+
+		assertEquals(byPath(directories).keySet(), byPath(reported).keySet());
+	}
+
+	@Test
+	void streamStopsOnceCancelled() throws IOException {
+		directoryWalker = new DirectoryWalker(1, IGNORED, false);
+		AtomicBoolean cancelled = new AtomicBoolean();
+		List<Directory> reported = new CopyOnWriteArrayList<>();
+
+		directoryWalker.stream(workspace, 5, directory -> {
+			reported.add(directory);
+			cancelled.set(true);
+		}, cancelled::get);
+
+		// Only the root is reported, its subdirectories are never classified
+		assertEquals(List.of(workspace.toString()), reported.stream().map(Directory::getPath).collect(Collectors.toList()));
+	}
+
+	private Map<String, Directory> byPath(List<Directory> directories) {
+		return directories.stream()
+				.collect(Collectors.toMap(directory -> workspace.relativize(Path.of(directory.getPath())).toString()
+								.replace('\\', '/'),
+						Function.identity()));
+	}
+}
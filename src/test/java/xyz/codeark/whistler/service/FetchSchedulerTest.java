@@ -0,0 +1,180 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.FetchStatus;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FetchSchedulerTest {
+
+	@TempDir
+	Path workspace;
+
+	private Git upstream;
+	private Directory clone;
+	private RepositoryCache repositoryCache;
+	private RepositoryLocks repositoryLocks;
+	private FetchScheduler fetchScheduler;
+	private SimpleMeterRegistry meterRegistry;
+	private GitMetrics gitMetrics;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Path remote = workspace.resolve("remote.git");
+		Git.init().setBare(true).setDirectory(remote.toFile()).call().close();
+
+		upstream = Git.cloneRepository()
+				.setURI(remote.toUri().toString())
+				.setDirectory(workspace.resolve("upstream").toFile())
+				.call();
+		commitAndPush("initial");
+
+		Path clonePath = workspace.resolve("clone");
+		Git.cloneRepository()
+				.setURI(remote.toUri().toString())
+				.setDirectory(clonePath.toFile())
+				.call()
+				.close();
+		clone = new Directory();
+		clone.setPath(clonePath.toString());
+		clone.setName("clone");
+
+		meterRegistry = new SimpleMeterRegistry();
+		gitMetrics = new GitMetrics(meterRegistry, true, false);
+		repositoryCache = new RepositoryCache(gitMetrics, 8, 60000, 5000);
+		repositoryLocks = new RepositoryLocks(4);
+		fetchScheduler = new FetchScheduler(repositoryCache, repositoryLocks, gitMetrics, 0, 2, 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		fetchScheduler.close();
+		repositoryCache.close();
+		upstream.close();
+	}
+
+	@Test
+	void concurrentFetchesOfTheSameRepositoryAreCoalesced() {
+		Lock lock = repositoryLocks.forRepository(clone.getPath());
+		lock.lock();
+		CompletableFuture<FetchStatus> first;
+		CompletableFuture<FetchStatus> second;
+		try {
+			first = fetchScheduler.fetch(clone);
+			second = fetchScheduler.fetch(clone);
+		} finally {
+			lock.unlock();
+		}
+
+		assertSame(first, second);
+		assertTrue(first.join().isSuccess());
+		assertEquals(1, fetchTimer("success").count());
+		assertEquals(0, meterRegistry.get(GitMetrics.ACTIVE_OPERATIONS).tag("operation", "fetch").gauge().value());
+	}
+
+	@Test
+	void freshFetchIsReusedAndStaleFetchSeesNewCommits() throws Exception {
+		FetchStatus first = fetchScheduler.fetchIfStale(clone, 60000);
+		assertTrue(first.isSuccess());
+
+		RevCommit pushed = commitAndPush("second");
+		assertSame(first, fetchScheduler.fetchIfStale(clone, 60000));
+		assertNotEquals(pushed, originMaster());
+
+		Thread.sleep(5);
+		FetchStatus second = fetchScheduler.fetchIfStale(clone, 0);
+		assertTrue(second.isSuccess());
+		assertTrue(second.getFetchedAt() > first.getFetchedAt());
+		assertEquals(pushed, originMaster());
+	}
+
+	@Test
+	void fetchWithoutRemoteFails() throws Exception {
+		Path local = workspace.resolve("local");
+		Git.init().setDirectory(local.toFile()).call().close();
+		Directory directory = new Directory();
+		directory.setPath(local.toString());
+		directory.setName("local");
+
+		FetchStatus status = fetchScheduler.fetch(directory).join();
+
+		assertFalse(status.isSuccess());
+		assertEquals(RestConstants.ERROR_FETCHING_INVALID_REMOTE, status.getMessage());
+		assertSame(status, fetchScheduler.lastFetch(directory).orElseThrow());
+		assertEquals(1, fetchTimer("failure").count());
+	}
+
+	@Test
+	void unexpectedFailureDoesNotBlockLaterFetches() {
+		AtomicBoolean fail = new AtomicBoolean(true);
+		RepositoryCache failingCache = new RepositoryCache(gitMetrics, 8, 60000, 5000) {
+			@Override
+			public Handle open(String path) throws IOException {
+				if (fail.getAndSet(false)) {
+					throw new IllegalStateException("unexpected failure");
+				}
+				return super.open(path);
+			}
+		};
+		FetchScheduler scheduler = new FetchScheduler(failingCache, repositoryLocks, gitMetrics, 0, 2, 2);
+		try {
+			FetchStatus failed = scheduler.fetch(clone).join();
+
+			assertFalse(failed.isSuccess());
+			assertEquals(RestConstants.GIT_UNEXPECTED_ERROR, failed.getMessage());
+			assertEquals(1, fetchTimer("failure").count());
+			assertEquals(0, meterRegistry.get(GitMetrics.ACTIVE_OPERATIONS).tag("operation", "fetch").gauge().value());
+
+			CompletableFuture<FetchStatus> retry = scheduler.fetch(clone);
+			assertTrue(retry.join().isSuccess());
+			assertSame(retry.join(), scheduler.lastFetch(clone).orElseThrow());
+		} finally {
+			scheduler.close();
+			failingCache.close();
+		}
+	}
+
+	private Timer fetchTimer(String outcome) {
+		return meterRegistry.get(GitMetrics.OPERATIONS).tag("operation", "fetch").tag("outcome", outcome).timer();
+	}
+
+	private RevCommit commitAndPush(String message) throws Exception {
+		Path file = upstream.getRepository().getWorkTree().toPath().resolve("README.md");
+		Files.writeString(file, message);
+		upstream.add().addFilepattern("README.md").call();
+		RevCommit commit = upstream.commit()
+				.setMessage(message)
+				.setAuthor("whistler", "whistler@codeark.xyz")
+				.setCommitter("whistler", "whistler@codeark.xyz")
+				.call();
+		upstream.push().call();
+		return commit;
+	}
+
+	private ObjectId originMaster() throws Exception {
+		try (RepositoryCache.Handle handle = repositoryCache.open(clone.getPath())) {
+			return handle.repository().resolve("refs/remotes/origin/master");
+		}
+	}
+}
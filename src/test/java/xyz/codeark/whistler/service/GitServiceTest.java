@@ -0,0 +1,92 @@
+package xyz.codeark.whistler.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.support.GitServiceFixture;
+import xyz.codeark.whistler.support.SyntheticWorkspace;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GitServiceTest {
+	private static final int REPOSITORIES = 32;
+
+	@TempDir
+	Path directory;
+
+	private SyntheticWorkspace workspace;
+	private GitServiceFixture fixture;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		workspace = SyntheticWorkspace.builder()
+				.repositories(REPOSITORIES)
+				.depth(2)
+				.branches(2)
+				.create(directory);
+		fixture = new GitServiceFixture(directory);
+	}
+
+	@AfterEach
+	void tearDown() {
+		fixture.close();
+	}
+
+	@Test
+	void streamingDiscoveryReportsEveryDirectory() {
+		List<Directory> received = new CopyOnWriteArrayList<>();
+
+		fixture.gitService.discoverRepositories(workspace.getRoot().toString(), 2, true, received::add, () -> false);
+
+		// The root, the four intermediate levels and the repositories
+		assertEquals(1 + 4 + REPOSITORIES, received.size());
+		assertEquals(REPOSITORIES, received.stream()
+				.filter(directory -> Boolean.TRUE.equals(directory.getIsGitRepository()))
+				.filter(directory -> directory.getLocalBranches() != null)
+				.count());
+	}
+
+	@Test
+	void failedMaintenanceIsReportedAsAnError() {
+		Directory repository = workspace.getRepositories().get(0);
+		// The maintenance pool no longer accepts repositories
+		fixture.maintenance.close();
+
+		WhistlerRestException e = assertThrows(WhistlerRestException.class, () -> fixture.gitService.maintain(repository));
+
+		assertEquals(RestConstants.ERROR_WHILE_MAINTAINING_REPOSITORY, e.getMessage());
+		assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, e.getStatus());
+		assertEquals(repository.getPath(), e.getPath());
+	}
+
+	@Test
+	void streamingDiscoveryStopsOnceCancelled() throws Exception {
+		AtomicBoolean cancelled = new AtomicBoolean();
+		List<Directory> received = new CopyOnWriteArrayList<>();
+
+		fixture.gitService.discoverRepositories(workspace.getRoot().toString(), 2, true, discovered -> {
+			received.add(discovered);
+			if (received.size() >= 3) {
+				cancelled.set(true);
+			}
+		}, cancelled::get);
+
+		int receivedOnReturn = received.size();
+		assertTrue(receivedOnReturn < 1 + 4 + REPOSITORIES, "The discovery went on after it was cancelled");
+		// Nothing is handed over once the discovery returned
+		Thread.sleep(200);
+		assertEquals(receivedOnReturn, received.size());
+	}
+}
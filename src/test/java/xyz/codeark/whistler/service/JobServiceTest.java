@@ -0,0 +1,137 @@
+package xyz.codeark.whistler.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.Job;
+import xyz.codeark.whistler.dto.JobType;
+import xyz.codeark.whistler.exceptions.WhistlerRestException;
+import xyz.codeark.whistler.support.GitServiceFixture;
+import xyz.codeark.whistler.support.SyntheticWorkspace;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobServiceTest {
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@TempDir
+	Path directory;
+
+	private final CountDownLatch buildsReleased = new CountDownLatch(1);
+	private SyntheticWorkspace workspace;
+	private GitServiceFixture fixture;
+	private RepositoryIndex repositoryIndex;
+	private BuildOrchestrator buildOrchestrator;
+	private JobService jobService;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		workspace = SyntheticWorkspace.builder()
+				.repositories(1)
+				.branches(1)
+				.remotes(true)
+				.create(directory);
+		fixture = new GitServiceFixture(directory);
+		repositoryIndex = new RepositoryIndex(fixture.gitService, fixture.directoryWalker, fixture.repositoryCache,
+				new RepositorySnapshotStore(false, directory.resolve("snapshots").toString(), false),
+				false, 60000, 10, 60000);
+		// Builds wait until the test releases them
+		buildOrchestrator = new BuildOrchestrator(new BuildProjectParser(), (project, output) -> {
+			buildsReleased.await();
+			return 0;
+		}, new BuildCache(fixture.repositoryCache, false, directory.resolve("build-cache").toString(), 1 << 20, "git"), 1);
+	}
+
+	@AfterEach
+	void tearDown() {
+		buildsReleased.countDown();
+		jobService.close();
+		buildOrchestrator.close();
+		repositoryIndex.close();
+		fixture.close();
+	}
+
+	@Test
+	void submissionIsRejectedWhenTheQueueIsFull() throws Exception {
+		jobService = newJobService(1, 1, 3600000);
+		String root = workspace.getRoot().toString();
+
+		Job running = jobService.submitBuild(root, 2, null);
+		await(() -> jobService.getJob(running.getId()).getStatus() == Job.Status.RUNNING);
+		Job queued = jobService.submitBuild(root, 2, null);
+		assertEquals(1, jobService.getQueueSize());
+
+		WhistlerRestException rejected = assertThrows(WhistlerRestException.class, () -> jobService.submitBuild(root, 2, null));
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatus());
+		assertEquals(RestConstants.JOB_QUEUE_FULL, rejected.getMessage());
+
+		buildsReleased.countDown();
+		await(() -> jobService.getJob(queued.getId()).getStatus() == Job.Status.SUCCEEDED);
+		assertEquals(Job.Status.SUCCEEDED, jobService.getJob(running.getId()).getStatus());
+	}
+
+	@Test
+	void fetchJobReportsItsProgress() throws Exception {
+		jobService = newJobService(1, 1, 3600000);
+		Directory repository = workspace.getRepositories().get(0);
+		workspace.pushRemoteCommit(0, workspace.getBranchName(0));
+
+		Job submitted = jobService.submit(JobType.FETCH, repository.getPath(), null);
+		await(() -> jobService.getJob(submitted.getId()).getFinishedAt() != null);
+
+		Job job = jobService.getJob(submitted.getId());
+		assertEquals(Job.Status.SUCCEEDED, job.getStatus(), job.getMessage());
+		assertEquals(RestConstants.GIT_FETCH_SUCCESS, job.getMessage());
+		// The last task of the fetch stays visible with its work
+		assertNotNull(job.getTask());
+		assertNotNull(job.getCompletedWork());
+		assertTrue(job.getStartedAt() <= job.getFinishedAt());
+		OutputBuffer.Chunk output = jobService.getOutput(submitted.getId()).read(0, 100);
+		assertTrue(output.getLines().contains(job.getTask()));
+		assertEquals("SUCCEEDED: " + RestConstants.GIT_FETCH_SUCCESS, output.getLines().get(output.getLines().size() - 1));
+	}
+
+	@Test
+	void expiredJobsAreRemovedInTheBackground() throws Exception {
+		jobService = newJobService(1, 1, 0);
+		buildsReleased.countDown();
+
+		Job submitted = jobService.submitBuild(workspace.getRoot().toString(), 2, null);
+
+		// No other submission happens, the job is still removed once it expired
+		await(() -> {
+			try {
+				jobService.getJob(submitted.getId());
+				return false;
+			} catch (WhistlerRestException e) {
+				return e.getStatus() == HttpStatus.NOT_FOUND;
+			}
+		});
+	}
+
+	private JobService newJobService(int threads, int queueCapacity, long retentionMillis) {
+		return new JobService(fixture.gitService, fixture.fetchScheduler, buildOrchestrator, repositoryIndex,
+				fixture.directoryWalker, threads, queueCapacity, retentionMillis, 64, 256, 1 << 16, false,
+				directory.resolve("output").toString());
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "The job did not get there in time");
+			TimeUnit.MILLISECONDS.sleep(20);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package xyz.codeark.whistler.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputBufferTest {
+
+	@TempDir
+	Path spillDirectory;
+
+	@Test
+	void overwrittenLinesAreReadFromTheSpillFile() {
+		OutputBuffer output = new OutputBuffer(4, 12, 1024, spillDirectory.resolve("job.log"));
+		for (int line = 0; line < 3000; line++) {
+			output.append("line " + line);
+		}
+		output.append("a line longer than twelve");
+
+		OutputBuffer.Chunk spilled = output.read(2500, 3);
+		assertEquals(List.of("line 2500", "line 2501", "line 2502"), spilled.getLines());
+		assertEquals(2503, spilled.getNextOffset());
+
+		OutputBuffer.Chunk tail = output.read(2998, 10);
+		assertEquals(List.of("line 2998", "line 2999", "a line longe"), tail.getLines());
+		assertEquals(0, tail.getDroppedLines());
+		assertEquals(0, output.read(3001, 10).getLines().size());
+	}
+
+	@Test
+	void lineBreaksStartNewLines() {
+		OutputBuffer output = new OutputBuffer(2, 80, 1024, spillDirectory.resolve("job.log"));
+		output.append("FAILED: first\nsecond\r\nthird\rfourth");
+		output.append("fifth");
+
+		// The first lines were spilled, one spilled line per offset
+		assertEquals(5, output.getNextOffset());
+		assertEquals(List.of("FAILED: first", "second", "third"), output.read(0, 10).getLines());
+		assertEquals(List.of("third"), output.read(2, 1).getLines());
+		assertEquals(List.of("fourth", "fifth"), output.read(3, 10).getLines());
+	}
+
+	@Test
+	void withoutSpillFileTheOldestLinesAreDropped() throws Exception {
+		OutputBuffer output = new OutputBuffer(2, 80, 1024, null);
+		output.append("a");
+		output.append("b");
+		output.append("c");
+
+		OutputBuffer.Chunk chunk = output.read(0, 10);
+		assertEquals(1, chunk.getOffset());
+		assertEquals(1, chunk.getDroppedLines());
+		assertEquals(List.of("b", "c"), chunk.getLines());
+
+		assertFalse(output.await(3, 10));
+		output.close();
+		output.append("d");
+		assertTrue(output.isClosed());
+		assertEquals(3, output.getNextOffset());
+	}
+
+	@Test
+	void memoryIsBoundedBySize() {
+		// Room for two lines of four characters
+		OutputBuffer output = new OutputBuffer(100, 80, 16, null);
+		output.append("aaaa");
+		output.append("bbbb");
+		output.append("cccc");
+		output.append("a line larger than the whole buffer");
+
+		OutputBuffer.Chunk chunk = output.read(0, 10);
+		assertEquals(3, chunk.getOffset());
+		assertEquals(3, chunk.getDroppedLines());
+		assertEquals(List.of("a line larger than the whole buffer"), chunk.getLines());
+	}
+
+	@Test
+	void deletedSpillFileSkipsToTheLinesInMemory() {
+		OutputBuffer output = new OutputBuffer(4, 80, 1024, spillDirectory.resolve("job.log"));
+		for (int line = 0; line < 10; line++) {
+			output.append("line " + line);
+		}
+		output.delete();
+
+		OutputBuffer.Chunk chunk = output.read(2, 10);
+		assertEquals(6, chunk.getOffset());
+		assertEquals(4, chunk.getDroppedLines());
+		assertEquals(List.of("line 6", "line 7", "line 8", "line 9"), chunk.getLines());
+		assertEquals(output.getNextOffset(), chunk.getNextOffset());
+	}
+}
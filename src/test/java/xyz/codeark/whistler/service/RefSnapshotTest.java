@@ -0,0 +1,99 @@
+package xyz.codeark.whistler.service;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RefSnapshotTest {
+
+	@TempDir
+	Path directory;
+
+	private Git git;
+	private ObjectId commit;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		git = Git.init().setDirectory(directory.toFile()).call();
+		commit = git.commit()
+				.setMessage("initial")
+				.setAuthor("whistler", "whistler@codeark.xyz")
+				.setCommitter("whistler", "whistler@codeark.xyz")
+				.call();
+		StoredConfig config = git.getRepository().getConfig();
+		for (String remote : List.of("origin", "upstream", "team", "team/a")) {
+			config.setString("remote", remote, "url", directory.resolve(remote + ".git").toUri().toString());
+		}
+		config.save();
+	}
+
+	@AfterEach
+	void tearDown() {
+		git.close();
+	}
+
+	@Test
+	void remoteBranchesAreGroupedPerRemote() throws Exception {
+		Repository repository = git.getRepository();
+		update(repository, Constants.R_HEADS + "feature/x");
+		for (String branch : List.of("origin/master", "origin/feature/x", "upstream/master", "upstream/develop",
+				"team/master", "team/a/master")) {
+			update(repository, Constants.R_REMOTES + branch);
+		}
+		RefUpdate head = repository.updateRef(Constants.R_REMOTES + "origin/" + Constants.HEAD);
+		head.link(Constants.R_REMOTES + "origin/master");
+
+		RefSnapshot snapshot = RefSnapshot.read(repository);
+
+		assertEquals(List.of("feature/x", "master"), snapshot.getLocalBranches());
+		Map<String, List<String>> byRemote = snapshot.getRemoteBranchesByRemote();
+		// origin first, then the other remotes by name, without the symbolic HEAD of origin
+		assertEquals(List.of("origin", "team", "team/a", "upstream"), List.copyOf(byRemote.keySet()));
+		assertEquals(List.of("feature/x", "master"), byRemote.get("origin"));
+		assertEquals(List.of("master"), byRemote.get("team"));
+		assertEquals(List.of("master"), byRemote.get("team/a"));
+		assertEquals(List.of("develop", "master"), byRemote.get("upstream"));
+		assertEquals(List.of("feature/x", "master", "team/master", "team/a/master", "upstream/develop", "upstream/master"),
+				snapshot.getRemoteBranches());
+	}
+
+	@Test
+	void overlappingBranchNamesAreResolvedPerRemote() throws Exception {
+		Repository repository = git.getRepository();
+		update(repository, Constants.R_REMOTES + "origin/master");
+		update(repository, Constants.R_REMOTES + "upstream/master");
+		update(repository, Constants.R_REMOTES + "upstream/develop");
+
+		RefSnapshot snapshot = RefSnapshot.read(repository);
+
+		assertTrue(snapshot.hasRemoteBranch("origin", "master"));
+		assertTrue(snapshot.hasRemoteBranch("upstream", "master"));
+		assertFalse(snapshot.hasRemoteBranch("origin", "develop"));
+		assertEquals(Optional.of("origin"), snapshot.findRemote("master"));
+		assertEquals(Optional.of("upstream"), snapshot.findRemote("develop"));
+		assertEquals(Optional.empty(), snapshot.findRemote("missing"));
+	}
+
+	private void update(Repository repository, String name) throws IOException {
+		RefUpdate update = repository.updateRef(name);
+		update.setNewObjectId(commit);
+		update.forceUpdate();
+	}
+}
@@ -0,0 +1,204 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryCacheTest {
+
+	@TempDir
+	Path workspace;
+
+	private String first;
+	private String second;
+	private RepositoryCache repositoryCache;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		first = repository("first");
+		second = repository("second");
+		repositoryCache = new RepositoryCache(new GitMetrics(new SimpleMeterRegistry(), false, false), 1, 60000, 60000);
+	}
+
+	@AfterEach
+	void tearDown() {
+		repositoryCache.close();
+	}
+
+	@Test
+	void evictionSkipsRepositoriesInUse() throws Exception {
+		try (RepositoryCache.Handle handle = repositoryCache.open(first)) {
+			Repository repository = handle.repository();
+
+			repositoryCache.open(second).close();
+
+			// The second repository was evicted instead of the first one, which is still open
+			assertEquals(1, repositoryCache.size());
+			assertNotNull(handle.repository().resolve("HEAD"));
+			try (RepositoryCache.Handle again = repositoryCache.open(first)) {
+				assertSame(repository, again.repository());
+			}
+		}
+	}
+
+	@Test
+	void closingTheLastHandleReleasesAnEvictedRepository() throws Exception {
+		RepositoryCache.Handle handle = repositoryCache.open(first);
+		Repository repository = handle.repository();
+		RepositoryCache.Handle other = repositoryCache.open(first);
+
+		repositoryCache.invalidate(first);
+		handle.close();
+		assertEquals(1, repositoryCache.size());
+		assertNotNull(other.repository().resolve("HEAD"));
+
+		other.close();
+		assertEquals(0, repositoryCache.size());
+		try (RepositoryCache.Handle reopened = repositoryCache.open(first)) {
+			assertNotSame(repository, reopened.repository());
+		}
+	}
+
+	@Test
+	void closingTheLastHandleShrinksTheCacheBackToItsSize() throws Exception {
+		RepositoryCache.Handle firstHandle = repositoryCache.open(first);
+		RepositoryCache.Handle secondHandle = repositoryCache.open(second);
+		// Both repositories are in use, so the cache grows past its size
+		assertEquals(2, repositoryCache.size());
+
+		firstHandle.close();
+		assertEquals(1, repositoryCache.size());
+		assertTrue(repositoryCache.isIdle(first, 0));
+
+		secondHandle.close();
+		assertEquals(1, repositoryCache.size());
+	}
+
+	@Test
+	void failedOpenDoesNotOrphanAnEntryRetainedMeanwhile() throws Exception {
+		int threads = 4;
+		List<Thread> waiting = new ArrayList<>();
+		AtomicInteger opened = new AtomicInteger();
+		// The first open fails once the other threads wait for the same entry
+		GitMetrics gitMetrics = new GitMetrics(new SimpleMeterRegistry(), false, false) {
+			private final AtomicInteger starts = new AtomicInteger();
+
+			@Override
+			public long start(String operation) {
+				if ("open".equals(operation) && starts.getAndIncrement() == 0) {
+					awaitBlocked(waiting, threads - 1);
+					throw new IllegalStateException("open failed");
+				}
+				return super.start(operation);
+			}
+
+			@Override
+			public void record(String operation, String path, long start, boolean success) {
+				if ("open".equals(operation) && success) {
+					opened.incrementAndGet();
+				}
+				super.record(operation, path, start, success);
+			}
+		};
+		RepositoryCache cache = new RepositoryCache(gitMetrics, 8, 60000, 60000);
+		ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable);
+			synchronized (waiting) {
+				waiting.add(thread);
+			}
+			return thread;
+		});
+		CountDownLatch opens = new CountDownLatch(threads - 1);
+		CountDownLatch released = new CountDownLatch(1);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(() -> {
+					try (RepositoryCache.Handle ignored = cache.open(first)) {
+						opens.countDown();
+						released.await();
+					}
+					return null;
+				}));
+			}
+			assertTrue(opens.await(10, TimeUnit.SECONDS));
+
+			// The repository was opened once and shared, not once more outside the cache
+			assertEquals(1, opened.get());
+			assertEquals(1, cache.size());
+			released.countDown();
+			int failed = 0;
+			for (Future<?> future : futures) {
+				try {
+					future.get(10, TimeUnit.SECONDS);
+				} catch (ExecutionException e) {
+					failed++;
+				}
+			}
+			assertEquals(1, failed);
+		} finally {
+			released.countDown();
+			executor.shutdownNow();
+			cache.close();
+		}
+	}
+
+	@Test
+	void refUpdateInvalidatesTheSnapshot() throws Exception {
+		try (RepositoryCache.Handle handle = repositoryCache.open(first)) {
+			RefSnapshot snapshot = handle.refs();
+			assertSame(snapshot, handle.refs());
+
+			handle.git().branchCreate().setName("feature").call();
+
+			RefSnapshot updated = handle.refs();
+			assertNotSame(snapshot, updated);
+			assertTrue(updated.getLocalBranches().contains("feature"));
+		}
+	}
+
+	private static void awaitBlocked(List<Thread> threads, int count) {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			synchronized (threads) {
+				if (threads.stream().filter(thread -> thread.getState() == Thread.State.BLOCKED).count() >= count) {
+					return;
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	private String repository(String name) throws Exception {
+		Path path = workspace.resolve(name);
+		try (Git git = Git.init().setDirectory(path.toFile()).call()) {
+			git.commit()
+					.setMessage("initial")
+					.setAuthor("whistler", "whistler@codeark.xyz")
+					.setCommitter("whistler", "whistler@codeark.xyz")
+					.call();
+		}
+		return path.toString();
+	}
+}
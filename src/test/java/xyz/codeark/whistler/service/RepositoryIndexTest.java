@@ -0,0 +1,123 @@
+package xyz.codeark.whistler.service;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.FileSystemUtils;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.support.GitServiceFixture;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryIndexTest {
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@TempDir
+	Path workspace;
+
+	private Path root;
+	private GitServiceFixture fixture;
+	private RepositoryIndex repositoryIndex;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		root = Files.createDirectories(workspace.resolve("root"));
+		repository("first");
+		repository("second");
+		fixture = new GitServiceFixture(workspace);
+		// Without file watching the root is rescanned every 100 ms
+		repositoryIndex = new RepositoryIndex(fixture.gitService, fixture.directoryWalker, fixture.repositoryCache,
+				new RepositorySnapshotStore(false, workspace.resolve("snapshots").toString(), false),
+				false, 100, 10, 60000);
+		repositoryIndex.restore();
+	}
+
+	@AfterEach
+	void tearDown() {
+		repositoryIndex.close();
+		fixture.close();
+	}
+
+	@Test
+	void createdRepositoryIsIndexedAfterARescan() throws Exception {
+		assertEquals(List.of("first", "second"), repositoryNames());
+
+		repository("third");
+
+		await(() -> repositoryNames().contains("third"));
+		assertEquals(List.of("first", "second", "third"), repositoryNames());
+		assertEquals("master", repositoryIndex.find(root.resolve("third").toString()).orElseThrow().getBranchName());
+	}
+
+	@Test
+	void deletedRepositoryIsRemovedAfterARescan() throws Exception {
+		assertEquals(List.of("first", "second"), repositoryNames());
+
+		FileSystemUtils.deleteRecursively(root.resolve("second"));
+
+		await(() -> !repositoryNames().contains("second"));
+		assertEquals(List.of("first"), repositoryNames());
+		assertFalse(repositoryIndex.find(root.resolve("second").toString()).isPresent());
+	}
+
+	@Test
+	void refChangeReloadsTheBranchesAfterARescan() throws Exception {
+		String path = root.resolve("first").toString();
+		repositoryIndex.getDirectories(root.toString(), 2);
+		assertEquals(List.of("master"), repositoryIndex.find(path).orElseThrow().getLocalBranches());
+
+		try (Git git = Git.open(root.resolve("first").toFile())) {
+			git.branchCreate().setName("feature").call();
+		}
+
+		await(() -> repositoryIndex.find(path).orElseThrow().getLocalBranches().contains("feature"));
+		assertEquals(List.of("feature", "master"), repositoryIndex.find(path).orElseThrow().getLocalBranches());
+	}
+
+	@Test
+	void callersCannotModifyTheIndexedDirectories() {
+		String path = root.resolve("first").toString();
+		repositoryIndex.getDirectories(root.toString(), 2)
+				.forEach(directory -> directory.setBranchName("modified"));
+
+		repositoryIndex.find(path).orElseThrow().setLocalBranches(List.of("modified"));
+
+		assertEquals("master", repositoryIndex.find(path).orElseThrow().getBranchName());
+		assertEquals(List.of("master"), repositoryIndex.find(path).orElseThrow().getLocalBranches());
+	}
+
+	private List<String> repositoryNames() {
+		return repositoryIndex.getDirectories(root.toString(), 2).stream()
+				.filter(directory -> Boolean.TRUE.equals(directory.getIsGitRepository()))
+				.map(Directory::getName)
+				.collect(Collectors.toList());
+	}
+
+	private void repository(String name) throws Exception {
+		try (Git git = Git.init().setDirectory(root.resolve(name).toFile()).call()) {
+			git.commit()
+					.setMessage("initial")
+					.setAuthor("whistler", "whistler@codeark.xyz")
+					.setCommitter("whistler", "whistler@codeark.xyz")
+					.call();
+		}
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "The index was not updated in time");
+			Thread.sleep(50);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.MaintenanceResult;
+import xyz.codeark.whistler.support.SyntheticWorkspace;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryMaintenanceTest {
+
+	@TempDir
+	Path directory;
+
+	private Directory repository;
+	private RepositoryCache repositoryCache;
+	private WorktreePool worktreePool;
+	private RepositoryMaintenance maintenance;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		repository = SyntheticWorkspace.builder()
+				.repositories(1)
+				.branches(200)
+				.create(directory)
+				.getRepositories()
+				.get(0);
+		GitMetrics gitMetrics = new GitMetrics(new SimpleMeterRegistry(), false, false);
+		repositoryCache = new RepositoryCache(gitMetrics, 8, 60000, 5000);
+		RepositoryLocks repositoryLocks = new RepositoryLocks(4);
+		worktreePool = new WorktreePool(repositoryCache, repositoryLocks, directory.resolve("worktrees").toString(), 2, 1 << 30, "git");
+		maintenance = new RepositoryMaintenance(repositoryCache, repositoryLocks, worktreePool, gitMetrics, 0, 0,
+				"22:00-02:00", 1, 6700, 50, 100, 1000);
+	}
+
+	@AfterEach
+	void tearDown() {
+		maintenance.close();
+		repositoryCache.close();
+	}
+
+	@Test
+	void degradedRepositoryIsPacked() throws Exception {
+		Path gitDirectory = Paths.get(repository.getPath()).resolve(".git");
+		assertTrue(maintenance.isDegraded(gitDirectory));
+
+		MaintenanceResult result = maintenance.maintain(repository).join();
+
+		assertEquals(MaintenanceResult.Status.SUCCEEDED, result.getStatus());
+		assertTrue(result.getBefore().getLooseRefs() > 100);
+		assertTrue(result.getAfter().getLooseRefs() < result.getBefore().getLooseRefs());
+		assertTrue(result.getAfter().getPackedRefs() > 100);
+		assertEquals(0, result.getAfter().getLooseObjects());
+		assertEquals(result.getBefore().getWalkedCommits(), result.getAfter().getWalkedCommits());
+		assertFalse(maintenance.isDegraded(gitDirectory));
+		assertEquals(1, maintenance.getResults().size());
+	}
+
+	@Test
+	void repositoryInUseIsSkipped() throws Exception {
+		MaintenanceResult result;
+		try (RepositoryCache.Handle ignored = repositoryCache.open(repository.getPath())) {
+			result = maintenance.maintain(repository).join();
+		}
+
+		assertEquals(MaintenanceResult.Status.SKIPPED, result.getStatus());
+		assertEquals(RestConstants.MAINTENANCE_REPOSITORY_IN_USE, result.getMessage());
+	}
+
+	@Test
+	void repositoryWithLeasedWorktreeIsSkipped() {
+		MaintenanceResult result;
+		try (WorktreePool.Lease ignored = worktreePool.acquire(repository, SyntheticWorkspace.BRANCH_PREFIX + 0)) {
+			result = maintenance.maintain(repository).join();
+		}
+
+		assertEquals(MaintenanceResult.Status.SKIPPED, result.getStatus());
+		assertEquals(RestConstants.MAINTENANCE_REPOSITORY_IN_USE, result.getMessage());
+	}
+
+	@Test
+	void repositoryWithLinkedWorktreesIsSkipped() throws Exception {
+		String branchName = SyntheticWorkspace.BRANCH_PREFIX + 0;
+		ObjectId checkedOut;
+		try (Git git = Git.open(Paths.get(repository.getPath()).toFile())) {
+			RevCommit rewritten = git.commit()
+					.setMessage("rewritten")
+					.setAllowEmpty(true)
+					.setAuthor("whistler", "whistler@codeark.xyz")
+					.setCommitter("whistler", "whistler@codeark.xyz")
+					.call();
+			RefUpdate branch = git.getRepository().updateRef(Constants.R_HEADS + branchName);
+			branch.setNewObjectId(rewritten);
+			branch.forceUpdate();
+			try (WorktreePool.Lease lease = worktreePool.acquire(repository, branchName)) {
+				checkedOut = ObjectId.fromString(lease.getWorktree().getCommitId());
+			}
+			// Only the pooled worktree still has the rewritten commit checked out
+			git.reset().setMode(ResetCommand.ResetType.HARD).setRef(rewritten.getParent(0).name()).call();
+			branch = git.getRepository().updateRef(Constants.R_HEADS + branchName);
+			branch.setNewObjectId(rewritten.getParent(0));
+			branch.forceUpdate();
+		}
+
+		MaintenanceResult result = maintenance.maintain(repository).join();
+
+		assertEquals(MaintenanceResult.Status.SKIPPED, result.getStatus());
+		assertEquals(RestConstants.MAINTENANCE_REPOSITORY_HAS_WORKTREES, result.getMessage());
+		try (RepositoryCache.Handle handle = repositoryCache.open(repository.getPath())) {
+			assertTrue(handle.repository().getObjectDatabase().has(checkedOut));
+		}
+	}
+
+	@Test
+	void windowMaySpanMidnight() {
+		assertTrue(maintenance.isInWindow(LocalTime.of(23, 0)));
+		assertTrue(maintenance.isInWindow(LocalTime.of(1, 0)));
+		assertFalse(maintenance.isInWindow(LocalTime.of(12, 0)));
+	}
+}
@@ -0,0 +1,129 @@
+package xyz.codeark.whistler.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import xyz.codeark.whistler.dto.Directory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositorySnapshotStoreTest {
+	private static final Path ROOT = Path.of("/workspace");
+
+	@TempDir
+	Path snapshots;
+
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void snapshotIsReadAsSaved(boolean memoryMapped) {
+		RepositorySnapshotStore store = new RepositorySnapshotStore(true, snapshots.toString(), memoryMapped);
+		store.save(ROOT, 3, entries());
+
+		List<RepositorySnapshotStore.Snapshot> loaded = store.loadAll();
+
+		assertEquals(1, loaded.size());
+		RepositorySnapshotStore.Snapshot snapshot = loaded.get(0);
+		assertEquals(ROOT, snapshot.getRoot());
+		assertEquals(3, snapshot.getMaxDepth());
+		assertEquals(2, snapshot.getEntries().size());
+
+		RepositoryIndex.Entry repository = snapshot.getEntries().get(0);
+		assertEquals(1, repository.depth);
+		assertEquals(new RepositoryStamp(1L, 2L, 3L), repository.stamp);
+		assertEquals("/workspace/app", repository.directory.getPath());
+		assertEquals("app", repository.directory.getName());
+		assertEquals("main", repository.directory.getBranchName());
+		assertEquals(List.of("main", "feature/é"), repository.directory.getLocalBranches());
+		assertEquals(List.of("origin/main"), repository.directory.getRemoteBranches());
+		assertTrue(repository.directory.getIsGitRepository());
+		assertTrue(repository.directory.getIsMavenProject());
+		assertNull(repository.directory.getIsGradleProject());
+
+		RepositoryIndex.Entry project = snapshot.getEntries().get(1);
+		assertEquals(2, project.depth);
+		assertNull(project.stamp);
+		assertNull(project.directory.getBranchName());
+		assertNull(project.directory.getLocalBranches());
+		assertTrue(project.directory.getIsGradleProject());
+		assertNull(project.directory.getIsGitRepository());
+	}
+
+	@Test
+	void truncatedSnapshotIsIgnored() throws IOException {
+		RepositorySnapshotStore store = new RepositorySnapshotStore(true, snapshots.toString(), true);
+		store.save(ROOT, 3, entries());
+		Path file = snapshotFile();
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+
+		assertTrue(store.loadAll().isEmpty());
+	}
+
+	@Test
+	void snapshotWithACorruptSizeIsIgnored() throws IOException {
+		RepositorySnapshotStore store = new RepositorySnapshotStore(true, snapshots.toString(), false);
+		store.save(ROOT, 3, entries());
+		Path file = snapshotFile();
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		// Magic, version, root length, root, max depth, then the number of entries
+		int countOffset = 4 + 4 + 4 + ROOT.toString().getBytes(StandardCharsets.UTF_8).length + 4;
+		buffer.putInt(countOffset, Integer.MAX_VALUE);
+		Files.write(file, buffer.array());
+
+		assertTrue(store.loadAll().isEmpty());
+	}
+
+	@Test
+	void snapshotOfAnOlderVersionIsIgnored() throws IOException {
+		RepositorySnapshotStore store = new RepositorySnapshotStore(true, snapshots.toString(), false);
+		Files.createDirectories(snapshots);
+		try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(snapshots.resolve("old.snapshot")))) {
+			output.writeInt(0x5748534E);
+			output.writeInt(1);
+			output.writeInt(0);
+			output.writeInt(3);
+			output.writeInt(0);
+		}
+
+		assertTrue(store.loadAll().isEmpty());
+	}
+
+	private Path snapshotFile() throws IOException {
+		try (Stream<Path> files = Files.list(snapshots)) {
+			return files.filter(file -> file.toString().endsWith(".snapshot")).findFirst().orElseThrow();
+		}
+	}
+
+	private static List<RepositoryIndex.Entry> entries() {
+		Directory repository = new Directory();
+		repository.setPath("/workspace/app");
+		repository.setName("app");
+		repository.setIsGitRepository(true);
+		repository.setIsMavenProject(true);
+		repository.setBranchName("main");
+		repository.setLocalBranches(List.of("main", "feature/é"));
+		repository.setRemoteBranches(List.of("origin/main"));
+
+		Directory project = new Directory();
+		project.setPath("/workspace/app/module");
+		project.setName("module");
+		project.setIsGradleProject(true);
+
+		return List.of(
+				new RepositoryIndex.Entry(repository, 1, new RepositoryStamp(1L, 2L, 3L)),
+				new RepositoryIndex.Entry(project, 2, null));
+	}
+}
@@ -0,0 +1,155 @@
+package xyz.codeark.whistler.service;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.BranchStatus;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.support.GitServiceFixture;
+import xyz.codeark.whistler.util.RestConstants;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatusServiceTest {
+
+	@TempDir
+	Path directory;
+
+	private Git git;
+	private Directory repository;
+	private GitServiceFixture fixture;
+	private RepositoryIndex repositoryIndex;
+	private StatusService statusService;
+
+	/**
+	 * master is two commits ahead of origin/master and one behind it, and the local branch
+	 * "topic" has no upstream.
+	 */
+	@BeforeEach
+	void setUp() throws Exception {
+		Path path = directory.resolve("workspace/repository");
+		git = Git.init().setDirectory(path.toFile()).call();
+		commit("base");
+		git.branchCreate().setName("topic").call();
+		git.checkout().setName("topic").call();
+		RevCommit upstream = commit("upstream");
+		git.checkout().setName(Constants.MASTER).call();
+		RefUpdate update = git.getRepository().updateRef(Constants.R_REMOTES + "origin/" + Constants.MASTER);
+		update.setNewObjectId(upstream);
+		update.forceUpdate();
+		git.branchDelete().setBranchNames("topic").setForce(true).call();
+		git.branchCreate().setName("topic").call();
+		commit("local 1");
+		commit("local 2");
+
+		StoredConfig config = git.getRepository().getConfig();
+		config.setString("remote", "origin", "url", directory.resolve("origin.git").toUri().toString());
+		config.setString("remote", "origin", "fetch", "+refs/heads/*:refs/remotes/origin/*");
+		config.setString("branch", Constants.MASTER, "remote", "origin");
+		config.setString("branch", Constants.MASTER, "merge", Constants.R_HEADS + Constants.MASTER);
+		config.save();
+
+		repository = new Directory();
+		repository.setPath(path.toString());
+		repository.setName("repository");
+		repository.setIsGitRepository(true);
+
+		fixture = new GitServiceFixture(directory);
+		repositoryIndex = new RepositoryIndex(fixture.gitService, fixture.directoryWalker, fixture.repositoryCache,
+				new RepositorySnapshotStore(false, directory.resolve("snapshots").toString(), false),
+				false, 60000, 10, 60000);
+		statusService = new StatusService(repositoryIndex, fixture.repositoryCache, 2, 100);
+	}
+
+	@AfterEach
+	void tearDown() {
+		statusService.close();
+		repositoryIndex.close();
+		fixture.close();
+		git.close();
+	}
+
+	@Test
+	void divergedBranchIsAheadAndBehind() {
+		Map<String, BranchStatus> statuses = byBranch(statusService.getWorkspaceStatus(directory.resolve("workspace").toString(), 2));
+
+		BranchStatus master = statuses.get(Constants.MASTER);
+		assertTrue(master.getIsCurrentBranch());
+		assertEquals(Constants.R_REMOTES + "origin/" + Constants.MASTER, master.getUpstream());
+		assertEquals(2, master.getAheadCount());
+		assertEquals(1, master.getBehindCount());
+
+		BranchStatus topic = statuses.get("topic");
+		assertEquals(RestConstants.GIT_NO_REMOTE_TRACKING_OF_BRANCH, topic.getMessage());
+		assertNull(topic.getAheadCount());
+	}
+
+	@Test
+	void newTipIsCountedAgain() throws Exception {
+		assertEquals(2, byBranch(statusService.getStatus(repository)).get(Constants.MASTER).getAheadCount());
+
+		commit("local 3");
+		// Only the counts cache is under test, not the detection of the ref change
+		fixture.repositoryCache.invalidateRefs(repository.getPath());
+
+		// The cached counts are keyed by the previous tip, the new one is walked
+		BranchStatus master = byBranch(statusService.getStatus(repository)).get(Constants.MASTER);
+		assertEquals(3, master.getAheadCount());
+		assertEquals(1, master.getBehindCount());
+	}
+
+	@Test
+	void branchNotPointingToACommitIsReportedAlone() throws Exception {
+		RevCommit head = git.getRepository().parseCommit(git.getRepository().resolve(Constants.HEAD));
+		ObjectId tag = git.tag().setName("release").setMessage("release").setAnnotated(true).call().getObjectId();
+		branchWithUpstream("tagged", tag);
+		branchWithUpstream("tree", head.getTree());
+
+		Map<String, BranchStatus> statuses = byBranch(statusService.getStatus(repository));
+
+		// An annotated tag is peeled to its commit, master's tip
+		assertEquals(2, statuses.get("tagged").getAheadCount());
+		assertEquals(1, statuses.get("tagged").getBehindCount());
+		assertEquals(RestConstants.GIT_BRANCH_NOT_A_COMMIT, statuses.get("tree").getMessage());
+		assertNull(statuses.get("tree").getAheadCount());
+		assertEquals(2, statuses.get(Constants.MASTER).getAheadCount());
+	}
+
+	private void branchWithUpstream(String branchName, ObjectId tip) throws Exception {
+		RefUpdate update = git.getRepository().updateRef(Constants.R_HEADS + branchName);
+		update.setNewObjectId(tip);
+		update.forceUpdate();
+		StoredConfig config = git.getRepository().getConfig();
+		config.setString("branch", branchName, "remote", "origin");
+		config.setString("branch", branchName, "merge", Constants.R_HEADS + Constants.MASTER);
+		config.save();
+	}
+
+	private RevCommit commit(String message) throws Exception {
+		return git.commit()
+				.setMessage(message)
+				.setAllowEmpty(true)
+				.setAuthor("whistler", "whistler@codeark.xyz")
+				.setCommitter("whistler", "whistler@codeark.xyz")
+				.call();
+	}
+
+	private static Map<String, BranchStatus> byBranch(List<BranchStatus> statuses) {
+		return statuses.stream().collect(Collectors.toMap(BranchStatus::getBranchName, Function.identity()));
+	}
+}
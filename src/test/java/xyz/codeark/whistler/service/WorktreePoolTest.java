@@ -0,0 +1,95 @@
+package xyz.codeark.whistler.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.codeark.whistler.dto.Directory;
+import xyz.codeark.whistler.dto.Worktree;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorktreePoolTest {
+
+	@TempDir
+	Path workspace;
+
+	private Git git;
+	private Directory repository;
+	private RepositoryCache repositoryCache;
+	private WorktreePool worktreePool;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Path path = workspace.resolve("repository");
+		git = Git.init().setDirectory(path.toFile()).call();
+		commit("README.md", "initial");
+		git.branchCreate().setName("feature/one").call();
+		git.branchCreate().setName("two").call();
+		git.branchCreate().setName("three").call();
+
+		repository = new Directory();
+		repository.setPath(path.toString());
+		repository.setName("repository");
+		repositoryCache = new RepositoryCache(new GitMetrics(new SimpleMeterRegistry(), false, false), 8, 60000, 5000);
+		worktreePool = new WorktreePool(repositoryCache, new RepositoryLocks(4), workspace.resolve("pool").toString(), 2, 1 << 20, "git");
+	}
+
+	@AfterEach
+	void tearDown() {
+		git.close();
+		repositoryCache.close();
+	}
+
+	@Test
+	void branchesAreCheckedOutSideBySideAndFollowTheirTip() throws Exception {
+		try (WorktreePool.Lease one = worktreePool.acquire(repository, "feature/one");
+			 WorktreePool.Lease two = worktreePool.acquire(repository, "two")) {
+			assertTrue(Files.exists(one.getPath().resolve("README.md")));
+			assertTrue(Files.exists(two.getPath().resolve("README.md")));
+		}
+		assertEquals("master", git.getRepository().getBranch());
+
+		git.checkout().setName("two").call();
+		String tip = commit("CHANGELOG.md", "two").name();
+		git.checkout().setName("master").call();
+
+		Worktree worktree = worktreePool.prepare(repository, "two");
+		assertEquals(tip, worktree.getCommitId());
+		assertFalse(worktree.isInUse());
+		assertTrue(Files.exists(Path.of(worktree.getPath(), "CHANGELOG.md")));
+	}
+
+	@Test
+	void leastRecentlyUsedWorktreeIsEvicted() {
+		Path one = Path.of(worktreePool.prepare(repository, "feature/one").getPath());
+		worktreePool.prepare(repository, "two");
+		worktreePool.prepare(repository, "three");
+
+		List<String> branches = worktreePool.getWorktrees(repository).stream()
+				.map(Worktree::getBranchName)
+				.collect(Collectors.toList());
+		assertEquals(List.of("two", "three"), branches);
+		assertFalse(Files.exists(one));
+	}
+
+	private RevCommit commit(String file, String message) throws Exception {
+		Files.writeString(git.getRepository().getWorkTree().toPath().resolve(file), message);
+		git.add().addFilepattern(file).call();
+		return git.commit()
+				.setMessage(message)
+				.setAuthor("whistler", "whistler@codeark.xyz")
+				.setCommitter("whistler", "whistler@codeark.xyz")
+				.call();
+	}
+}
@@ -0,0 +1,58 @@
+package xyz.codeark.whistler.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import xyz.codeark.whistler.service.DirectoryWalker;
+import xyz.codeark.whistler.service.FetchScheduler;
+import xyz.codeark.whistler.service.GitMetrics;
+import xyz.codeark.whistler.service.GitService;
+import xyz.codeark.whistler.service.RepositoryCache;
+import xyz.codeark.whistler.service.RepositoryLocks;
+import xyz.codeark.whistler.service.RepositoryMaintenance;
+import xyz.codeark.whistler.service.WorktreePool;
+
+import java.nio.file.Path;
+
+/**
+ * The git services wired as in the application, with the default properties, for tests and
+ * benchmarks. Worktrees are pooled in the given directory. Metrics are disabled so they are not
+ * part of the measurements, and nothing is fetched or maintained in the background.
+ */
+public final class GitServiceFixture implements AutoCloseable {
+	public final GitMetrics gitMetrics = new GitMetrics(new SimpleMeterRegistry(), false, false);
+	public final RepositoryLocks repositoryLocks = new RepositoryLocks(64);
+	public final RepositoryCache repositoryCache;
+	public final DirectoryWalker directoryWalker = new DirectoryWalker(0,
+			new String[]{".git", ".gradle", ".idea", "build", "target", "node_modules"}, false);
+	public final FetchScheduler fetchScheduler;
+	public final WorktreePool worktreePool;
+	public final RepositoryMaintenance maintenance;
+	public final GitService gitService;
+
+	public GitServiceFixture(Path directory) {
+		this(directory, 5000);
+	}
+
+	/**
+	 * @param directory        Directory the worktrees are pooled in
+	 * @param refsMaxAgeMillis Maximum age of the cached ref snapshots
+	 */
+	public GitServiceFixture(Path directory, long refsMaxAgeMillis) {
+		repositoryCache = new RepositoryCache(gitMetrics, 256, 300000, refsMaxAgeMillis);
+		fetchScheduler = new FetchScheduler(repositoryCache, repositoryLocks, gitMetrics, 0, 8, 4);
+		worktreePool = new WorktreePool(repositoryCache, repositoryLocks,
+				directory.resolve("worktrees").toString(), 4, 10737418240L, "git");
+		maintenance = new RepositoryMaintenance(repositoryCache, repositoryLocks, worktreePool, gitMetrics, 0,
+				600000, "", 1, 6700, 50, 1000, 10000);
+		gitService = new GitService(repositoryCache, directoryWalker, repositoryLocks, fetchScheduler, worktreePool,
+				maintenance, gitMetrics, 8, 300000);
+	}
+
+	@Override
+	public void close() {
+		gitService.close();
+		fetchScheduler.close();
+		maintenance.close();
+		directoryWalker.close();
+		repositoryCache.close();
+	}
+}
@@ -0,0 +1,120 @@
+package xyz.codeark.whistler.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Latencies and errors of the requests of a load test, per operation.
+ */
+public class LoadReport {
+	private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+	private final long startedAt = System.nanoTime();
+	private long finishedAt;
+
+	/**
+	 * @param operation Name of the operation
+	 * @param nanos     Latency of the request
+	 * @param error     Why the request failed, null if it succeeded
+	 */
+	public void record(String operation, long nanos, String error) {
+		operations.computeIfAbsent(operation, name -> new Operation()).record(nanos, error);
+	}
+
+	public void finish() {
+		finishedAt = System.nanoTime();
+	}
+
+	public List<Summary> summarize() {
+		double seconds = ((finishedAt > 0 ? finishedAt : System.nanoTime()) - startedAt) / 1e9;
+		return new TreeMap<>(operations).entrySet().stream()
+				.map(entry -> entry.getValue().summarize(entry.getKey(), seconds))
+				.collect(Collectors.toList());
+	}
+
+	public void write(Path file, ObjectMapper objectMapper) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		objectMapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), summarize());
+	}
+
+	public String format() {
+		StringBuilder table = new StringBuilder(String.format("%-14s %9s %8s %10s %10s %10s %10s%n",
+				"operation", "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms"));
+		for (Summary summary : summarize()) {
+			table.append(String.format("%-14s %9d %8d %10.1f %10.1f %10.1f %10.1f%n", summary.operation, summary.requests,
+					summary.errors, summary.throughput, summary.p50Millis, summary.p99Millis, summary.maxMillis));
+			summary.errorReasons.forEach((reason, count) -> table.append(String.format("    %6d x %s%n", count, reason)));
+		}
+		return table.toString();
+	}
+
+	private static final class Operation {
+		private long[] latencies = new long[1024];
+		private int requests;
+		private final Map<String, Integer> errorReasons = new TreeMap<>();
+
+		private synchronized void record(long nanos, String error) {
+			if (requests == latencies.length) {
+				latencies = Arrays.copyOf(latencies, requests * 2);
+			}
+			latencies[requests++] = nanos;
+			if (error != null) {
+				errorReasons.merge(error, 1, Integer::sum);
+			}
+		}
+
+		private synchronized Summary summarize(String operation, double seconds) {
+			long[] sorted = Arrays.copyOf(latencies, requests);
+			Arrays.sort(sorted);
+			int errors = errorReasons.values().stream().mapToInt(Integer::intValue).sum();
+			return new Summary(operation, requests, errors, requests / seconds, percentile(sorted, 0.5),
+					percentile(sorted, 0.99), percentile(sorted, 1), new TreeMap<>(errorReasons));
+		}
+
+		private static double percentile(long[] sorted, double percentile) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile * sorted.length) - 1;
+			return sorted[Math.max(0, index)] / 1e6;
+		}
+	}
+
+	@Getter
+	public static final class Summary {
+		private final String operation;
+		private final int requests;
+		private final int errors;
+		private final double errorRate;
+		/**
+		 * Requests per second over the whole test
+		 */
+		private final double throughput;
+		private final double p50Millis;
+		private final double p99Millis;
+		private final double maxMillis;
+		private final Map<String, Integer> errorReasons;
+
+		private Summary(String operation, int requests, int errors, double throughput, double p50Millis,
+						double p99Millis, double maxMillis, Map<String, Integer> errorReasons) {
+			this.operation = operation;
+			this.requests = requests;
+			this.errors = errors;
+			this.errorRate = requests > 0 ? (double) errors / requests : 0;
+			this.throughput = throughput;
+			this.p50Millis = p50Millis;
+			this.p99Millis = p99Millis;
+			this.maxMillis = maxMillis;
+			this.errorReasons = errorReasons;
+		}
+	}
+}
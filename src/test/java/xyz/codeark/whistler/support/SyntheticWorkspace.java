@@ -0,0 +1,318 @@
+package xyz.codeark.whistler.support;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.internal.storage.file.RefDirectory;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import xyz.codeark.whistler.dto.Directory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Generates a workspace of git repositories for benchmarks and load tests, without any network.
+ * <p>
+ * Every repository has one commit on {@code master} and the configured number of local branches
+ * on it. Each branch tracks an {@code origin} branch one commit ahead, so tracking checks see a
+ * branch behind its upstream. The {@code origin} remote points to a bare repository only when
+ * {@link Builder#remotes(boolean)} is set, otherwise fetching is not possible. Repositories are
+ * spread over nested directories down to the configured depth, and every other repository is a
+ * Maven project.
+ */
+public final class SyntheticWorkspace {
+	public static final String BRANCH_PREFIX = "feature/branch-";
+	public static final String REMOTE_FILE = "remote.txt";
+
+	private static final PersonIdent AUTHOR = new PersonIdent("whistler", "whistler@codeark.xyz", 1600000000000L, 0);
+	private static final int FAN_OUT = 4;
+
+	private final Path root;
+	private final List<Directory> repositories;
+	private final List<Path> remotes;
+	private final int branches;
+
+	private SyntheticWorkspace(Path root, List<Directory> repositories, List<Path> remotes, int branches) {
+		this.root = root;
+		this.repositories = repositories;
+		this.remotes = remotes;
+		this.branches = branches;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	public List<Directory> getRepositories() {
+		return repositories;
+	}
+
+	/**
+	 * Bare repositories the workspace repositories fetch from, empty without remotes.
+	 */
+	public List<Path> getRemotes() {
+		return remotes;
+	}
+
+	public String getBranchName(int index) {
+		return BRANCH_PREFIX + (index % branches);
+	}
+
+	/**
+	 * Pushes a commit changing {@value #REMOTE_FILE} to a branch of the remote of a repository,
+	 * which the next fetch of the repository picks up.
+	 *
+	 * @param index      Index of the repository
+	 * @param branchName Branch of the remote to commit to
+	 * @return The new commit
+	 */
+	public ObjectId pushRemoteCommit(int index, String branchName) throws IOException {
+		try (Git remote = Git.open(remotes.get(index).toFile())) {
+			Repository repository = remote.getRepository();
+			ObjectId head = repository.resolve(Constants.R_HEADS + branchName);
+			String message = "remote " + System.nanoTime();
+			ObjectId commit;
+			try (ObjectInserter inserter = repository.newObjectInserter()) {
+				commit = insertCommit(inserter, withFile(repository, inserter, head, REMOTE_FILE, message), head, message);
+				inserter.flush();
+			}
+			update(repository, Constants.R_HEADS + branchName, commit);
+			return commit;
+		}
+	}
+
+	public static final class Builder {
+		private int repositories = 10;
+		private int depth = 1;
+		private int branches = 10;
+		private boolean packedRefs;
+		private boolean remotes;
+
+		private Builder() {
+		}
+
+		public Builder repositories(int repositories) {
+			this.repositories = repositories;
+			return this;
+		}
+
+		/**
+		 * Number of directory levels between the root and the repositories, at least 1.
+		 */
+		public Builder depth(int depth) {
+			this.depth = Math.max(1, depth);
+			return this;
+		}
+
+		public Builder branches(int branches) {
+			this.branches = Math.max(1, branches);
+			return this;
+		}
+
+		/**
+		 * Whether the refs are packed into {@code packed-refs} rather than loose files.
+		 */
+		public Builder packedRefs(boolean packedRefs) {
+			this.packedRefs = packedRefs;
+			return this;
+		}
+
+		/**
+		 * Whether each repository gets a bare remote to fetch from.
+		 */
+		public Builder remotes(boolean remotes) {
+			this.remotes = remotes;
+			return this;
+		}
+
+		/**
+		 * Creates the repositories in the {@code workspace} directory of the given directory, and
+		 * their remotes next to it so discovery does not walk them.
+		 */
+		public SyntheticWorkspace create(Path directory) throws IOException {
+			Path root = directory.resolve("workspace");
+			List<Directory> directories = new ArrayList<>(repositories);
+			List<Path> remotePaths = new ArrayList<>();
+			for (int index = 0; index < repositories; index++) {
+				Path path = root;
+				for (int level = 1; level < depth; level++) {
+					path = path.resolve("level" + level + "-" + (index / pow(FAN_OUT, depth - level - 1)) % FAN_OUT);
+				}
+				String name = "repository-" + index;
+				path = path.resolve(name);
+				Path remote = remotes ? directory.resolve("remotes").resolve(name + ".git") : null;
+				createRepository(path, remote, index);
+
+				Directory repository = new Directory();
+				repository.setPath(path.toString());
+				repository.setName(name);
+				repository.setIsGitRepository(true);
+				directories.add(repository);
+				if (remote != null) {
+					remotePaths.add(remote);
+				}
+			}
+			return new SyntheticWorkspace(root, Collections.unmodifiableList(directories), Collections.unmodifiableList(remotePaths), branches);
+		}
+
+		private void createRepository(Path path, Path remote, int index) throws IOException {
+			Files.createDirectories(path);
+			if (index % 2 == 0) {
+				Files.writeString(path.resolve("pom.xml"), "<project><groupId>xyz.codeark</groupId><artifactId>repository-"
+						+ index + "</artifactId></project>\n");
+			}
+			try (Git git = Git.init().setDirectory(path.toFile()).call()) {
+				git.add().addFilepattern(".").call();
+				RevCommit initial = git.commit()
+						.setMessage("initial")
+						.setAuthor(AUTHOR)
+						.setCommitter(AUTHOR)
+						.setAllowEmpty(true)
+						.call();
+				Repository repository = git.getRepository();
+				ObjectId upstream = commit(repository, initial, "upstream");
+
+				// Config#setString sorts the whole config on every call, so the sections are appended as text
+				StringBuilder config = new StringBuilder()
+						.append("[remote \"origin\"]\n")
+						.append("\turl = ").append((remote != null ? remote : path.resolve("missing-remote.git")).toUri()).append('\n')
+						.append("\tfetch = +refs/heads/*:refs/remotes/origin/*\n");
+				List<String> refs = new ArrayList<>();
+				for (int branch = 0; branch < branches; branch++) {
+					String name = BRANCH_PREFIX + branch;
+					writeLooseRef(repository, Constants.R_HEADS + name, initial);
+					writeLooseRef(repository, Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + name, upstream);
+					config.append("[branch \"").append(name).append("\"]\n")
+							.append("\tremote = origin\n")
+							.append("\tmerge = ").append(Constants.R_HEADS).append(name).append('\n');
+					refs.add(Constants.R_HEADS + name);
+					refs.add(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + name);
+				}
+				Files.writeString(repository.getDirectory().toPath().resolve(Constants.CONFIG), config, StandardOpenOption.APPEND);
+				repository.getConfig().load();
+
+				if (remote != null) {
+					createRemote(repository, path, remote, initial, upstream);
+				}
+				if (packedRefs) {
+					refs.add(Constants.R_HEADS + Constants.MASTER);
+					// JGit 5.10 has no public command to pack refs, gc would also repack the objects
+					((RefDirectory) repository.getRefDatabase()).pack(refs);
+				}
+			} catch (GitAPIException | ConfigInvalidException e) {
+				throw new IOException("Could not create the repository " + path, e);
+			}
+		}
+
+		/**
+		 * Clones the repository while its branches are on the upstream commit, so they are still
+		 * behind the remote after a fetch.
+		 */
+		private void createRemote(Repository repository, Path path, Path remote, ObjectId initial, ObjectId upstream)
+				throws IOException, GitAPIException {
+			for (int branch = 0; branch < branches; branch++) {
+				writeLooseRef(repository, Constants.R_HEADS + BRANCH_PREFIX + branch, upstream);
+			}
+			Git.cloneRepository()
+					.setBare(true)
+					.setURI(path.toUri().toString())
+					.setDirectory(remote.toFile())
+					.call()
+					.close();
+			for (int branch = 0; branch < branches; branch++) {
+				writeLooseRef(repository, Constants.R_HEADS + BRANCH_PREFIX + branch, initial);
+			}
+		}
+
+		/**
+		 * Writes the ref file directly, as RefUpdate scans all the loose refs for name conflicts
+		 * on every update.
+		 */
+		private static void writeLooseRef(Repository repository, String ref, ObjectId id) throws IOException {
+			Path file = repository.getDirectory().toPath().resolve(ref);
+			Files.createDirectories(file.getParent());
+			Files.writeString(file, id.name() + "\n");
+		}
+
+		private static int pow(int base, int exponent) {
+			int result = 1;
+			for (int i = 0; i < exponent; i++) {
+				result *= base;
+			}
+			return result;
+		}
+	}
+
+	private static ObjectId commit(Repository repository, ObjectId parent, String message) throws IOException {
+		try (ObjectInserter inserter = repository.newObjectInserter()) {
+			ObjectId id = insertCommit(inserter, repository.parseCommit(parent).getTree(), parent, message);
+			inserter.flush();
+			return id;
+		}
+	}
+
+	private static ObjectId insertCommit(ObjectInserter inserter, ObjectId tree, ObjectId parent, String message) throws IOException {
+		CommitBuilder commit = new CommitBuilder();
+		commit.setTreeId(tree);
+		commit.setParentId(parent);
+		commit.setAuthor(AUTHOR);
+		commit.setCommitter(AUTHOR);
+		commit.setMessage(message);
+		return inserter.insert(commit);
+	}
+
+	/**
+	 * Inserts the tree of a commit with a top level file added or replaced.
+	 */
+	private static ObjectId withFile(Repository repository, ObjectInserter inserter, ObjectId commit, String name, String content)
+			throws IOException {
+		// Git orders the entries of a tree by name, which is what TreeFormatter expects
+		Map<String, ObjectId> entries = new TreeMap<>();
+		Map<String, FileMode> modes = new HashMap<>();
+		try (TreeWalk walk = new TreeWalk(repository)) {
+			walk.addTree(repository.parseCommit(commit).getTree());
+			while (walk.next()) {
+				entries.put(walk.getNameString(), walk.getObjectId(0));
+				modes.put(walk.getNameString(), walk.getFileMode(0));
+			}
+		}
+		entries.put(name, inserter.insert(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8)));
+		modes.put(name, FileMode.REGULAR_FILE);
+		TreeFormatter tree = new TreeFormatter();
+		entries.forEach((entry, id) -> tree.append(entry, modes.get(entry), id));
+		return inserter.insert(tree);
+	}
+
+	private static void update(Repository repository, String ref, ObjectId id) throws IOException {
+		RefUpdate update = repository.updateRef(ref);
+		update.setNewObjectId(id);
+		update.setForceUpdate(true);
+		RefUpdate.Result result = update.update();
+		if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED && result != RefUpdate.Result.NO_CHANGE) {
+			throw new IOException("Could not update " + ref + ": " + result);
+		}
+	}
+}